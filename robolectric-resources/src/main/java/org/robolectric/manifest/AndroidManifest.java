@@ -1,17 +1,26 @@
 package org.robolectric.manifest;
 
 import android.app.Activity;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import org.robolectric.annotation.Config;
@@ -41,6 +50,10 @@ import static android.content.pm.ApplicationInfo.FLAG_VM_SAFE_MODE;
 
 public class AndroidManifest {
   public static final String DEFAULT_MANIFEST_NAME = "AndroidManifest.xml";
+  private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+  // Manifests parsed so far by their content and package name, which are never handed out themselves; softly
+  // referenced, so they can be parsed again rather than kept for every manifest a long test run has seen
+  private static final Map<String, SoftReference<AndroidManifest>> PARSED_MANIFESTS = new ConcurrentHashMap<>();
 
   private final FsFile androidManifestFile;
   private final FsFile resDirectory;
@@ -127,58 +140,115 @@ public class AndroidManifest {
     if (manifestIsParsed) {
       return;
     }
-    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
     try {
-      DocumentBuilder db = dbf.newDocumentBuilder();
-      InputStream inputStream = androidManifestFile.getInputStream();
-      Document manifestDocument = db.parse(inputStream);
-      inputStream.close();
+      byte[] contents = androidManifestFile.getBytes();
+      String key = digest(contents) + ":" + packageName;
+      SoftReference<AndroidManifest> reference = PARSED_MANIFESTS.get(key);
+      AndroidManifest parsed = reference == null ? null : reference.get();
+      if (parsed == null) {
+        parsed = new AndroidManifest(androidManifestFile, resDirectory, assetsDirectory, packageName);
+        parsed.parse(contents);
+        removeClearedParsedManifests();
+        PARSED_MANIFESTS.put(key, new SoftReference<>(parsed));
+      }
+      copyParsedManifest(parsed);
+    } catch (Exception ignored) {
+      ignored.printStackTrace();
+    }
+    manifestIsParsed = true;
+  }
+
+  private static void removeClearedParsedManifests() {
+    for (Iterator<SoftReference<AndroidManifest>> iterator = PARSED_MANIFESTS.values().iterator(); iterator.hasNext(); ) {
+      if (iterator.next().get() == null) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private void parse(byte[] contents) {
+    try {
+      DocumentBuilder db;
+      synchronized (DOCUMENT_BUILDER_FACTORY) {
+        db = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+      }
+      Document manifestDocument = db.parse(new ByteArrayInputStream(contents));
+      Map<String, List<Node>> elements = getElementsByTagNames(manifestDocument, "manifest", "application", "uses-sdk", "uses-permission");
+      List<Node> manifestElements = elements.get("manifest");
+      List<Node> applicationElements = elements.get("application");
+      List<Node> usesSdkElements = elements.get("uses-sdk");
 
       if (packageName == null) {
-        packageName = getTagAttributeText(manifestDocument, "manifest", "package");
+        packageName = getTagAttributeText(manifestElements, "package");
       }
-      versionCode = getTagAttributeIntValue(manifestDocument, "manifest", "android:versionCode", 0);
-      versionName = getTagAttributeText(manifestDocument, "manifest", "android:versionName");
+      versionCode = getTagAttributeIntValue(manifestElements, "android:versionCode", 0);
+      versionName = getTagAttributeText(manifestElements, "android:versionName");
       rClassName = packageName + ".R";
-      applicationName = getTagAttributeText(manifestDocument, "application", "android:name");
-      applicationLabel = getTagAttributeText(manifestDocument, "application", "android:label");
-      minSdkVersion = getTagAttributeIntValue(manifestDocument, "uses-sdk", "android:minSdkVersion");
-      targetSdkVersion = getTagAttributeIntValue(manifestDocument, "uses-sdk", "android:targetSdkVersion");
-      processName = getTagAttributeText(manifestDocument, "application", "android:process");
+      applicationName = getTagAttributeText(applicationElements, "android:name");
+      applicationLabel = getTagAttributeText(applicationElements, "android:label");
+      minSdkVersion = getTagAttributeIntValue(usesSdkElements, "android:minSdkVersion");
+      targetSdkVersion = getTagAttributeIntValue(usesSdkElements, "android:targetSdkVersion");
+      processName = getTagAttributeText(applicationElements, "android:process");
       if (processName == null) {
         processName = packageName;
       }
 
-      themeRef = getTagAttributeText(manifestDocument, "application", "android:theme");
-      labelRef = getTagAttributeText(manifestDocument, "application", "android:label");
-
-      parseApplicationFlags(manifestDocument);
-      parseReceivers(manifestDocument);
-      parseServices(manifestDocument);
-      parseActivities(manifestDocument);
-      parseApplicationMetaData(manifestDocument);
-      parseContentProviders(manifestDocument);
-      parseUsedPermissions(manifestDocument);
+      themeRef = getTagAttributeText(applicationElements, "android:theme");
+      labelRef = getTagAttributeText(applicationElements, "android:label");
+
+      parseApplicationFlags(applicationElements);
+      if (!applicationElements.isEmpty()) {
+        Map<String, List<Node>> applicationChildren = getChildrenTagsByName(applicationElements.get(0));
+        parseReceivers(tags(applicationChildren, "receiver"));
+        parseServices(tags(applicationChildren, "service"));
+        parseActivities(tags(applicationChildren, "activity"), tags(applicationChildren, "activity-alias"));
+        applicationMetaData = new MetaData(tags(applicationChildren, "meta-data"));
+        parseContentProviders(tags(applicationChildren, "provider"));
+      }
+      parseUsedPermissions(elements.get("uses-permission"));
     } catch (Exception ignored) {
       ignored.printStackTrace();
     }
-    manifestIsParsed = true;
   }
 
-  private void parseUsedPermissions(Document manifestDocument) {
-    NodeList elementsByTagName = manifestDocument.getElementsByTagName("uses-permission");
-    int length = elementsByTagName.getLength();
-    for (int i = 0; i < length; i++) {
-      Node node = elementsByTagName.item(i).getAttributes().getNamedItem("android:name");
-      usedPermissions.add(node.getNodeValue());
+  private void copyParsedManifest(AndroidManifest parsed) {
+    packageName = parsed.packageName;
+    versionCode = parsed.versionCode;
+    versionName = parsed.versionName;
+    rClassName = parsed.rClassName;
+    applicationName = parsed.applicationName;
+    applicationLabel = parsed.applicationLabel;
+    minSdkVersion = parsed.minSdkVersion;
+    targetSdkVersion = parsed.targetSdkVersion;
+    processName = parsed.processName;
+    themeRef = parsed.themeRef;
+    labelRef = parsed.labelRef;
+    applicationFlags = parsed.applicationFlags;
+
+    // Meta data is resolved against each manifest's resources, so everything holding it is copied.
+    for (BroadcastReceiverData receiver : parsed.receivers) {
+      receivers.add(new BroadcastReceiverData(receiver));
+    }
+    for (ServiceData service : parsed.services) {
+      services.add(new ServiceData(service));
     }
+    activityDatas.putAll(parsed.activityDatas);
+    if (parsed.applicationMetaData != null) {
+      applicationMetaData = new MetaData(parsed.applicationMetaData);
+    }
+    providers.addAll(parsed.providers);
+    usedPermissions.addAll(parsed.usedPermissions);
   }
 
-  private void parseContentProviders(Document manifestDocument) {
-    Node application = manifestDocument.getElementsByTagName("application").item(0);
-    if (application == null) return;
+  private void parseUsedPermissions(List<Node> usesPermissionElements) {
+    for (Node usesPermission : usesPermissionElements) {
+      Node node = usesPermission.getAttributes().getNamedItem("android:name");
+      usedPermissions.add(node.getNodeValue());
+    }
+  }
 
-    for (Node contentProviderNode : getChildrenTags(application, "provider")) {
+  private void parseContentProviders(List<Node> providerNodes) {
+    for (Node contentProviderNode : providerNodes) {
       Node nameItem = contentProviderNode.getAttributes().getNamedItem("android:name");
       Node authorityItem = contentProviderNode.getAttributes().getNamedItem("android:authorities");
       if (nameItem != null && authorityItem != null) {
@@ -187,20 +257,17 @@ public class AndroidManifest {
     }
   }
 
-  private void parseReceivers(final Document manifestDocument) {
-    Node application = manifestDocument.getElementsByTagName("application").item(0);
-    if (application == null) return;
-
-    for (Node receiverNode : getChildrenTags(application, "receiver")) {
+  private void parseReceivers(List<Node> receiverNodes) {
+    for (Node receiverNode : receiverNodes) {
       Node namedItem = receiverNode.getAttributes().getNamedItem("android:name");
       if (namedItem == null) continue;
 
       String receiverName = resolveClassRef(namedItem.getTextContent());
-      MetaData metaData = new MetaData(getChildrenTags(receiverNode, "meta-data"));
+      Map<String, List<Node>> receiverChildren = getChildrenTagsByName(receiverNode);
+      MetaData metaData = new MetaData(tags(receiverChildren, "meta-data"));
 
       BroadcastReceiverData receiver = new BroadcastReceiverData(receiverName, metaData);
-      List<Node> intentFilters = getChildrenTags(receiverNode, "intent-filter");
-      for (Node intentFilterNode : intentFilters) {
+      for (Node intentFilterNode : tags(receiverChildren, "intent-filter")) {
         for (Node actionNode : getChildrenTags(intentFilterNode, "action")) {
           Node nameNode = actionNode.getAttributes().getNamedItem("android:name");
           if (nameNode != null) {
@@ -216,20 +283,17 @@ public class AndroidManifest {
     }
   }
 
-  private void parseServices(final Document manifestDocument) {
-    Node application = manifestDocument.getElementsByTagName("application").item(0);
-    if (application == null) return;
-
-    for (Node serviceNode : getChildrenTags(application, "service")) {
+  private void parseServices(List<Node> serviceNodes) {
+    for (Node serviceNode : serviceNodes) {
       Node namedItem = serviceNode.getAttributes().getNamedItem("android:name");
       if (namedItem == null) continue;
 
       String serviceName = resolveClassRef(namedItem.getTextContent());
-      MetaData metaData = new MetaData(getChildrenTags(serviceNode, "meta-data"));
+      Map<String, List<Node>> serviceChildren = getChildrenTagsByName(serviceNode);
+      MetaData metaData = new MetaData(tags(serviceChildren, "meta-data"));
 
       ServiceData service = new ServiceData(serviceName, metaData);
-      List<Node> intentFilters = getChildrenTags(serviceNode, "intent-filter");
-      for (Node intentFilterNode : intentFilters) {
+      for (Node intentFilterNode : tags(serviceChildren, "intent-filter")) {
         for (Node actionNode : getChildrenTags(intentFilterNode, "action")) {
           Node nameNode = actionNode.getAttributes().getNamedItem("android:name");
           if (nameNode != null) {
@@ -245,15 +309,12 @@ public class AndroidManifest {
     }
   }
 
-  private void parseActivities(final Document manifestDocument) {
-    Node application = manifestDocument.getElementsByTagName("application").item(0);
-    if (application == null) return;
-
-    for (Node activityNode : getChildrenTags(application, "activity")) {
+  private void parseActivities(List<Node> activityNodes, List<Node> activityAliasNodes) {
+    for (Node activityNode : activityNodes) {
       parseActivity(activityNode, false);
     }
 
-    for (Node activityNode : getChildrenTags(application, "activity-alias")) {
+    for (Node activityNode : activityAliasNodes) {
       parseActivity(activityNode, true);
     }
   }
@@ -381,22 +442,15 @@ public class AndroidManifest {
     }
   }
 
-  private void parseApplicationMetaData(final Document manifestDocument) {
-    Node application = manifestDocument.getElementsByTagName("application").item(0);
-    if (application == null) {
-      return;
-    }
-    applicationMetaData = new MetaData(getChildrenTags(application, "meta-data"));
-  }
-
   private String resolveClassRef(String maybePartialClassName) {
     return (maybePartialClassName.startsWith(".")) ? packageName + maybePartialClassName : maybePartialClassName;
   }
 
   private List<Node> getChildrenTags(final Node node, final String tagName) {
     List<Node> children = new ArrayList<>();
-    for (int i = 0; i < node.getChildNodes().getLength(); i++) {
-      Node childNode = node.getChildNodes().item(i);
+    NodeList childNodes = node.getChildNodes();
+    for (int i = 0; i < childNodes.getLength(); i++) {
+      Node childNode = childNodes.item(i);
       if (childNode.getNodeName().equalsIgnoreCase(tagName)) {
         children.add(childNode);
       }
@@ -404,35 +458,92 @@ public class AndroidManifest {
     return children;
   }
 
-  private void parseApplicationFlags(final Document manifestDocument) {
-    applicationFlags = getApplicationFlag(manifestDocument, "android:allowBackup", FLAG_ALLOW_BACKUP);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:allowClearUserData", FLAG_ALLOW_CLEAR_USER_DATA);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:allowTaskReparenting", FLAG_ALLOW_TASK_REPARENTING);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:debuggable", FLAG_DEBUGGABLE);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:hasCode", FLAG_HAS_CODE);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:killAfterRestore", FLAG_KILL_AFTER_RESTORE);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:persistent", FLAG_PERSISTENT);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:resizeable", FLAG_RESIZEABLE_FOR_SCREENS);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:restoreAnyVersion", FLAG_RESTORE_ANY_VERSION);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:largeScreens", FLAG_SUPPORTS_LARGE_SCREENS);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:normalScreens", FLAG_SUPPORTS_NORMAL_SCREENS);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:anyDensity", FLAG_SUPPORTS_SCREEN_DENSITIES);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:smallScreens", FLAG_SUPPORTS_SMALL_SCREENS);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:testOnly", FLAG_TEST_ONLY);
-    applicationFlags += getApplicationFlag(manifestDocument, "android:vmSafeMode", FLAG_VM_SAFE_MODE);
-  }
-
-  private int getApplicationFlag(final Document doc, final String attribute, final int attributeValue) {
-    String flagString = getTagAttributeText(doc, "application", attribute);
+  /**
+   * @return The child elements of a node by their lower case tag name, to be looked up with {@link #tags}.
+   */
+  private static Map<String, List<Node>> getChildrenTagsByName(final Node node) {
+    Map<String, List<Node>> children = new HashMap<>();
+    NodeList childNodes = node.getChildNodes();
+    for (int i = 0; i < childNodes.getLength(); i++) {
+      Node childNode = childNodes.item(i);
+      if (childNode.getNodeType() == Node.ELEMENT_NODE) {
+        String tagName = childNode.getNodeName().toLowerCase(Locale.ENGLISH);
+        List<Node> nodes = children.get(tagName);
+        if (nodes == null) {
+          nodes = new ArrayList<>();
+          children.put(tagName, nodes);
+        }
+        nodes.add(childNode);
+      }
+    }
+    return children;
+  }
+
+  private static List<Node> tags(Map<String, List<Node>> tagsByName, String tagName) {
+    List<Node> tags = tagsByName.get(tagName);
+    return tags == null ? Collections.<Node>emptyList() : tags;
+  }
+
+  /**
+   * @return The elements of a document with any of the given tag names, by tag name, in document order.
+   */
+  private static Map<String, List<Node>> getElementsByTagNames(final Document doc, final String... tagNames) {
+    Map<String, List<Node>> elements = new HashMap<>();
+    for (String tagName : tagNames) {
+      elements.put(tagName, new ArrayList<Node>());
+    }
+    Deque<Node> pending = new ArrayDeque<>();
+    pending.push(doc);
+    while (!pending.isEmpty()) {
+      Node node = pending.pop();
+      List<Node> tagElements = node.getNodeType() == Node.ELEMENT_NODE ? elements.get(node.getNodeName()) : null;
+      if (tagElements != null) {
+        tagElements.add(node);
+      }
+      for (Node child = node.getLastChild(); child != null; child = child.getPreviousSibling()) {
+        pending.push(child);
+      }
+    }
+    return elements;
+  }
+
+  private static String digest(byte[] contents) throws NoSuchAlgorithmException {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : MessageDigest.getInstance("SHA-1").digest(contents)) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+  private void parseApplicationFlags(final List<Node> applicationElements) {
+    applicationFlags = getApplicationFlag(applicationElements, "android:allowBackup", FLAG_ALLOW_BACKUP);
+    applicationFlags += getApplicationFlag(applicationElements, "android:allowClearUserData", FLAG_ALLOW_CLEAR_USER_DATA);
+    applicationFlags += getApplicationFlag(applicationElements, "android:allowTaskReparenting", FLAG_ALLOW_TASK_REPARENTING);
+    applicationFlags += getApplicationFlag(applicationElements, "android:debuggable", FLAG_DEBUGGABLE);
+    applicationFlags += getApplicationFlag(applicationElements, "android:hasCode", FLAG_HAS_CODE);
+    applicationFlags += getApplicationFlag(applicationElements, "android:killAfterRestore", FLAG_KILL_AFTER_RESTORE);
+    applicationFlags += getApplicationFlag(applicationElements, "android:persistent", FLAG_PERSISTENT);
+    applicationFlags += getApplicationFlag(applicationElements, "android:resizeable", FLAG_RESIZEABLE_FOR_SCREENS);
+    applicationFlags += getApplicationFlag(applicationElements, "android:restoreAnyVersion", FLAG_RESTORE_ANY_VERSION);
+    applicationFlags += getApplicationFlag(applicationElements, "android:largeScreens", FLAG_SUPPORTS_LARGE_SCREENS);
+    applicationFlags += getApplicationFlag(applicationElements, "android:normalScreens", FLAG_SUPPORTS_NORMAL_SCREENS);
+    applicationFlags += getApplicationFlag(applicationElements, "android:anyDensity", FLAG_SUPPORTS_SCREEN_DENSITIES);
+    applicationFlags += getApplicationFlag(applicationElements, "android:smallScreens", FLAG_SUPPORTS_SMALL_SCREENS);
+    applicationFlags += getApplicationFlag(applicationElements, "android:testOnly", FLAG_TEST_ONLY);
+    applicationFlags += getApplicationFlag(applicationElements, "android:vmSafeMode", FLAG_VM_SAFE_MODE);
+  }
+
+  private int getApplicationFlag(final List<Node> applicationElements, final String attribute, final int attributeValue) {
+    String flagString = getTagAttributeText(applicationElements, attribute);
     return "true".equalsIgnoreCase(flagString) ? attributeValue : 0;
   }
 
-  private Integer getTagAttributeIntValue(final Document doc, final String tag, final String attribute) {
-    return getTagAttributeIntValue(doc, tag, attribute, null);
+  private Integer getTagAttributeIntValue(final List<Node> elements, final String attribute) {
+    return getTagAttributeIntValue(elements, attribute, null);
   }
 
-  private Integer getTagAttributeIntValue(final Document doc, final String tag, final String attribute, final Integer defaultValue) {
-    String valueString = getTagAttributeText(doc, tag, attribute);
+  private Integer getTagAttributeIntValue(final List<Node> elements, final String attribute, final Integer defaultValue) {
+    String valueString = getTagAttributeText(elements, attribute);
     if (valueString != null) {
       return Integer.parseInt(valueString);
     }
@@ -620,10 +731,8 @@ public class AndroidManifest {
     return services;
   }
 
-  private static String getTagAttributeText(final Document doc, final String tag, final String attribute) {
-    NodeList elementsByTagName = doc.getElementsByTagName(tag);
-    for (int i = 0; i < elementsByTagName.getLength(); ++i) {
-      Node item = elementsByTagName.item(i);
+  private static String getTagAttributeText(final List<Node> elements, final String attribute) {
+    for (Node item : elements) {
       Node namedItem = item.getAttributes().getNamedItem(attribute);
       if (namedItem != null) {
         return namedItem.getTextContent();
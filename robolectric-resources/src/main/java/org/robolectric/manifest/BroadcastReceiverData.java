@@ -15,6 +15,13 @@ public class BroadcastReceiverData {
     this.metaData = metaData;
   }
 
+  BroadcastReceiverData(BroadcastReceiverData other) {
+    this.actions = new ArrayList<>(other.actions);
+    this.className = other.className;
+    this.metaData = new MetaData(other.metaData);
+    this.permission = other.permission;
+  }
+
   public String getClassName() {
     return className;
   }
@@ -34,6 +34,12 @@ public final class MetaData {
     }
   }
 
+  MetaData(MetaData other) {
+    valueMap.putAll(other.valueMap);
+    typeMap.putAll(other.typeMap);
+    initialised = other.initialised;
+  }
+
   public void init(ResourceLoader resLoader, String packageName) {
     ResourceIndex resIndex = resLoader.getResourceIndex();
 
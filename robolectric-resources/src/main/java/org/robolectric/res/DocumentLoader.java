@@ -4,7 +4,28 @@ import com.ximpleware.VTDGen;
 import com.ximpleware.VTDNav;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Loads the resource XML files in a resource directory into {@link XmlLoader}s.
+ *
+ * <p>Unless the {@code robolectric.resources.parallel} system property is set to {@code false}, files are read and
+ * parsed on a pool of threads, a few files ahead of the one being loaded, but handed to the loaders one at a time on
+ * the calling thread, in the same order as when loading sequentially, so the loaded resources are identical. A file
+ * which can't be parsed fails the load with the same exception either way.</p>
+ */
 public class DocumentLoader {
+  static final boolean PARALLEL = Boolean.parseBoolean(System.getProperty("robolectric.resources.parallel", "true"));
+  private static final ForkJoinPool POOL = new ForkJoinPool();
+
   private static final FsFile.Filter ENDS_WITH_XML = new FsFile.Filter() {
     @Override public boolean accept(@NotNull FsFile fsFile) {
       return fsFile.getName().endsWith(".xml");
@@ -14,10 +35,16 @@ public class DocumentLoader {
   private final FsFile resourceBase;
   private final String packageName;
   private final VTDGen vtdGen;
+  private final boolean parallel;
 
   public DocumentLoader(ResourcePath resourcePath) {
+    this(resourcePath, PARALLEL);
+  }
+
+  DocumentLoader(ResourcePath resourcePath, boolean parallel) {
     this.resourceBase = resourcePath.resourceBase;
     this.packageName = resourcePath.getPackageName();
+    this.parallel = parallel;
     vtdGen = new VTDGen();
   }
 
@@ -26,23 +53,64 @@ public class DocumentLoader {
     if (files == null) {
       throw new RuntimeException(resourceBase.join(folderBaseName) + " is not a directory");
     }
+
+    List<FsFile> xmlFiles = new ArrayList<>();
     for (FsFile dir : files) {
-      loadFile(dir, xmlLoaders);
+      if (!dir.exists()) {
+        throw new RuntimeException("no such directory " + dir);
+      }
+      xmlFiles.addAll(Arrays.asList(dir.listFiles(ENDS_WITH_XML)));
+    }
+
+    boolean keepWhitespace = needsWhitespaceText(xmlLoaders);
+    if (parallel && xmlFiles.size() > 1) {
+      loadInParallel(xmlFiles, keepWhitespace, xmlLoaders);
+    } else {
+      vtdGen.enableIgnoredWhiteSpace(keepWhitespace);
+      for (FsFile xmlFile : xmlFiles) {
+        loadResourceXmlFile(xmlFile, parse(xmlFile), xmlLoaders);
+      }
     }
   }
 
-  private void loadFile(FsFile dir, XmlLoader[] xmlLoaders) throws Exception {
-    if (!dir.exists()) {
-      throw new RuntimeException("no such directory " + dir);
+  private static boolean needsWhitespaceText(XmlLoader[] xmlLoaders) {
+    for (XmlLoader xmlLoader : xmlLoaders) {
+      if (xmlLoader.needsWhitespaceText()) return true;
     }
+    return false;
+  }
+
+  // Only as many files as the pool has threads are parsed ahead of the one being loaded, so the parsed documents
+  // of a whole resource group aren't all held in memory at once
+  private void loadInParallel(List<FsFile> xmlFiles, boolean keepWhitespace, XmlLoader[] xmlLoaders) throws Exception {
+    ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : POOL;
+    int window = Math.max(1, pool.getParallelism());
+    Deque<ParseTask> parseTasks = new ArrayDeque<>(window);
+    Iterator<FsFile> toParse = xmlFiles.iterator();
 
-    for (FsFile file : dir.listFiles(ENDS_WITH_XML)) {
-      loadResourceXmlFile(file, xmlLoaders);
+    try {
+      while (parseTasks.size() < window && toParse.hasNext()) {
+        parseTasks.add(fork(new ParseTask(toParse.next(), keepWhitespace)));
+      }
+      while (!parseTasks.isEmpty()) {
+        ParseTask parseTask = parseTasks.remove();
+        VTDNav vtdNav = parseTask.join();
+        if (parseTask.failure != null) {
+          throw parseTask.failure;
+        }
+        if (toParse.hasNext()) {
+          parseTasks.add(fork(new ParseTask(toParse.next(), keepWhitespace)));
+        }
+        loadResourceXmlFile(parseTask.xmlFile, vtdNav, xmlLoaders);
+      }
+    } finally {
+      for (ParseTask parseTask : parseTasks) {
+        parseTask.cancel(false);
+      }
     }
   }
 
-  private void loadResourceXmlFile(FsFile fsFile, XmlLoader... xmlLoaders) throws Exception {
-    VTDNav vtdNav = parse(fsFile);
+  private void loadResourceXmlFile(FsFile fsFile, VTDNav vtdNav, XmlLoader... xmlLoaders) throws Exception {
     for (XmlLoader xmlLoader : xmlLoaders) {
       xmlLoader.processResourceXml(fsFile, vtdNav, packageName);
     }
@@ -56,6 +124,48 @@ public class DocumentLoader {
     return vtdGen.getNav();
   }
 
+  /**
+   * Run a task on the resource loading pool, or on the pool the calling thread already works for.
+   */
+  static <T extends ForkJoinTask<?>> T fork(T task) {
+    if (ForkJoinTask.inForkJoinPool()) {
+      task.fork();
+    } else {
+      POOL.execute(task);
+    }
+    return task;
+  }
+
+  /**
+   * Parses a file with its own {@link VTDGen}, as the resulting {@link VTDNav} has to stay usable until the file's
+   * turn to be loaded comes. Failures are kept rather than thrown, so they reach the caller as they would when
+   * parsing sequentially instead of wrapped by {@link ForkJoinTask#join()}.
+   */
+  private static class ParseTask extends RecursiveTask<VTDNav> {
+    private final FsFile xmlFile;
+    private final boolean keepWhitespace;
+    private Exception failure;
+
+    ParseTask(FsFile xmlFile, boolean keepWhitespace) {
+      this.xmlFile = xmlFile;
+      this.keepWhitespace = keepWhitespace;
+    }
+
+    @Override
+    protected VTDNav compute() {
+      try {
+        VTDGen vtdGen = new VTDGen();
+        vtdGen.enableIgnoredWhiteSpace(keepWhitespace);
+        vtdGen.setDoc(xmlFile.getBytes());
+        vtdGen.parse(true);
+        return vtdGen.getNav();
+      } catch (Exception e) {
+        failure = e;
+        return null;
+      }
+    }
+  }
+
   private static class DirectoryMatchingFilter implements FsFile.Filter {
     private final String folderBaseName;
 
@@ -1,58 +1,112 @@
 package org.robolectric.res;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * View over several resource indexes. Nothing is copied: name lookups go to the indexes which provide the
+ * name's package, then to the rest in order, and id lookups to each index in order. The indexes must not
+ * map the same name or the same id.
+ */
 public class MergedResourceIndex extends ResourceIndex {
+  private static final ResourceIndex[] NO_INDEXES = new ResourceIndex[0];
+
   private final ResourceIndex[] subIndexes;
   private final Set<String> actualPackageNames = new HashSet<>();
+  private final Map<String, ResourceIndex[]> subIndexesByPackage = new HashMap<>();
 
   public MergedResourceIndex(ResourceIndex... subIndexes) {
     this.subIndexes = subIndexes;
+    checkForOverlap(subIndexes);
+
+    Map<String, List<ResourceIndex>> subIndexListsByPackage = new HashMap<>();
     for (ResourceIndex subIndex : subIndexes) {
       actualPackageNames.addAll(subIndex.getPackages());
-      merge(resourceNameToId, subIndex.resourceNameToId, "resourceNameToId");
-      merge(resourceIdToResName, subIndex.resourceIdToResName, "resourceIdToResName");
+      for (String packageName : subIndex.getPackages()) {
+        List<ResourceIndex> subIndexList = subIndexListsByPackage.get(packageName);
+        if (subIndexList == null) {
+          subIndexListsByPackage.put(packageName, subIndexList = new ArrayList<>());
+        }
+        subIndexList.add(subIndex);
+      }
     }
-  }
-
-  private static <K,V> void merge(Map<K, V> map1, Map<K, V> map2, String name) {
-    int expected = map1.size() + map2.size();
-    map1.putAll(map2);
-    if (map1.size() != expected) {
-      throw new IllegalStateException("there must have been some overlap for " + name + "! expected " + expected + " but got " + map1.size());
+    for (Map.Entry<String, List<ResourceIndex>> entry : subIndexListsByPackage.entrySet()) {
+      subIndexesByPackage.put(entry.getKey(), entry.getValue().toArray(NO_INDEXES));
     }
   }
 
   @Override
   public Integer getResourceId(ResName resName) {
-    // todo: this is pretty silly...
-    Integer id = resourceNameToId.get(resName);
-    if (id == null) {
-      for (ResourceIndex subIndex : subIndexes) {
-        id = subIndex.getResourceId(resName);
+    ResourceIndex[] packageSubIndexes = subIndexesByPackage.get(resName.packageName);
+    if (packageSubIndexes != null) {
+      for (ResourceIndex subIndex : packageSubIndexes) {
+        Integer id = subIndex.getResourceId(resName);
         if (id != null) return id;
       }
     }
-    return id;
+
+    for (ResourceIndex subIndex : subIndexes) {
+      if (packageSubIndexes != null && contains(packageSubIndexes, subIndex)) continue;
+      Integer id = subIndex.getResourceId(resName);
+      if (id != null) return id;
+    }
+    return null;
   }
 
   @Override
   public ResName getResName(int resourceId) {
-    // todo: this is pretty silly...
-    ResName resName = resourceIdToResName.get(resourceId);
-    if (resName == null) {
-      for (ResourceIndex subIndex : subIndexes) {
-        resName = subIndex.getResName(resourceId);
-        if (resName != null) return resName;
+    for (ResourceIndex subIndex : subIndexes) {
+      ResName resName = subIndex.getResName(resourceId);
+      if (resName != null) return resName;
+    }
+    return null;
+  }
+
+  private static void checkForOverlap(ResourceIndex[] subIndexes) {
+    List<ResourceTable> tables = new ArrayList<>();
+    for (ResourceIndex subIndex : subIndexes) {
+      addTables(subIndex, tables);
+    }
+
+    for (int i = 1; i < tables.size(); i++) {
+      for (Map.Entry<ResName, Integer> entry : tables.get(i).asIdsByName().entrySet()) {
+        for (int j = 0; j < i; j++) {
+          ResourceTable earlierTable = tables.get(j);
+          if (earlierTable.containsName(entry.getKey())) {
+            throw new IllegalStateException("there must have been some overlap for resourceNameToId! " + entry.getKey() + " is mapped twice");
+          }
+          if (earlierTable.containsId(entry.getValue())) {
+            throw new IllegalStateException("there must have been some overlap for resourceIdToResName! " + entry.getValue() + " is mapped twice");
+          }
+        }
       }
     }
-    return resName;
+  }
+
+  // merged indexes don't have entries of their own
+  private static void addTables(ResourceIndex resourceIndex, List<ResourceTable> tables) {
+    if (resourceIndex instanceof MergedResourceIndex) {
+      for (ResourceIndex subIndex : ((MergedResourceIndex) resourceIndex).subIndexes) {
+        addTables(subIndex, tables);
+      }
+    } else {
+      tables.add(resourceIndex.resourceTable);
+    }
+  }
+
+  private static boolean contains(ResourceIndex[] resourceIndexes, ResourceIndex resourceIndex) {
+    for (ResourceIndex each : resourceIndexes) {
+      if (each == resourceIndex) return true;
+    }
+    return false;
   }
 
   @Override public Collection<String> getPackages() {
     return actualPackageNames;
   }
-}
\ No newline at end of file
+}
@@ -31,13 +31,10 @@ class OverlayResourceIndex extends ResourceIndex {
     for (ResourceIndex subResourceIndex : subResourceIndexes) {
       actualPackageNames.addAll(subResourceIndex.getPackages());
 
-      for (Map.Entry<ResName, Integer> entry : subResourceIndex.resourceNameToId.entrySet()) {
-        ResName resName = entry.getKey();
-        int value = entry.getValue();
+      for (ResName resName : subResourceIndex.resourceTable.getNames()) {
         ResName localResName = resName.withPackageName(packageName);
-        if (!resourceNameToId.containsKey(localResName)) {
-          resourceNameToId.put(localResName, value);
-          resourceIdToResName.put(value, localResName);
+        if (!resourceTable.containsName(localResName)) {
+          resourceTable.put(localResName, subResourceIndex.resourceTable.getId(resName));
         }
       }
     }
@@ -50,13 +47,12 @@ class OverlayResourceIndex extends ResourceIndex {
     if (!actualPackageNames.contains(resName.packageName)) {
       return null;
     }
-    return resourceNameToId.get(resName.withPackageName(packageName));
+    return resourceTable.getId(resName.withPackageName(packageName));
   }
 
   @Override
   public ResName getResName(int resourceId) {
-    ResName resName = resourceIdToResName.get(resourceId);
-    return resName == null ? null : resName.withPackageName(packageName);
+    return resourceTable.getName(resourceId);
   }
 
   @Override public Collection<String> getPackages() {
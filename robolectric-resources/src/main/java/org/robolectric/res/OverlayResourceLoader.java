@@ -4,23 +4,100 @@ import org.jetbrains.annotations.NotNull;
 import org.robolectric.res.builder.XmlBlock;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RecursiveAction;
 
 public class OverlayResourceLoader extends XResourceLoader {
   private final String packageName;
   private final List<PackageResourceLoader> subResourceLoaders;
+  private final boolean lazy;
+  private int mergedGeneration = -1;
 
   public OverlayResourceLoader(String packageName, List<PackageResourceLoader> subResourceLoaders) {
     super(new OverlayResourceIndex(packageName, subResourceLoaders));
     this.packageName = packageName;
     this.subResourceLoaders = subResourceLoaders;
+
+    boolean lazy = false;
+    for (PackageResourceLoader subResourceLoader : subResourceLoaders) {
+      lazy |= subResourceLoader.isLazy();
+    }
+    this.lazy = lazy;
   }
 
   @Override
-  void doInitialize() {
+  void initialize() {
+    initialize(null);
+  }
+
+  /**
+   * If any of the sub-loaders is lazy, loads the given type in each of them, and re-merges them all whenever that
+   * loaded anything new, so resources keep the precedence they have when everything is loaded up front.
+   */
+  @Override
+  synchronized void initialize(String resType) {
+    if (!lazy) {
+      super.initialize();
+      return;
+    }
+
+    int generation = 0;
     for (PackageResourceLoader subResourceLoader : subResourceLoaders) {
-      subResourceLoader.initialize();
+      if (resType == null) {
+        subResourceLoader.initialize();
+      } else {
+        subResourceLoader.initialize(resType);
+      }
+      generation += subResourceLoader.getLoadGeneration();
+    }
+
+    if (generation != mergedGeneration) {
+      clear();
+      mergeSubResourceLoaders();
+      mergedGeneration = generation;
+    }
+  }
 
+  /**
+   * Loads the libraries at the same time, unless parallel loading is turned off (see {@link DocumentLoader}), and
+   * then merges them in order.
+   */
+  @Override
+  void doInitialize() {
+    if (DocumentLoader.PARALLEL && subResourceLoaders.size() > 1) {
+      List<InitializeTask> initializeTasks = new ArrayList<>();
+      for (PackageResourceLoader subResourceLoader : subResourceLoaders) {
+        initializeTasks.add(DocumentLoader.fork(new InitializeTask(subResourceLoader)));
+      }
+      for (InitializeTask initializeTask : initializeTasks) {
+        initializeTask.join();
+      }
+      for (InitializeTask initializeTask : initializeTasks) {
+        if (initializeTask.failure != null) {
+          throw initializeTask.failure;
+        }
+      }
+    } else {
+      for (PackageResourceLoader subResourceLoader : subResourceLoaders) {
+        subResourceLoader.initialize();
+      }
+    }
+    mergeSubResourceLoaders();
+  }
+
+  private void clear() {
+    data.clear();
+    pluralsData.clear();
+    stringData.clear();
+    drawableData.clear();
+    preferenceData.clear();
+    xmlDocuments.clear();
+    rawResources.clear();
+  }
+
+  private void mergeSubResourceLoaders() {
+    for (PackageResourceLoader subResourceLoader : subResourceLoaders) {
       pluralsData.mergeLibraryStyle(subResourceLoader.pluralsData, packageName);
       stringData.mergeLibraryStyle(subResourceLoader.stringData, packageName);
       drawableData.mergeLibraryStyle(subResourceLoader.drawableData, packageName);
@@ -63,4 +140,26 @@ public class OverlayResourceLoader extends XResourceLoader {
     }
     return false;
   }
+
+  /**
+   * Initializes a library, keeping rather than throwing its failure, so it reaches the caller as it would when
+   * initializing sequentially instead of wrapped by {@link java.util.concurrent.ForkJoinTask#join()}.
+   */
+  private static class InitializeTask extends RecursiveAction {
+    private final PackageResourceLoader subResourceLoader;
+    private RuntimeException failure;
+
+    InitializeTask(PackageResourceLoader subResourceLoader) {
+      this.subResourceLoader = subResourceLoader;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        subResourceLoader.initialize();
+      } catch (RuntimeException e) {
+        failure = e;
+      }
+    }
+  }
 }
@@ -2,69 +2,178 @@ package org.robolectric.res;
 
 import org.robolectric.util.Logger;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 public class PackageResourceLoader extends XResourceLoader {
+  private static final String VALUES = "values";
+  private static final List<String> DIRECTORY_TYPES = Arrays.asList(
+      "layout", "menu", "drawable", "anim", "animator", "color", "xml", "transition", "interpolator", "raw");
+
   private final ResourcePath resourcePath;
+  private final boolean lazy;
+  private final ResourceSnapshotCache snapshotCache;
+  private final Set<String> loadedGroups = new HashSet<>();
+  private boolean otherResourcesLoaded;
+  private volatile int loadGeneration;
 
   public PackageResourceLoader(ResourcePath resourcePath) {
     this(resourcePath, new ResourceExtractor(resourcePath));
   }
 
+  public PackageResourceLoader(ResourcePath resourcePath, boolean lazy) {
+    this(resourcePath, new ResourceExtractor(resourcePath), lazy);
+  }
+
   public PackageResourceLoader(ResourcePath resourcePath, ResourceIndex resourceIndex) {
+    this(resourcePath, resourceIndex, false);
+  }
+
+  /**
+   * @param resourcePath Resources to load.
+   * @param resourceIndex Index of the resource ids in {@code resourcePath}.
+   * @param lazy If true, each group of resource files (all values files, or the files in all directories for one
+   *             resource type) is only parsed the first time a resource which could be in it is requested.
+   *             Lazy loaders are never made immutable, and must not be used from several threads at once.
+   */
+  public PackageResourceLoader(ResourcePath resourcePath, ResourceIndex resourceIndex, boolean lazy) {
+    this(resourcePath, resourceIndex, lazy, null);
+  }
+
+  /**
+   * @param resourcePath Resources to load.
+   * @param resourceIndex Index of the resource ids in {@code resourcePath}.
+   * @param lazy If true, resource files are parsed group by group as they are needed; see
+   *             {@link #PackageResourceLoader(ResourcePath, ResourceIndex, boolean)}.
+   * @param snapshotCache If not null, an eager loader reads its resources from a snapshot there instead of parsing
+   *                      them when it can, and writes one after parsing them when it can't. Lazy loaders don't
+   *                      use it.
+   */
+  public PackageResourceLoader(ResourcePath resourcePath, ResourceIndex resourceIndex, boolean lazy, ResourceSnapshotCache snapshotCache) {
     super(resourceIndex);
     this.resourcePath = resourcePath;
+    this.lazy = lazy;
+    this.snapshotCache = snapshotCache;
+  }
+
+  public boolean isLazy() {
+    return lazy;
+  }
+
+  /**
+   * @return A count which changes each time another group of resource files has been loaded.
+   */
+  int getLoadGeneration() {
+    return loadGeneration;
+  }
+
+  @Override
+  void initialize() {
+    if (lazy) {
+      doInitialize();
+    } else {
+      super.initialize();
+    }
+  }
+
+  @Override
+  void initialize(String resType) {
+    if (!lazy || resType == null) {
+      initialize();
+      return;
+    }
+
+    String directoryType = "mipmap".equals(resType) ? "drawable" : resType;
+    if (!"raw".equals(directoryType)) {
+      loadGroup(VALUES);
+    }
+    if (DIRECTORY_TYPES.contains(directoryType)) {
+      loadGroup(directoryType);
+    }
+    loadOtherResourcesOnce();
   }
 
   void doInitialize() {
+    boolean useSnapshot = snapshotCache != null && !lazy;
+    if (!useSnapshot || !snapshotCache.load(resourcePath, this)) {
+      loadGroup(VALUES);
+      for (String type : DIRECTORY_TYPES) {
+        loadGroup(type);
+      }
+      if (useSnapshot) {
+        snapshotCache.store(resourcePath, this);
+      }
+    }
+    loadOtherResourcesOnce();
+  }
+
+  private synchronized void loadGroup(String group) {
+    if (loadedGroups.contains(group)) return;
+
+    if (loadedGroups.isEmpty()) {
+      Logger.debug("Loading resources for %s from %s...", resourcePath.getPackageName(), resourcePath.resourceBase);
+    }
     try {
-      loadEverything();
+      loadGroup(group, new DocumentLoader(resourcePath));
     } catch (RuntimeException e) {
       throw e;
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
+    loadedGroups.add(group);
+    loadGeneration++;
   }
 
-  private void loadEverything() throws Exception {
-    Logger.debug("Loading resources for %s from %s...", resourcePath.getPackageName(), resourcePath.resourceBase);
-
-    DocumentLoader documentLoader = new DocumentLoader(resourcePath);
-
-    documentLoader.load("values",
-        new ValueResourceLoader(data, "/resources/bool", "bool", ResType.BOOLEAN),
-        new ValueResourceLoader(data, "/resources/item[@type='bool']", "bool", ResType.BOOLEAN),
-        new ValueResourceLoader(data, "/resources/color", "color", ResType.COLOR),
-        new ValueResourceLoader(data, "/resources/drawable", "drawable", ResType.DRAWABLE),
-        new ValueResourceLoader(data, "/resources/item[@type='color']", "color", ResType.COLOR),
-        new ValueResourceLoader(data, "/resources/dimen", "dimen", ResType.DIMEN),
-        new ValueResourceLoader(data, "/resources/item[@type='dimen']", "dimen", ResType.DIMEN),
-        new ValueResourceLoader(data, "/resources/integer", "integer", ResType.INTEGER),
-        new ValueResourceLoader(data, "/resources/item[@type='integer']", "integer", ResType.INTEGER),
-        new ValueResourceLoader(data, "/resources/integer-array", "array", ResType.INTEGER_ARRAY),
-        new ValueResourceLoader(data, "/resources/fraction", "fraction", ResType.FRACTION),
-        new ValueResourceLoader(data, "/resources/item[@type='fraction']", "fraction", ResType.FRACTION),
-        new ValueResourceLoader(data, "/resources/item", "layout", ResType.LAYOUT),
-        new PluralResourceLoader(pluralsData),
-        new ValueResourceLoader(data, "/resources/string", "string", ResType.CHAR_SEQUENCE),
-        new ValueResourceLoader(data, "/resources/item[@type='string']", "string", ResType.CHAR_SEQUENCE),
-        new ValueResourceLoader(data, "/resources/string-array", "array", ResType.CHAR_SEQUENCE_ARRAY),
-        new AttrResourceLoader(data),
-        new StyleResourceLoader(data)
-    );
-
-    documentLoader.load("layout", new OpaqueFileLoader(data, "layout"), new XmlBlockLoader(xmlDocuments, "layout"));
-    documentLoader.load("menu", new OpaqueFileLoader(data, "menu"), new XmlBlockLoader(xmlDocuments, "menu"));
-    documentLoader.load("drawable", new OpaqueFileLoader(data, "drawable"), new XmlBlockLoader(xmlDocuments, "drawable"));
-    documentLoader.load("anim", new OpaqueFileLoader(data, "anim"), new XmlBlockLoader(xmlDocuments, "anim"));
-    documentLoader.load("animator", new OpaqueFileLoader(data, "animator"), new XmlBlockLoader(xmlDocuments, "animator"));
-    documentLoader.load("color", new ColorResourceLoader(data), new XmlBlockLoader(xmlDocuments, "color"));
-    documentLoader.load("xml", new PreferenceLoader(preferenceData), new XmlBlockLoader(xmlDocuments, "xml"));
-    documentLoader.load("transition", new OpaqueFileLoader(data, "transition"), new XmlBlockLoader(xmlDocuments, "transition"));
-    documentLoader.load("interpolator", new OpaqueFileLoader(data, "interpolator"), new XmlBlockLoader(xmlDocuments, "interpolator"));
-
-    new DrawableResourceLoader(drawableData).findDrawableResources(resourcePath);
-    new RawResourceLoader(resourcePath).loadTo(rawResources);
-
+  private synchronized void loadOtherResourcesOnce() {
+    if (otherResourcesLoaded) return;
     loadOtherResources(resourcePath);
+    otherResourcesLoaded = true;
+  }
+
+  private void loadGroup(String group, DocumentLoader documentLoader) throws Exception {
+    switch (group) {
+      case VALUES:
+        documentLoader.load("values",
+            new ValueResourceLoader(data, "/resources/bool", "bool", ResType.BOOLEAN),
+            new ValueResourceLoader(data, "/resources/item[@type='bool']", "bool", ResType.BOOLEAN),
+            new ValueResourceLoader(data, "/resources/color", "color", ResType.COLOR),
+            new ValueResourceLoader(data, "/resources/drawable", "drawable", ResType.DRAWABLE),
+            new ValueResourceLoader(data, "/resources/item[@type='color']", "color", ResType.COLOR),
+            new ValueResourceLoader(data, "/resources/dimen", "dimen", ResType.DIMEN),
+            new ValueResourceLoader(data, "/resources/item[@type='dimen']", "dimen", ResType.DIMEN),
+            new ValueResourceLoader(data, "/resources/integer", "integer", ResType.INTEGER),
+            new ValueResourceLoader(data, "/resources/item[@type='integer']", "integer", ResType.INTEGER),
+            new ValueResourceLoader(data, "/resources/integer-array", "array", ResType.INTEGER_ARRAY),
+            new ValueResourceLoader(data, "/resources/fraction", "fraction", ResType.FRACTION),
+            new ValueResourceLoader(data, "/resources/item[@type='fraction']", "fraction", ResType.FRACTION),
+            new ValueResourceLoader(data, "/resources/item", "layout", ResType.LAYOUT),
+            new PluralResourceLoader(pluralsData),
+            new ValueResourceLoader(data, "/resources/string", "string", ResType.CHAR_SEQUENCE),
+            new ValueResourceLoader(data, "/resources/item[@type='string']", "string", ResType.CHAR_SEQUENCE),
+            new ValueResourceLoader(data, "/resources/string-array", "array", ResType.CHAR_SEQUENCE_ARRAY),
+            new AttrResourceLoader(data),
+            new StyleResourceLoader(data)
+        );
+        break;
+      case "drawable":
+        documentLoader.load("drawable", new OpaqueFileLoader(data, "drawable"), new XmlBlockLoader(xmlDocuments, "drawable"));
+        new DrawableResourceLoader(drawableData).findDrawableResources(resourcePath);
+        break;
+      case "color":
+        documentLoader.load("color", new ColorResourceLoader(data), new XmlBlockLoader(xmlDocuments, "color"));
+        break;
+      case "xml":
+        documentLoader.load("xml", new PreferenceLoader(preferenceData), new XmlBlockLoader(xmlDocuments, "xml"));
+        break;
+      case "raw":
+        new RawResourceLoader(resourcePath).loadTo(rawResources);
+        break;
+      default:
+        documentLoader.load(group, new OpaqueFileLoader(data, group), new XmlBlockLoader(xmlDocuments, group));
+        break;
+    }
   }
 
   protected void loadOtherResources(ResourcePath resourcePath) {
@@ -0,0 +1,154 @@
+package org.robolectric.res;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A qualifier string such as {@code en-port-v18}, parsed once into what {@link ResBundle#pick} needs to match it
+ * against resource values: the individual qualifiers as small ints, and the version qualifier.
+ *
+ * <p>Both resource directories and device configurations are parsed into this form; the most recently used of the
+ * latter are cached, as tests only ever use a few at a time.</p>
+ */
+public final class Qualifiers {
+  // Matches a version qualifier like "v14". Parentheses capture the numeric
+  // part for easy retrieval with Matcher.group(1).
+  private static final String VERSION_QUALIFIER_REGEX = "v([0-9]+)";
+  private static final Pattern VERSION_QUALIFIER_PATTERN_WITH_LINE_END = Pattern.compile(VERSION_QUALIFIER_REGEX + "$");
+  private static final Pattern VERSION_QUALIFIER_PATTERN_WITH_DASHES = Pattern.compile("-" + VERSION_QUALIFIER_REGEX + "-");
+
+  private static final ConcurrentMap<String, Integer> QUALIFIER_IDS = new ConcurrentHashMap<>();
+  private static final AtomicInteger NEXT_QUALIFIER_ID = new AtomicInteger();
+  private static final int MAX_CONFIGURATIONS = 64;
+  private static final Map<String, Qualifiers> CONFIGURATIONS = new LinkedHashMap<String, Qualifiers>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Qualifiers> eldest) {
+      return size() > MAX_CONFIGURATIONS;
+    }
+  };
+
+  private final String qualifiers;
+  private final int[] qualifierIds;
+  private final int apiLevel;
+  private final boolean multipleApiLevels;
+  private final String paddedWithoutApiLevel;
+
+  private Qualifiers(String qualifiers, boolean isDevice) {
+    this.qualifiers = qualifiers;
+
+    List<Integer> ids = new ArrayList<>();
+    StringTokenizer st = new StringTokenizer(qualifiers, "-");
+    while (st.hasMoreTokens()) {
+      ids.add(qualifierId(st.nextToken()));
+    }
+    qualifierIds = new int[ids.size()];
+    for (int i = 0; i < qualifierIds.length; i++) {
+      qualifierIds[i] = ids.get(i);
+    }
+
+    String padded = "-" + qualifiers + "-";
+    int apiLevel = -1;
+    boolean multipleApiLevels = false;
+    if (isDevice) {
+      Matcher m = VERSION_QUALIFIER_PATTERN_WITH_LINE_END.matcher(qualifiers);
+      if (m.find()) {
+        apiLevel = Integer.parseInt(m.group(1));
+      }
+    } else {
+      Matcher m = VERSION_QUALIFIER_PATTERN_WITH_DASHES.matcher(padded);
+      if (m.find()) {
+        apiLevel = Integer.parseInt(m.group(1));
+        multipleApiLevels = m.find();
+      }
+    }
+    this.apiLevel = apiLevel;
+    this.multipleApiLevels = multipleApiLevels;
+    this.paddedWithoutApiLevel = VERSION_QUALIFIER_PATTERN_WITH_DASHES.matcher(padded).replaceAll("--");
+  }
+
+  /**
+   * @param qualifiers Qualifiers of the device configuration resources are looked up for, e.g. {@code en-v18}.
+   * @return The parsed qualifiers, whose {@link #getApiLevel()} is taken from a trailing version qualifier.
+   */
+  public static Qualifiers forDevice(String qualifiers) {
+    synchronized (CONFIGURATIONS) {
+      Qualifiers parsed = CONFIGURATIONS.get(qualifiers);
+      if (parsed == null) {
+        parsed = new Qualifiers(qualifiers, true);
+        CONFIGURATIONS.put(qualifiers, parsed);
+      }
+      return parsed;
+    }
+  }
+
+  /**
+   * @param qualifiers Qualifiers of a resource directory, e.g. {@code land-v14}, or null for none.
+   * @return The parsed qualifiers, whose {@link #getApiLevel()} is taken from any version qualifier.
+   */
+  static Qualifiers forResource(String qualifiers) {
+    return new Qualifiers(qualifiers == null ? "" : qualifiers, false);
+  }
+
+  public static int getVersionQualifierApiLevel(String qualifiers) {
+    return forDevice(qualifiers).getApiLevel();
+  }
+
+  private static int qualifierId(String qualifier) {
+    Integer id = QUALIFIER_IDS.get(qualifier);
+    if (id == null) {
+      Integer newId = NEXT_QUALIFIER_ID.getAndIncrement();
+      id = QUALIFIER_IDS.putIfAbsent(qualifier, newId);
+      if (id == null) id = newId;
+    }
+    return id;
+  }
+
+  /**
+   * @return The API level of the version qualifier, or -1 if there is none.
+   */
+  public int getApiLevel() {
+    return apiLevel;
+  }
+
+  boolean hasMultipleApiLevels() {
+    return multipleApiLevels;
+  }
+
+  boolean isEmpty() {
+    return qualifierIds.length == 0;
+  }
+
+  int size() {
+    return qualifierIds.length;
+  }
+
+  int getQualifierId(int index) {
+    return qualifierIds[index];
+  }
+
+  boolean contains(int qualifierId) {
+    for (int id : qualifierIds) {
+      if (id == qualifierId) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return The qualifiers surrounded by dashes, with any version qualifier replaced by a dash.
+   */
+  String getPaddedWithoutApiLevel() {
+    return paddedWithoutApiLevel;
+  }
+
+  @Override public String toString() {
+    return qualifiers;
+  }
+}
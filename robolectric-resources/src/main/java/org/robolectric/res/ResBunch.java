@@ -12,7 +12,7 @@ public class ResBunch {
     bundle.put(attrType, name, value, xmlContext);
   }
 
-  private ResBundle<TypedResource> getBundle(String attrType) {
+  ResBundle<TypedResource> getBundle(String attrType) {
     ResBundle<TypedResource> bundle = types.get(attrType);
     if (bundle == null) {
       bundle = new ResBundle<>();
@@ -27,8 +27,12 @@ public class ResBunch {
   }
 
   public ResBundle.Value<TypedResource> getValue(@NotNull ResName resName, String qualifiers) {
-    ResBundle<TypedResource> bundle = getBundle(resName.type);
-    return bundle.getValue(resName, qualifiers);
+    ResBundle<TypedResource> bundle = types.get(resName.type);
+    return bundle == null ? null : bundle.getValue(resName, qualifiers);
+  }
+
+  Map<String, ResBundle<TypedResource>> getBundles() {
+    return types;
   }
 
   public int size() {
@@ -45,6 +49,12 @@ public class ResBunch {
     }
   }
 
+  public void clear() {
+    for (ResBundle<TypedResource> bundle : types.values()) {
+      bundle.clear();
+    }
+  }
+
   public void mergeLibraryStyle(ResBunch fromResBundle, String packageName) {
     for (Map.Entry<String, ResBundle<TypedResource>> entry : fromResBundle.types.entrySet()) {
       getBundle(entry.getKey()).mergeLibraryStyle(entry.getValue(), packageName);
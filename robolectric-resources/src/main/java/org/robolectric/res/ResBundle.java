@@ -1,28 +1,22 @@
 package org.robolectric.res;
 
 import java.util.ArrayList;
-import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class ResBundle<T> {
-  // Matches a version qualifier like "v14". Parentheses capture the numeric
-  // part for easy retrieval with Matcher.group(1).
-  private static final String VERSION_QUALIFIER_REGEX = "v([0-9]+)";
-  private static final String PADDED_VERSION_QUALIFIER_REGEX
-      = "-" + VERSION_QUALIFIER_REGEX + "-";
-  private static final Pattern VERSION_QUALIFIER_PATTERN_WITH_LINE_END
-      = Pattern.compile(VERSION_QUALIFIER_REGEX + "$");
-  private static final Pattern VERSION_QUALIFIER_PATTERN_WITH_DASHES
-      = Pattern.compile(PADDED_VERSION_QUALIFIER_REGEX);
+  private static final Object NO_VALUE = new Object();
 
   private final ResMap<T> valuesMap = new ResMap<>();
   private final ResMap<List<T>> valuesArrayMap = new ResMap<>();
+  // values already picked, by device qualifiers and then by resource name; replaced rather than cleared after the
+  // values change, so a pick made from the old values can only land in a memo nobody reads any more
+  private volatile ConcurrentMap<String, ConcurrentMap<ResName, Object>> picks = new ConcurrentHashMap<>();
   private String overrideNamespace;
 
   public void put(String attrType, String name, T value, XmlLoader.XmlContext xmlContext) {
@@ -30,6 +24,7 @@ public class ResBundle<T> {
     List<Value<T>> values = valuesMap.find(resName);
     values.add(new Value<>(xmlContext.getQualifiers(), value));
     Collections.sort(values);
+    forgetPicks();
   }
 
   public T get(ResName resName, String qualifiers) {
@@ -37,43 +32,65 @@ public class ResBundle<T> {
     return value == null ? null : value.value;
   }
 
+  @SuppressWarnings("unchecked")
   public Value<T> getValue(ResName resName, String qualifiers) {
-    List<Value<T>> values = valuesMap.find(maybeOverride(resName));
-    return values != null ? pick(values, qualifiers) : null;
+    ConcurrentMap<String, ConcurrentMap<ResName, Object>> picks = this.picks;
+    ConcurrentMap<ResName, Object> picksForQualifiers = picks.get(qualifiers);
+    if (picksForQualifiers == null) {
+      picksForQualifiers = new ConcurrentHashMap<>();
+      ConcurrentMap<ResName, Object> existing = picks.putIfAbsent(qualifiers, picksForQualifiers);
+      if (existing != null) picksForQualifiers = existing;
+    }
+
+    Object pick = picksForQualifiers.get(resName);
+    if (pick == null) {
+      List<Value<T>> values = valuesMap.get(maybeOverride(resName));
+      Value<T> value = values != null ? pick(values, Qualifiers.forDevice(qualifiers)) : null;
+      pick = value == null ? NO_VALUE : value;
+      picksForQualifiers.put(resName, pick);
+    }
+    return pick == NO_VALUE ? null : (Value<T>) pick;
   }
 
   public static int getVersionQualifierApiLevel(String qualifiers) {
-    Matcher m = VERSION_QUALIFIER_PATTERN_WITH_LINE_END.matcher(qualifiers);
-    if (m.find()) {
-      return Integer.parseInt(m.group(1));
-    }
-    return -1;
+    return Qualifiers.getVersionQualifierApiLevel(qualifiers);
   }
 
   public static <T> Value<T> pick(List<Value<T>> values, String qualifiers) {
+    return pick(values, Qualifiers.forDevice(qualifiers));
+  }
+
+  public static <T> Value<T> pick(List<Value<T>> values, Qualifiers qualifiers) {
     final int count = values.size();
     if (count == 0) return null;
 
-    BitSet possibles = new BitSet(count);
-    possibles.set(0, count);
-
-    StringTokenizer st = new StringTokenizer(qualifiers, "-");
-    while (st.hasMoreTokens()) {
-      String qualifier = st.nextToken();
-      String paddedQualifier = "-" + qualifier + "-";
-      BitSet matches = new BitSet(count);
-
-      for (int i = possibles.nextSetBit(0); i != -1; i = possibles.nextSetBit(i + 1)) {
-        if (values.get(i).qualifiers.contains(paddedQualifier)) {
-          matches.set(i);
+    long[] possibles = new long[(count + 63) >>> 6];
+    for (int i = 0; i < count; i++) {
+      possibles[i >>> 6] |= 1L << (i & 63);
+    }
+    long[] matches = new long[possibles.length];
+
+    for (int q = 0; q < qualifiers.size(); q++) {
+      int qualifierId = qualifiers.getQualifierId(q);
+      int matchCount = 0;
+
+      for (int word = 0; word < possibles.length; word++) {
+        long wordMatches = 0;
+        for (long bits = possibles[word]; bits != 0; bits &= bits - 1) {
+          int i = (word << 6) + Long.numberOfTrailingZeros(bits);
+          if (values.get(i).parsedQualifiers.contains(qualifierId)) {
+            wordMatches |= bits & -bits;
+          }
         }
+        matches[word] = wordMatches;
+        matchCount += Long.bitCount(wordMatches);
       }
 
-      if (!matches.isEmpty()) {
-        possibles.and(matches); // eliminate any that didn't match this qualifier
+      if (matchCount > 0) {
+        System.arraycopy(matches, 0, possibles, 0, possibles.length); // eliminate any that didn't match this qualifier
       }
 
-      if (matches.cardinality() == 1) break;
+      if (matchCount == 1) break;
     }
 
     /*
@@ -82,17 +99,16 @@ public class ResBundle<T> {
      * in the precedence table at:
      * https://developer.android.com/guide/topics/resources/providing-resources.html#table2
      */
-    int targetApiLevel = getVersionQualifierApiLevel(qualifiers);
-    if (qualifiers.length() > 0 && targetApiLevel != -1) {
+    int targetApiLevel = qualifiers.getApiLevel();
+    if (!qualifiers.isEmpty() && targetApiLevel != -1) {
+      // Remove the version part and see if they still match
+      String qualifierWithoutVersion = qualifiers.getPaddedWithoutApiLevel();
       Value<T> bestMatch = null;
       int bestMatchDistance = Integer.MAX_VALUE;
-      for (int i = possibles.nextSetBit(0); i != -1; i = possibles.nextSetBit(i + 1)) {
+      for (int i = nextSetBit(possibles, 0); i != -1; i = nextSetBit(possibles, i + 1)) {
         Value<T> value = values.get(i);
         int distance = getDistance(value, targetApiLevel);
-        // Remove the version part and see if they still match
-        String paddedQualifier = "-" + qualifiers + "-";
-        String valueWithoutVersion = VERSION_QUALIFIER_PATTERN_WITH_DASHES.matcher(value.qualifiers).replaceAll("--");
-        String qualifierWithoutVersion = VERSION_QUALIFIER_PATTERN_WITH_DASHES.matcher(paddedQualifier).replaceAll("--");
+        String valueWithoutVersion = value.parsedQualifiers.getPaddedWithoutApiLevel();
         if (qualifierWithoutVersion.contains(valueWithoutVersion) && distance >= 0 && distance < bestMatchDistance) {
           bestMatch = value;
           bestMatchDistance = distance;
@@ -103,12 +119,22 @@ public class ResBundle<T> {
       }
     }
 
-    int i = possibles.nextSetBit(0);
+    int i = nextSetBit(possibles, 0);
     if (i != -1) return values.get(i);
 
     throw new IllegalStateException("couldn't handle qualifiers \"" + qualifiers + "\"");
   }
 
+  private static int nextSetBit(long[] bits, int from) {
+    for (int word = from >>> 6; word < bits.length; word++) {
+      long wordBits = word == from >>> 6 ? bits[word] & (-1L << (from & 63)) : bits[word];
+      if (wordBits != 0) {
+        return (word << 6) + Long.numberOfTrailingZeros(wordBits);
+      }
+    }
+    return -1;
+  }
+
   /*
    * Gets the difference between the version qualifier of val and targetApiLevel.
    *
@@ -119,13 +145,11 @@ public class ResBundle<T> {
    */
   private static int getDistance(Value val, int targetApiLevel) {
     int distance = -1;
-    Matcher m = VERSION_QUALIFIER_PATTERN_WITH_DASHES.matcher(val.qualifiers);
-    if (m.find()) {
-      String match = m.group(1);
-      int resApiLevel = Integer.parseInt(match);
+    int resApiLevel = val.parsedQualifiers.getApiLevel();
+    if (resApiLevel != -1) {
       distance = targetApiLevel - resApiLevel;
 
-      if (m.find()) {
+      if (val.parsedQualifiers.hasMultipleApiLevels()) {
         throw new IllegalStateException("A resource file was found that had two API level qualifiers: " + val);
       }
     } else {
@@ -140,11 +164,34 @@ public class ResBundle<T> {
     return valuesMap.size() + valuesArrayMap.size();
   }
 
+  Set<Map.Entry<ResName, List<Value<T>>>> entries() {
+    return valuesMap.map.entrySet();
+  }
+
+  /**
+   * Add a value for a resource name which has already been through {@link #maybeOverride(String)}. Values must be
+   * added in the order they were sorted into when first {@link #put}.
+   */
+  void putValue(ResName resName, String qualifiers, T value) {
+    valuesMap.find(resName).add(new Value<>(qualifiers, value));
+    forgetPicks();
+  }
+
+  private void forgetPicks() {
+    picks = new ConcurrentHashMap<>();
+  }
+
   public void makeImmutable() {
     valuesMap.makeImmutable();
     valuesArrayMap.makeImmutable();
   }
 
+  public void clear() {
+    valuesMap.clear();
+    valuesArrayMap.clear();
+    forgetPicks();
+  }
+
   public void overrideNamespace(String overrideNamespace) {
     this.overrideNamespace = overrideNamespace;
     if (size() > 0) throw new RuntimeException();
@@ -161,10 +208,13 @@ public class ResBundle<T> {
   public void mergeLibraryStyle(ResBundle<T> fromResBundle, String packageName) {
     valuesMap.merge(packageName, fromResBundle.valuesMap);
     valuesArrayMap.merge(packageName, fromResBundle.valuesArrayMap);
+    forgetPicks();
   }
 
   public static class Value<T> implements Comparable<Value<T>> {
+    private final String rawQualifiers;
     private final String qualifiers;
+    private final Qualifiers parsedQualifiers;
     private final T value;
 
     Value(String qualifiers, T value) {
@@ -172,7 +222,9 @@ public class ResBundle<T> {
         throw new NullPointerException();
       }
 
+      this.rawQualifiers = qualifiers;
       this.qualifiers = qualifiers == null ? "--" : "-" + qualifiers + "-";
+      this.parsedQualifiers = Qualifiers.forResource(qualifiers);
       this.value = value;
     }
 
@@ -184,6 +236,13 @@ public class ResBundle<T> {
       return value;
     }
 
+    /**
+     * @return The qualifiers as given, e.g. {@code land-v14}, or null if there were none.
+     */
+    String getRawQualifiers() {
+      return rawQualifiers;
+    }
+
     @Override
     public int compareTo(Value<T> o) {
       return qualifiers.compareTo(o.qualifiers);
@@ -201,6 +260,11 @@ public class ResBundle<T> {
     private final Map<ResName, List<Value<T>>> map = new HashMap<>();
     private boolean immutable;
 
+    // lookups mustn't add entries, since loaders may be read from several threads once they are loaded
+    public List<Value<T>> get(ResName resName) {
+      return map.get(resName);
+    }
+
     public List<Value<T>> find(ResName resName) {
       List<Value<T>> values = map.get(resName);
       if (values == null) map.put(resName, values = new ArrayList<>());
@@ -222,6 +286,14 @@ public class ResBundle<T> {
       return map.size();
     }
 
+    public void clear() {
+      if (immutable) {
+        throw new IllegalStateException("immutable!");
+      }
+
+      map.clear();
+    }
+
     public void makeImmutable() {
       immutable = true;
     }
@@ -4,8 +4,8 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 public class ResourceExtractor extends ResourceIndex {
@@ -16,12 +16,13 @@ public class ResourceExtractor extends ResourceIndex {
   private final Class<?> processedRFile;
   private final String packageName;
   private final List<String> packageNames;
-  private Integer maxUsedInt = null;
+  private final boolean assignsMissingIds;
 
   public ResourceExtractor() {
     processedRFile = null;
     packageName = "";
     packageNames = Arrays.asList();
+    assignsMissingIds = true;
   }
 
   /**
@@ -33,11 +34,33 @@ public class ResourceExtractor extends ResourceIndex {
     processedRFile = androidRClass;
     packageName = processedRFile.getPackage().getName();
     packageNames = Arrays.asList(packageName);
+    assignsMissingIds = true;
+  }
+
+  /**
+   * Constructs a ResourceExtractor for the Android system resources from the ids declared by the R classes, e.g.
+   * as read from their class files, so it doesn't depend on a class loader.
+   *
+   * <p>Its ids are fixed once it is constructed: names the R classes don't declare have no id, rather than being
+   * assigned the next free one when they are first looked up, so it can be shared between environments without
+   * ids depending on the order tests run in.</p>
+   *
+   * @param androidRIds Ids declared by {@code android.R}, by inner class name and field name.
+   * @param androidInternalRIds Ids declared by {@code com.android.internal.R}, by inner class name and field name.
+   */
+  public ResourceExtractor(Map<String, Map<String, Integer>> androidRIds, Map<String, Map<String, Integer>> androidInternalRIds) {
+    gatherResourceIdsAndNames(androidRIds, "android", true);
+    gatherResourceIdsAndNames(androidInternalRIds, "android", false);
+    processedRFile = null;
+    packageName = "android";
+    packageNames = Arrays.asList(packageName);
+    assignsMissingIds = false;
   }
 
   public ResourceExtractor(ResourcePath resourcePath) {
     packageName = resourcePath.getPackageName();
     packageNames = Arrays.asList(packageName);
+    assignsMissingIds = true;
     if (resourcePath.rClass == null) {
       processedRFile = null;
       return;
@@ -59,48 +82,61 @@ public class ResourceExtractor extends ResourceIndex {
             throw new RuntimeException(e);
           }
 
-          if (!section.equals("styleable")) {
-            String fieldName = field.getName();
-            ResName resName = new ResName(packageName, section, fieldName);
-
-            resourceNameToId.put(resName, id);
+          addResourceId(packageName, section, field.getName(), id, checkForCollisions);
+        }
+      }
+    }
+  }
 
-            if (checkForCollisions && resourceIdToResName.containsKey(id)) {
-              String message =
-                  id + " is already defined with name: " + resourceIdToResName.get(id)
-                      + " can't also call it: " + resName;
-              if (REMAP_RESOURCES) {
-                throw new RuntimeException(message);
-              } else {
-                LOGGER.severe(message);
-              }
-            }
+  private void gatherResourceIdsAndNames(Map<String, Map<String, Integer>> ids, String packageName, boolean checkForCollisions) {
+    for (Map.Entry<String, Map<String, Integer>> section : ids.entrySet()) {
+      for (Map.Entry<String, Integer> field : section.getValue().entrySet()) {
+        addResourceId(packageName, section.getKey(), field.getKey(), field.getValue(), checkForCollisions);
+      }
+    }
+  }
 
-            resourceIdToResName.put(id, resName);
-          }
-        }
+  private void addResourceId(String packageName, String section, String fieldName, int id, boolean checkForCollisions) {
+    if (section.equals("styleable")) return;
+
+    ResName resName = new ResName(packageName, section, fieldName);
+    if (checkForCollisions && resourceTable.containsId(id)) {
+      String message =
+          id + " is already defined with name: " + resourceTable.getName(id)
+              + " can't also call it: " + resName;
+      if (REMAP_RESOURCES) {
+        throw new RuntimeException(message);
+      } else {
+        LOGGER.severe(message);
       }
     }
+
+    resourceTable.put(resName, id);
   }
 
   @Override
-  public synchronized Integer getResourceId(ResName resName) {
-    Integer id = resourceNameToId.get(resName);
-    if (id == null && ("android".equals(resName.packageName) || "".equals(resName.packageName))) {
-      if (maxUsedInt == null) {
-        maxUsedInt = resourceIdToResName.isEmpty() ? 0 : Collections.max(resourceIdToResName.keySet());
-      }
-      id = ++maxUsedInt;
-      resourceNameToId.put(resName, id);
-      resourceIdToResName.put(id, resName);
+  public Integer getResourceId(ResName resName) {
+    Integer id = resourceTable.getId(resName);
+    if (id == null && assignsMissingIds && ("android".equals(resName.packageName) || "".equals(resName.packageName))) {
+      id = assignResourceId(resName);
+    }
+    return id;
+  }
+
+  private synchronized Integer assignResourceId(ResName resName) {
+    Integer id = resourceTable.getId(resName);
+    if (id == null) {
+      id = resourceTable.isEmpty() ? 1 : resourceTable.getMaxId() + 1;
+      resourceTable.put(resName, id);
       LOGGER.fine("no id mapping found for " + resName.getFullyQualifiedName() + "; assigning ID #0x" + Integer.toHexString(id));
+      id = resourceTable.getId(resName);
     }
     return id;
   }
 
   @Override
-  public synchronized ResName getResName(int resourceId) {
-    return resourceIdToResName.get(resourceId);
+  public ResName getResName(int resourceId) {
+    return resourceTable.getName(resourceId);
   }
 
   @Override public Collection<String> getPackages() {
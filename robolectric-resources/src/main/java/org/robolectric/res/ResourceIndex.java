@@ -1,12 +1,13 @@
 package org.robolectric.res;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
 
 public abstract class ResourceIndex {
-  protected final Map<ResName, Integer> resourceNameToId = new HashMap<>();
-  protected final Map<Integer, ResName> resourceIdToResName = new HashMap<>();
+  final ResourceTable resourceTable = new ResourceTable();
+  // views of resourceTable, for subclasses outside this package
+  protected final Map<ResName, Integer> resourceNameToId = resourceTable.asIdsByName();
+  protected final Map<Integer, ResName> resourceIdToResName = resourceTable.asNamesById();
 
   public abstract Integer getResourceId(ResName resName);
 
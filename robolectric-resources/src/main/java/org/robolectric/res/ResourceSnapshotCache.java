@@ -0,0 +1,659 @@
+package org.robolectric.res;
+
+import org.robolectric.res.builder.XmlBlock;
+import org.robolectric.res.builder.XmlTree;
+import org.robolectric.util.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk cache of the resources a {@link PackageResourceLoader} loads, shared between JVMs.
+ *
+ * <p>A snapshot holds everything parsed from a resource directory (values, styles, plurals, preferences, XML
+ * files, and the names of drawable and raw files) in a compact binary form, so later Surefire forks skip parsing
+ * the resource XML altogether. Snapshots are keyed by a digest of the content of every XML file in the directory,
+ * the names of all other files, and the bytes of the R class, so any change to those simply misses. Hashing every
+ * XML file on every run would cost a good part of what the snapshot saves, so an index keyed by the path, size and
+ * modification time of every file points at the snapshot, and content is only hashed when that index misses.
+ * Writers publish snapshots and indexes with an atomic rename, so concurrent forks never observe partially written
+ * files.</p>
+ */
+public class ResourceSnapshotCache {
+  private static final int FORMAT_VERSION = 2;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String ENTRY_SUFFIX = ".snapshot";
+  private static final String INDEX_SUFFIX = ".index";
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private static final int STRING = 0;
+  private static final int STYLE = 1;
+  private static final int ATTR = 2;
+  private static final int ARRAY = 3;
+  private static final int NULL = 4;
+
+  private final File dir;
+
+  /**
+   * @param dir Directory holding snapshots; created if missing.
+   */
+  public ResourceSnapshotCache(File dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * Fill a loader's resources from its snapshot.
+   *
+   * @param resourcePath Resources the loader loads.
+   * @param loader Loader with no resources loaded yet.
+   * @return True if there was a snapshot for the current content of {@code resourcePath}; if not, the loader is
+   *     left empty.
+   */
+  boolean load(ResourcePath resourcePath, XResourceLoader loader) {
+    File index;
+    File entry;
+    try {
+      index = indexFileFor(resourcePath);
+      entry = index == null ? null : readIndex(index);
+      if (entry == null) {
+        entry = entryFileFor(resourcePath);
+        if (!entry.isFile()) return false;
+        if (index != null) writeIndex(index, entry);
+      }
+    } catch (IOException e) {
+      Logger.debug("couldn't compute resource snapshot key for %s: %s", resourcePath, e.getMessage());
+      return false;
+    }
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)))) {
+      new Reader(resourcePath, in).readInto(loader);
+      Logger.debug("Loaded resources for %s from snapshot %s", resourcePath.getPackageName(), entry);
+      return true;
+    } catch (IOException | RuntimeException e) {
+      Logger.debug("couldn't read resource snapshot %s: %s", entry, e);
+      clear(loader);
+      return false;
+    }
+  }
+
+  /**
+   * Write a snapshot of a loader's resources. Failures are logged and otherwise ignored.
+   *
+   * @param resourcePath Resources the loader loads.
+   * @param loader Loader with all of {@code resourcePath} loaded.
+   */
+  void store(ResourcePath resourcePath, XResourceLoader loader) {
+    File entry = null;
+    File tmpFile = null;
+    try {
+      entry = entryFileFor(resourcePath);
+      if (!entry.isFile()) {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+          return;
+        }
+
+        tmpFile = File.createTempFile(entry.getName(), ".tmp", dir);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+          new Writer(resourcePath, out).write(loader);
+        }
+        publish(tmpFile, entry);
+        tmpFile = null;
+      }
+
+      File index = indexFileFor(resourcePath);
+      if (index != null) writeIndex(index, entry);
+    } catch (IOException | RuntimeException e) {
+      Logger.debug("couldn't write resource snapshot %s for %s: %s", entry, resourcePath, e);
+    } finally {
+      if (tmpFile != null) {
+        //noinspection ResultOfMethodCallIgnored
+        tmpFile.delete();
+      }
+    }
+  }
+
+  File entryFileFor(ResourcePath resourcePath) throws IOException {
+    MessageDigest digest = newDigest(resourcePath);
+    digestFiles(digest, resourcePath.resourceBase);
+
+    String name = resourcePath.getPackageName() + "-" + toHex(digest.digest());
+    return new File(dir, name + ENTRY_SUFFIX);
+  }
+
+  /**
+   * @return The index pointing at the snapshot for the current path, size and modification time of every file in
+   *     the resource directory, or null if the directory isn't on the file system.
+   */
+  File indexFileFor(ResourcePath resourcePath) throws IOException {
+    if (!(resourcePath.resourceBase instanceof FileFsFile)) return null;
+
+    MessageDigest digest = newDigest(resourcePath);
+    digestFileStats(digest, new File(resourcePath.resourceBase.getPath()));
+
+    String name = resourcePath.getPackageName() + "-" + toHex(digest.digest());
+    return new File(dir, name + INDEX_SUFFIX);
+  }
+
+  /**
+   * @return The snapshot an index points at, or null if there is no such index or snapshot.
+   */
+  private File readIndex(File index) throws IOException {
+    if (!index.isFile()) return null;
+    File entry = new File(dir, new String(Files.readAllBytes(index.toPath()), UTF_8));
+    return entry.isFile() ? entry : null;
+  }
+
+  /**
+   * Point an index at a snapshot. Failures are logged and otherwise ignored.
+   */
+  private void writeIndex(File index, File entry) {
+    File tmpFile = null;
+    try {
+      tmpFile = File.createTempFile(index.getName(), ".tmp", dir);
+      Files.write(tmpFile.toPath(), entry.getName().getBytes(UTF_8));
+      publish(tmpFile, index);
+    } catch (IOException e) {
+      Logger.debug("couldn't write resource snapshot index %s: %s", index, e);
+    } finally {
+      if (tmpFile != null) {
+        //noinspection ResultOfMethodCallIgnored
+        tmpFile.delete();
+      }
+    }
+  }
+
+  private static void publish(File tmpFile, File target) throws IOException {
+    try {
+      Files.move(tmpFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmpFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static MessageDigest newDigest(ResourcePath resourcePath) throws IOException {
+    MessageDigest digest = newDigest();
+    update(digest, Integer.toString(FORMAT_VERSION));
+    update(digest, resourcePath.getPackageName());
+    update(digest, resourcePath.resourceBase.getPath());
+    if (resourcePath.rClass != null) {
+      digestClass(digest, resourcePath.rClass);
+      for (Class<?> innerClass : resourcePath.rClass.getDeclaredClasses()) {
+        digestClass(digest, innerClass);
+      }
+    }
+    return digest;
+  }
+
+  private static void digestClass(MessageDigest digest, Class<?> clazz) throws IOException {
+    update(digest, clazz.getName());
+    ClassLoader classLoader = clazz.getClassLoader();
+    String resourceName = clazz.getName().replace('.', '/') + ".class";
+    try (InputStream in = classLoader == null ? null : classLoader.getResourceAsStream(resourceName)) {
+      if (in == null) {
+        throw new IOException("can't read " + resourceName);
+      }
+      byte[] buffer = new byte[8192];
+      for (int count = in.read(buffer); count != -1; count = in.read(buffer)) {
+        digest.update(buffer, 0, count);
+      }
+    }
+  }
+
+  private static void digestFiles(MessageDigest digest, FsFile dir) throws IOException {
+    FsFile[] files = dir.listFiles();
+    if (files == null) return;
+    Arrays.sort(files, new Comparator<FsFile>() {
+      @Override
+      public int compare(FsFile a, FsFile b) {
+        return a.getName().compareTo(b.getName());
+      }
+    });
+
+    for (FsFile file : files) {
+      update(digest, file.getName());
+      if (file.isDirectory()) {
+        digestFiles(digest, file);
+        update(digest, "/");
+      } else if (file.getName().endsWith(".xml")) {
+        byte[] bytes = file.getBytes();
+        update(digest, Integer.toString(bytes.length));
+        digest.update(bytes);
+      }
+    }
+  }
+
+  private static void digestFileStats(MessageDigest digest, File dir) {
+    File[] files = dir.listFiles();
+    if (files == null) return;
+    Arrays.sort(files);
+
+    for (File file : files) {
+      update(digest, file.getName());
+      if (file.isDirectory()) {
+        digestFileStats(digest, file);
+        update(digest, "/");
+      } else {
+        update(digest, file.length() + ":" + file.lastModified());
+      }
+    }
+  }
+
+  private static void update(MessageDigest digest, String part) {
+    digest.update(part.getBytes(UTF_8));
+    digest.update((byte) 0);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+      chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+
+  private static void clear(XResourceLoader loader) {
+    loader.data.clear();
+    loader.pluralsData.clear();
+    loader.drawableData.clear();
+    loader.preferenceData.clear();
+    loader.xmlDocuments.clear();
+    loader.rawResources.clear();
+  }
+
+  /**
+   * Writes values of one kind; each kind of {@link ResBundle} in {@link XResourceLoader} has its own.
+   */
+  private interface ValueWriter<T> {
+    void write(Writer writer, T value) throws IOException;
+  }
+
+  private interface ValueReader<T> {
+    T read(Reader reader) throws IOException;
+  }
+
+  private static class Writer {
+    private final ResourcePath resourcePath;
+    private final DataOutputStream out;
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+    Writer(ResourcePath resourcePath, DataOutputStream out) {
+      this.resourcePath = resourcePath;
+      this.out = out;
+    }
+
+    void write(XResourceLoader loader) throws IOException {
+      out.writeInt(FORMAT_VERSION);
+
+      Map<String, ResBundle<TypedResource>> bundles = loader.data.getBundles();
+      out.writeInt(bundles.size());
+      for (Map.Entry<String, ResBundle<TypedResource>> entry : bundles.entrySet()) {
+        writeString(entry.getKey());
+        writeBundle(entry.getValue(), new ValueWriter<TypedResource>() {
+          @Override
+          public void write(Writer writer, TypedResource value) throws IOException {
+            writer.writeTypedResource(value);
+          }
+        });
+      }
+
+      writeBundle(loader.pluralsData, new ValueWriter<PluralResourceLoader.PluralRules>() {
+        @Override
+        public void write(Writer writer, PluralResourceLoader.PluralRules value) throws IOException {
+          writer.out.writeInt(value.plurals.size());
+          for (Plural plural : value.plurals) {
+            writer.writeString(plural.quantity);
+            writer.writeString(plural.string);
+          }
+        }
+      });
+      writeBundle(loader.drawableData, new ValueWriter<DrawableNode>() {
+        @Override
+        public void write(Writer writer, DrawableNode value) throws IOException {
+          if (!(value instanceof DrawableNode.ImageFile)) {
+            throw new IOException("can't snapshot " + value);
+          }
+          writer.writeFile(value.getFsFile());
+          writer.out.writeBoolean(((DrawableNode.ImageFile) value).isNinePatch);
+        }
+      });
+      writeBundle(loader.preferenceData, new ValueWriter<PreferenceNode>() {
+        @Override
+        public void write(Writer writer, PreferenceNode value) throws IOException {
+          writer.writePreferenceNode(value);
+        }
+      });
+      writeBundle(loader.xmlDocuments, new ValueWriter<XmlBlock>() {
+        @Override
+        public void write(Writer writer, XmlBlock value) throws IOException {
+          writer.writeString(value.getFilename());
+          writer.writeString(value.getPackageName());
+          value.getTree().writeTo(writer.out);
+        }
+      });
+      writeBundle(loader.rawResources, new ValueWriter<FsFile>() {
+        @Override
+        public void write(Writer writer, FsFile value) throws IOException {
+          writer.writeFile(value);
+        }
+      });
+    }
+
+    private <T> void writeBundle(ResBundle<T> bundle, ValueWriter<T> valueWriter) throws IOException {
+      List<Map.Entry<ResName, List<ResBundle.Value<T>>>> entries = new ArrayList<>(bundle.entries());
+      out.writeInt(entries.size());
+      for (Map.Entry<ResName, List<ResBundle.Value<T>>> entry : entries) {
+        writeResName(entry.getKey());
+        out.writeInt(entry.getValue().size());
+        for (ResBundle.Value<T> value : entry.getValue()) {
+          writeString(value.getRawQualifiers());
+          valueWriter.write(this, value.getValue());
+        }
+      }
+    }
+
+    private void writeTypedResource(TypedResource<?> typedResource) throws IOException {
+      out.writeBoolean(typedResource.isFile());
+      writeString(typedResource.getResType().name());
+
+      Object data = typedResource.getData();
+      if (data == null) {
+        out.writeByte(NULL);
+      } else if (data instanceof String) {
+        out.writeByte(STRING);
+        writeString((String) data);
+      } else if (data instanceof StyleData) {
+        StyleData styleData = (StyleData) data;
+        out.writeByte(STYLE);
+        writeString(styleData.getPackageName());
+        writeString(styleData.getName());
+        writeString(styleData.getParent());
+        Map<ResName, Attribute> items = styleData.getItems();
+        out.writeInt(items.size());
+        for (Map.Entry<ResName, Attribute> item : items.entrySet()) {
+          writeResName(item.getKey());
+          writeAttribute(item.getValue());
+        }
+      } else if (data instanceof AttrData) {
+        AttrData attrData = (AttrData) data;
+        out.writeByte(ATTR);
+        writeString(attrData.getName());
+        writeString(attrData.getFormat());
+        List<AttrData.Pair> pairs = attrData.getPairs();
+        out.writeInt(pairs == null ? -1 : pairs.size());
+        if (pairs != null) {
+          for (AttrData.Pair pair : pairs) {
+            writeString(pair.getName());
+            writeString(pair.getValue());
+          }
+        }
+      } else if (data instanceof List) {
+        List<?> items = (List<?>) data;
+        out.writeByte(ARRAY);
+        out.writeInt(items.size());
+        for (Object item : items) {
+          writeTypedResource((TypedResource<?>) item);
+        }
+      } else {
+        throw new IOException("can't snapshot " + typedResource);
+      }
+    }
+
+    private void writePreferenceNode(PreferenceNode node) throws IOException {
+      writeString(node.getName());
+      List<Attribute> attributes = node.getAttributes();
+      out.writeInt(attributes.size());
+      for (Attribute attribute : attributes) {
+        writeAttribute(attribute);
+      }
+      List<PreferenceNode> children = node.getChildren();
+      out.writeInt(children.size());
+      for (PreferenceNode child : children) {
+        writePreferenceNode(child);
+      }
+    }
+
+    private void writeAttribute(Attribute attribute) throws IOException {
+      writeResName(attribute.resName);
+      writeString(attribute.value);
+      writeString(attribute.contextPackageName);
+    }
+
+    private void writeResName(ResName resName) throws IOException {
+      writeString(resName.packageName);
+      writeString(resName.type);
+      writeString(resName.name);
+    }
+
+    /**
+     * Files are written as their path within the resource directory, and read back by joining that path to it.
+     */
+    private void writeFile(FsFile file) throws IOException {
+      List<String> parts = new ArrayList<>();
+      FsFile resourceBase = resourcePath.resourceBase;
+      for (FsFile f = file; !f.equals(resourceBase); f = f.getParent()) {
+        if (f.getName().isEmpty() || parts.size() > 8) {
+          throw new IOException(file + " isn't in " + resourceBase);
+        }
+        parts.add(0, f.getName());
+      }
+      out.writeInt(parts.size());
+      for (String part : parts) {
+        writeString(part);
+      }
+    }
+
+    /**
+     * Strings are written once; later occurrences refer back to the first.
+     */
+    private void writeString(String string) throws IOException {
+      if (string == null) {
+        out.writeInt(-1);
+        return;
+      }
+
+      Integer index = stringIndexes.get(string);
+      if (index != null) {
+        out.writeInt(index);
+      } else {
+        out.writeInt(stringIndexes.size());
+        stringIndexes.put(string, stringIndexes.size());
+        byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+  }
+
+  private static class Reader {
+    private final ResourcePath resourcePath;
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+
+    Reader(ResourcePath resourcePath, DataInputStream in) {
+      this.resourcePath = resourcePath;
+      this.in = in;
+    }
+
+    void readInto(XResourceLoader loader) throws IOException {
+      int formatVersion = in.readInt();
+      if (formatVersion != FORMAT_VERSION) {
+        throw new IOException("unknown snapshot format " + formatVersion);
+      }
+
+      for (int bundleCount = in.readInt(); bundleCount > 0; bundleCount--) {
+        readBundle(loader.data.getBundle(readString()), new ValueReader<TypedResource>() {
+          @Override
+          public TypedResource read(Reader reader) throws IOException {
+            return reader.readTypedResource();
+          }
+        });
+      }
+
+      readBundle(loader.pluralsData, new ValueReader<PluralResourceLoader.PluralRules>() {
+        @Override
+        public PluralResourceLoader.PluralRules read(Reader reader) throws IOException {
+          PluralResourceLoader.PluralRules rules = new PluralResourceLoader.PluralRules();
+          for (int count = reader.in.readInt(); count > 0; count--) {
+            rules.add(new Plural(reader.readString(), reader.readString()));
+          }
+          return rules;
+        }
+      });
+      readBundle(loader.drawableData, new ValueReader<DrawableNode>() {
+        @Override
+        public DrawableNode read(Reader reader) throws IOException {
+          return new DrawableNode.ImageFile(reader.readFile(), reader.in.readBoolean());
+        }
+      });
+      readBundle(loader.preferenceData, new ValueReader<PreferenceNode>() {
+        @Override
+        public PreferenceNode read(Reader reader) throws IOException {
+          return reader.readPreferenceNode();
+        }
+      });
+      readBundle(loader.xmlDocuments, new ValueReader<XmlBlock>() {
+        @Override
+        public XmlBlock read(Reader reader) throws IOException {
+          String filename = reader.readString();
+          String packageName = reader.readString();
+          return XmlBlock.create(XmlTree.readFrom(reader.in), filename, packageName);
+        }
+      });
+      readBundle(loader.rawResources, new ValueReader<FsFile>() {
+        @Override
+        public FsFile read(Reader reader) throws IOException {
+          return reader.readFile();
+        }
+      });
+    }
+
+    private <T> void readBundle(ResBundle<T> bundle, ValueReader<T> valueReader) throws IOException {
+      for (int entryCount = in.readInt(); entryCount > 0; entryCount--) {
+        ResName resName = readResName();
+        for (int valueCount = in.readInt(); valueCount > 0; valueCount--) {
+          String qualifiers = readString();
+          bundle.putValue(resName, qualifiers, valueReader.read(this));
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private TypedResource readTypedResource() throws IOException {
+      boolean isFile = in.readBoolean();
+      ResType resType = ResType.valueOf(readString());
+
+      Object data;
+      int kind = in.readByte();
+      switch (kind) {
+        case NULL:
+          data = null;
+          break;
+        case STRING:
+          data = readString();
+          break;
+        case STYLE:
+          StyleData styleData = new StyleData(readString(), readString(), readString());
+          for (int count = in.readInt(); count > 0; count--) {
+            styleData.add(readResName(), readAttribute());
+          }
+          data = styleData;
+          break;
+        case ATTR:
+          String name = readString();
+          String format = readString();
+          int pairCount = in.readInt();
+          List<AttrData.Pair> pairs = pairCount == -1 ? null : new ArrayList<AttrData.Pair>(pairCount);
+          for (int i = 0; i < pairCount; i++) {
+            pairs.add(new AttrData.Pair(readString(), readString()));
+          }
+          data = new AttrData(name, format, pairs);
+          break;
+        case ARRAY:
+          int itemCount = in.readInt();
+          List<TypedResource> items = new ArrayList<>(itemCount);
+          for (int i = 0; i < itemCount; i++) {
+            items.add(readTypedResource());
+          }
+          data = items;
+          break;
+        default:
+          throw new IOException("unknown value kind " + kind);
+      }
+
+      return isFile ? new FileTypedResource<>(data, resType) : new TypedResource<>(data, resType);
+    }
+
+    private PreferenceNode readPreferenceNode() throws IOException {
+      String name = readString();
+      int attributeCount = in.readInt();
+      List<Attribute> attributes = new ArrayList<>(attributeCount);
+      for (int i = 0; i < attributeCount; i++) {
+        attributes.add(readAttribute());
+      }
+      PreferenceNode node = new PreferenceNode(name, attributes);
+      for (int count = in.readInt(); count > 0; count--) {
+        node.addChild(readPreferenceNode());
+      }
+      return node;
+    }
+
+    private Attribute readAttribute() throws IOException {
+      return new Attribute(readResName(), readString(), readString());
+    }
+
+    private ResName readResName() throws IOException {
+      return new ResName(readString(), readString(), readString());
+    }
+
+    private FsFile readFile() throws IOException {
+      String[] parts = new String[in.readInt()];
+      for (int i = 0; i < parts.length; i++) {
+        parts[i] = readString();
+      }
+      return resourcePath.resourceBase.join(parts);
+    }
+
+    private String readString() throws IOException {
+      int index = in.readInt();
+      if (index == -1) return null;
+      if (index < strings.size()) return strings.get(index);
+      if (index != strings.size()) {
+        throw new IOException("bad string index " + index);
+      }
+
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      String string = new String(bytes, UTF_8);
+      strings.add(string);
+      return string;
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package org.robolectric.res;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Two-way mapping between resource ids and names, for lookups from many threads without locking.
+ *
+ * <p>Ids are laid out as {@code 0xPPTTEEEE} (package, type, entry), so id to name lookups are three array
+ * indexes rather than a hash lookup of a boxed key. Name to id lookups return the same {@link Integer} for
+ * every call, so they don't box either. Writes are serialized; an entry is visible to any thread which has
+ * looked up its id.</p>
+ */
+class ResourceTable {
+  private final ResName[][][] namesByPackageAndType = new ResName[256][][];
+  private final ConcurrentMap<ResName, Integer> idsByName = new ConcurrentHashMap<>();
+  private int maxId;
+
+  /**
+   * Map a name to an id and the id back to the name, replacing any previous mapping for either.
+   */
+  synchronized void put(ResName resName, int id) {
+    int packageIndex = id >>> 24;
+    int typeIndex = (id >>> 16) & 0xff;
+    int entryIndex = id & 0xffff;
+
+    ResName[][] types = namesByPackageAndType[packageIndex];
+    if (types == null) {
+      namesByPackageAndType[packageIndex] = types = new ResName[256][];
+    }
+    ResName[] entries = types[typeIndex];
+    if (entries == null || entries.length <= entryIndex) {
+      int length = entries == null ? 16 : entries.length;
+      while (length <= entryIndex) length *= 2;
+      entries = entries == null ? new ResName[length] : Arrays.copyOf(entries, length);
+    }
+    entries[entryIndex] = resName;
+    // publish the entries before the id, so a thread which sees the id also sees its name
+    types[typeIndex] = entries;
+    idsByName.put(resName, id);
+
+    if (idsByName.size() == 1 || id > maxId) {
+      maxId = id;
+    }
+  }
+
+  Integer getId(ResName resName) {
+    return idsByName.get(resName);
+  }
+
+  ResName getName(int id) {
+    ResName[][] types = namesByPackageAndType[id >>> 24];
+    if (types == null) return null;
+    ResName[] entries = types[(id >>> 16) & 0xff];
+    int entryIndex = id & 0xffff;
+    return entries == null || entryIndex >= entries.length ? null : entries[entryIndex];
+  }
+
+  boolean containsId(int id) {
+    return getName(id) != null;
+  }
+
+  boolean containsName(ResName resName) {
+    return idsByName.containsKey(resName);
+  }
+
+  Set<ResName> getNames() {
+    return Collections.unmodifiableSet(idsByName.keySet());
+  }
+
+  synchronized int getMaxId() {
+    return maxId;
+  }
+
+  boolean isEmpty() {
+    return idsByName.isEmpty();
+  }
+
+  int size() {
+    return idsByName.size();
+  }
+
+  /**
+   * @return Live view of the names mapped to ids, where {@code put()} maps the id back to the name too.
+   */
+  Map<ResName, Integer> asIdsByName() {
+    return new AbstractMap<ResName, Integer>() {
+      @Override public Integer get(Object key) {
+        return key instanceof ResName ? getId((ResName) key) : null;
+      }
+
+      @Override public boolean containsKey(Object key) {
+        return key instanceof ResName && containsName((ResName) key);
+      }
+
+      @Override public Integer put(ResName key, Integer value) {
+        Integer previous = getId(key);
+        ResourceTable.this.put(key, value);
+        return previous;
+      }
+
+      @Override public int size() {
+        return ResourceTable.this.size();
+      }
+
+      @Override public Set<Entry<ResName, Integer>> entrySet() {
+        return Collections.unmodifiableMap(idsByName).entrySet();
+      }
+    };
+  }
+
+  /**
+   * @return Live view of the ids mapped to names, where {@code put()} maps the name back to the id too.
+   */
+  Map<Integer, ResName> asNamesById() {
+    return new AbstractMap<Integer, ResName>() {
+      @Override public ResName get(Object key) {
+        return key instanceof Integer ? getName((Integer) key) : null;
+      }
+
+      @Override public boolean containsKey(Object key) {
+        return key instanceof Integer && containsId((Integer) key);
+      }
+
+      @Override public ResName put(Integer key, ResName value) {
+        ResName previous = getName(key);
+        ResourceTable.this.put(value, key);
+        return previous;
+      }
+
+      @Override public Set<Entry<Integer, ResName>> entrySet() {
+        return new AbstractSet<Entry<Integer, ResName>>() {
+          @Override public Iterator<Entry<Integer, ResName>> iterator() {
+            return new NamesByIdIterator(idsByName.entrySet().iterator());
+          }
+
+          @Override public int size() {
+            int size = 0;
+            for (Iterator<Entry<Integer, ResName>> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+              size++;
+            }
+            return size;
+          }
+        };
+      }
+    };
+  }
+
+  // Skips names whose id has been mapped to another name since
+  private class NamesByIdIterator implements Iterator<Map.Entry<Integer, ResName>> {
+    private final Iterator<Map.Entry<ResName, Integer>> idsByNameIterator;
+    private Map.Entry<Integer, ResName> next;
+
+    NamesByIdIterator(Iterator<Map.Entry<ResName, Integer>> idsByNameIterator) {
+      this.idsByNameIterator = idsByNameIterator;
+    }
+
+    @Override public boolean hasNext() {
+      while (next == null && idsByNameIterator.hasNext()) {
+        Map.Entry<ResName, Integer> entry = idsByNameIterator.next();
+        if (entry.getKey().equals(getName(entry.getValue()))) {
+          next = new AbstractMap.SimpleImmutableEntry<>(entry.getValue(), entry.getKey());
+        }
+      }
+      return next != null;
+    }
+
+    @Override public Map.Entry<Integer, ResName> next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      Map.Entry<Integer, ResName> entry = next;
+      next = null;
+      return entry;
+    }
+
+    @Override public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -30,6 +30,10 @@ public class StyleData implements Style {
     items.put(attrName, attribute);
   }
 
+  Map<ResName, Attribute> getItems() {
+    return items;
+  }
+
   @Override public Attribute getAttrValue(ResName resName) {
     resName.mustBe("attr");
     Attribute attribute = items.get(resName);
@@ -16,7 +16,7 @@ abstract class XResourceLoader implements ResourceLoader {
   final ResBundle<XmlBlock> xmlDocuments = new ResBundle<>();
   final ResBundle<FsFile> rawResources = new ResBundle<>();
   private final ResourceIndex resourceIndex;
-  boolean isInitialized = false;
+  volatile boolean isInitialized = false;
 
   protected XResourceLoader(ResourceIndex resourceIndex) {
     this.resourceIndex = resourceIndex;
@@ -26,10 +26,23 @@ abstract class XResourceLoader implements ResourceLoader {
 
   void initialize() {
     if (isInitialized) return;
-    doInitialize();
-    isInitialized = true;
+    // system resource loaders are shared between SDK environments, which may be set up concurrently
+    synchronized (this) {
+      if (isInitialized) return;
+      doInitialize();
+      makeImmutable();
+      isInitialized = true;
+    }
+  }
 
-    makeImmutable();
+  /**
+   * Make sure the resources which could be of the given type are loaded. Loaders which can load resources lazily
+   * override this to load less than {@link #initialize()} does.
+   *
+   * @param resType The resource type about to be looked up, e.g. {@code string} or {@code layout}.
+   */
+  void initialize(String resType) {
+    initialize();
   }
 
   protected void makeImmutable() {
@@ -49,14 +62,14 @@ abstract class XResourceLoader implements ResourceLoader {
   }
 
   public TypedResource getValue(@NotNull ResName resName, String qualifiers) {
-    initialize();
+    initialize(resName.type);
     ResBundle.Value<TypedResource> value = data.getValue(resName, qualifiers);
     return value == null ? null : value.getValue();
   }
 
   @Override
   public Plural getPlural(ResName resName, int quantity, String qualifiers) {
-    initialize();
+    initialize(resName.type);
     PluralResourceLoader.PluralRules pluralRules = pluralsData.get(resName, qualifiers);
     if (pluralRules == null) return null;
 
@@ -65,18 +78,19 @@ abstract class XResourceLoader implements ResourceLoader {
 
   @Override
   public XmlBlock getXml(ResName resName, String qualifiers) {
-    initialize();
+    initialize(resName.type);
     return xmlDocuments.get(resName, qualifiers);
   }
 
   @Override
   public DrawableNode getDrawableNode(ResName resName, String qualifiers) {
+    initialize(resName.type);
     return drawableData.get(resName, qualifiers);
   }
 
   @Override
   public InputStream getRawValue(ResName resName) {
-    initialize();
+    initialize(resName.type);
 
     FsFile file = rawResources.get(resName, "");
     try {
@@ -88,7 +102,7 @@ abstract class XResourceLoader implements ResourceLoader {
 
   @Override
   public PreferenceNode getPreferenceNode(ResName resName, String qualifiers) {
-    initialize();
+    initialize(resName.type);
 
     return preferenceData.get(resName, qualifiers);
   }
@@ -2,7 +2,7 @@ package org.robolectric.res;
 
 import android.content.res.XmlResourceParser;
 import org.robolectric.res.builder.XmlBlock;
-import org.w3c.dom.Document;
+import org.robolectric.res.builder.XmlTree;
 
 /**
  * Loader for xml property files.
@@ -10,6 +10,9 @@ import org.w3c.dom.Document;
  * <p>Given a resource file a concrete implementation of {@link XmlResourceParser}
  * is returned. The returned implementation is based on the current Android
  * implementation. Please see the android source code for further details.
+ *
+ * <p>The {@link XmlBlock} is built from the same VTD-XML parse the other loaders use, so each file is only
+ * parsed once. That parse keeps whitespace-only text, as a DOM parse does.
  */
 public class XmlBlockLoader extends XmlLoader {
   private final String attrType;
@@ -20,9 +23,14 @@ public class XmlBlockLoader extends XmlLoader {
     this.resBundle = resBundle;
   }
 
+  @Override
+  protected boolean needsWhitespaceText() {
+    return true;
+  }
+
   @Override
   protected void processResourceXml(FsFile xmlFile, XpathResourceXmlLoader.XmlNode xmlNode, XmlContext xmlContext) throws Exception {
-    XmlBlock block = XmlBlock.create(parse(xmlFile), xmlFile.getPath(), xmlContext.packageName);
+    XmlBlock block = XmlBlock.create(XmlTree.from(xmlNode.getVtdNav()), xmlFile.getPath(), xmlContext.packageName);
     resBundle.put(attrType, xmlFile.getBaseName(), block, xmlContext);
   }
 }
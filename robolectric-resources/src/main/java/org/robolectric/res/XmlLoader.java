@@ -42,6 +42,13 @@ public abstract class XmlLoader {
     }
   }
 
+  /**
+   * @return True if the loader needs whitespace-only text, which VTD-XML drops unless asked to keep it.
+   */
+  protected boolean needsWhitespaceText() {
+    return false;
+  }
+
   protected void processResourceXml(FsFile xmlFile, VTDNav vtdNav, String packageName) throws Exception {
     processResourceXml(xmlFile, new XpathResourceXmlLoader.XmlNode(vtdNav), new XmlContext(packageName, xmlFile));
   }
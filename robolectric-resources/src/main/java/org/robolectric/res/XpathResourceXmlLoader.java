@@ -32,6 +32,10 @@ public abstract class XpathResourceXmlLoader extends XmlLoader {
       this.vtdNav = vtdNav;
     }
 
+    VTDNav getVtdNav() {
+      return vtdNav;
+    }
+
     public String getElementName() {
       try {
         return vtdNav.toString(vtdNav.getCurrentIndex());
@@ -12,11 +12,7 @@ import org.robolectric.res.Fs;
 import org.robolectric.res.FsFile;
 import org.robolectric.res.ResName;
 import org.robolectric.res.ResourceIndex;
-import org.robolectric.res.XmlBlockLoader;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
 import org.xmlpull.v1.XmlPullParserException;
 
 public class ResourceParser {
@@ -36,17 +32,19 @@ public class ResourceParser {
   };
 
   public static XmlResourceParser from(XmlBlock block, String applicationPackageName, ResourceIndex resourceIndex) {
-    return new XmlResourceParserImpl(block.getDocument(), block.getFilename(), block.getPackageName(),
+    return new XmlResourceParserImpl(block.getTree(), block.getFilename(), block.getPackageName(),
         applicationPackageName, resourceIndex);
   }
 
   public static XmlResourceParser create(String file, String packageName, String applicationPackageName, ResourceIndex resourceIndex) {
     FsFile fsFile = Fs.fileFromPath(file);
-    Document document = new XmlBlockLoader(null, "xml").parse(fsFile);
-    if (document == null) {
+    byte[] bytes;
+    try {
+      bytes = fsFile.getBytes();
+    } catch (IOException e) {
       throw new Resources.NotFoundException("couldn't find resource " + fsFile.getPath());
     }
-    XmlBlock block = XmlBlock.create(document, file, packageName);
+    XmlBlock block = XmlBlock.create(XmlTree.parse(bytes), file, packageName);
     return from(block, applicationPackageName, resourceIndex);
   }
 
@@ -72,8 +70,8 @@ public class ResourceParser {
    * Concrete implementation of the {@link XmlResourceParser}.
    *
    * <p>Clients expects a pull parser while the resource loader
-   * initialise this object with a {@link Document}.
-   * This implementation navigates the dom and emulates a pull
+   * initialise this object with an {@link XmlTree}.
+   * This implementation navigates the tree and emulates a pull
    * parser by raising all the opportune events.
    *
    * <p>Note that the original android implementation is based on
@@ -85,14 +83,14 @@ public class ResourceParser {
 
     private static final ResName FAKE_RES_NAME = new ResName("_robolectric_", "attr", "_fake_");
 
-    private final Document document;
+    private final XmlTree tree;
     private final String fileName;
     private final String packageName;
     private final String applicationPackageName;
     private final ResourceIndex resourceIndex;
     private final String applicationNamespace;
 
-    private Node currentNode;
+    private int currentNode = XmlTree.NO_NODE;
 
     private boolean mStarted = false;
     private boolean mDecNextDepth = false;
@@ -101,7 +99,12 @@ public class ResourceParser {
 
     public XmlResourceParserImpl(Document document, String fileName, String packageName,
         String applicationPackageName, ResourceIndex resourceIndex) {
-      this.document = document;
+      this(XmlTree.from(document), fileName, packageName, applicationPackageName, resourceIndex);
+    }
+
+    public XmlResourceParserImpl(XmlTree tree, String fileName, String packageName,
+        String applicationPackageName, ResourceIndex resourceIndex) {
+      this.tree = tree;
       this.fileName = fileName;
       this.packageName = packageName;
       this.applicationPackageName = applicationPackageName;
@@ -205,10 +208,10 @@ public class ResourceParser {
 
     @Override
     public String getText() {
-      if (currentNode == null) {
+      if (currentNode == XmlTree.NO_NODE) {
         return "";
       }
-      return currentNode.getTextContent();
+      return tree.getText(currentNode);
     }
 
     @Override
@@ -261,7 +264,7 @@ public class ResourceParser {
 
     @Override
     public String getNamespace() {
-      String namespace = currentNode != null ? currentNode.getNamespaceURI() : null;
+      String namespace = currentNode != XmlTree.NO_NODE ? tree.getNamespace(currentNode) : null;
       if (namespace == null) {
         return "";
       }
@@ -271,46 +274,34 @@ public class ResourceParser {
 
     @Override
     public String getName() {
-      if (currentNode == null) {
+      if (currentNode == XmlTree.NO_NODE) {
         return "";
       }
-      return currentNode.getNodeName();
+      return tree.getNodeName(currentNode);
     }
 
-    Node getAttributeAt(int index) {
-      if (currentNode == null) {
+    int getAttributeAt(int index) {
+      if (currentNode == XmlTree.NO_NODE || index >= tree.getAttributeCount(currentNode)) {
         throw new IndexOutOfBoundsException(String.valueOf(index));
       }
-      NamedNodeMap map = currentNode.getAttributes();
-      if (index >= map.getLength()) {
-        throw new IndexOutOfBoundsException(String.valueOf(index));
-      }
-      return map.item(index);
+      return index;
     }
 
     String getAttribute(String namespace, String name) {
-      if (currentNode == null) {
+      if (currentNode == XmlTree.NO_NODE || !tree.isElement(currentNode)) {
         return null;
       }
 
-      Element element = (Element) currentNode;
-      if (element.hasAttributeNS(namespace, name)) {
-        return element.getAttributeNS(namespace, name);
-      } else if (applicationNamespace.equals(namespace)
-          && element.hasAttributeNS(Attribute.RES_AUTO_NS_URI, name)) {
-        return element.getAttributeNS(Attribute.RES_AUTO_NS_URI, name);
+      String value = tree.getAttributeValue(currentNode, namespace, name);
+      if (value == null && applicationNamespace.equals(namespace)) {
+        value = tree.getAttributeValue(currentNode, Attribute.RES_AUTO_NS_URI, name);
       }
-
-      return null;
+      return value;
     }
 
     @Override
     public String getAttributeNamespace(int index) {
-      Node attr = getAttributeAt(index);
-      if (attr == null) {
-        return null;
-      }
-      return maybeReplaceNamespace(attr.getNamespaceURI());
+      return maybeReplaceNamespace(tree.getAttributeNamespace(currentNode, getAttributeAt(index)));
     }
 
     private String maybeReplaceNamespace(String namespace) {
@@ -324,11 +315,11 @@ public class ResourceParser {
     @Override
     public String getAttributeName(int index) {
       try {
-        Node attr = getAttributeAt(index);
-        String namespace = maybeReplaceNamespace(attr.getNamespaceURI());
+        int attr = getAttributeAt(index);
+        String namespace = maybeReplaceNamespace(tree.getAttributeNamespace(currentNode, attr));
         return (Attribute.ANDROID_RES_NS_PREFIX + packageName).equals(namespace) ?
-          attr.getLocalName() :
-          attr.getNodeName();
+          tree.getAttributeLocalName(currentNode, attr) :
+          tree.getAttributeName(currentNode, attr);
       } catch (IndexOutOfBoundsException ex) {
         return null;
       }
@@ -348,15 +339,15 @@ public class ResourceParser {
 
     @Override
     public int getAttributeCount() {
-      if (currentNode == null) {
+      if (currentNode == XmlTree.NO_NODE) {
         return -1;
       }
-      return currentNode.getAttributes().getLength();
+      return tree.getAttributeCount(currentNode);
     }
 
     @Override
     public String getAttributeValue(int index) {
-      return qualify(getAttributeAt(index).getNodeValue());
+      return qualify(tree.getAttributeValue(currentNode, getAttributeAt(index)));
     }
 
     private String qualify(String value) {
@@ -467,14 +458,14 @@ public class ResourceParser {
               "PROCESSING_INSTRUCTION");
         }
         case (START_DOCUMENT): {
-          currentNode = document.getDocumentElement();
+          currentNode = tree.getRoot();
           return START_TAG;
         }
         case (START_TAG): {
-          if (currentNode.hasChildNodes()) {
+          int firstChild = tree.getFirstChild(currentNode);
+          if (firstChild != XmlTree.NO_NODE) {
             // The node has children, navigate down
-            return processNextNodeType(
-                currentNode.getFirstChild());
+            return processNextNodeType(firstChild);
           } else {
             // The node has no children
             return END_TAG;
@@ -493,45 +484,18 @@ public class ResourceParser {
 
     }
 
-    /*protected*/ int processNextNodeType(Node node)
+    /*protected*/ int processNextNodeType(int node)
         throws XmlPullParserException {
-      switch (node.getNodeType()) {
-        case (Node.ATTRIBUTE_NODE): {
-          throw new IllegalArgumentException("ATTRIBUTE_NODE");
-        }
-        case (Node.CDATA_SECTION_NODE): {
-          return navigateToNextNode(node);
-        }
-        case (Node.COMMENT_NODE): {
+      switch (tree.getNodeType(node)) {
+        case (XmlTree.CDATA): {
           return navigateToNextNode(node);
         }
-        case (Node.DOCUMENT_FRAGMENT_NODE): {
-          throw new IllegalArgumentException("DOCUMENT_FRAGMENT_NODE");
-        }
-        case (Node.DOCUMENT_NODE): {
-          throw new IllegalArgumentException("DOCUMENT_NODE");
-        }
-        case (Node.DOCUMENT_TYPE_NODE): {
-          throw new IllegalArgumentException("DOCUMENT_TYPE_NODE");
-        }
-        case (Node.ELEMENT_NODE): {
+        case (XmlTree.ELEMENT): {
           currentNode = node;
           return START_TAG;
         }
-        case (Node.ENTITY_NODE): {
-          throw new IllegalArgumentException("ENTITY_NODE");
-        }
-        case (Node.ENTITY_REFERENCE_NODE): {
-          throw new IllegalArgumentException("ENTITY_REFERENCE_NODE");
-        }
-        case (Node.NOTATION_NODE): {
-          throw new IllegalArgumentException("DOCUMENT_TYPE_NODE");
-        }
-        case (Node.PROCESSING_INSTRUCTION_NODE): {
-          throw new IllegalArgumentException("DOCUMENT_TYPE_NODE");
-        }
-        case (Node.TEXT_NODE): {
-          if (isWhitespace(node.getNodeValue())) {
+        case (XmlTree.TEXT): {
+          if (isWhitespace(tree.getText(node))) {
             // Skip whitespaces
             return navigateToNextNode(node);
           } else {
@@ -542,7 +506,7 @@ public class ResourceParser {
         default: {
           throw new RuntimeException(
               "Robolectric -> Unknown node type: " +
-                  node.getNodeType() + ".");
+                  tree.getNodeType(node) + ".");
         }
       }
     }
@@ -563,19 +527,19 @@ public class ResourceParser {
      * @throws XmlPullParserException if the parser fails to
      *                                parse the next node.
      */
-    int navigateToNextNode(Node node)
+    int navigateToNextNode(int node)
         throws XmlPullParserException {
-      Node nextNode = node.getNextSibling();
-      if (nextNode != null) {
+      int nextNode = tree.getNextSibling(node);
+      if (nextNode != XmlTree.NO_NODE) {
         // Move to the next siblings
         return processNextNodeType(nextNode);
       } else {
         // Goes back to the parent
-        if (document.getDocumentElement().equals(node)) {
-          currentNode = null;
+        if (tree.getRoot() == node) {
+          currentNode = XmlTree.NO_NODE;
           return END_DOCUMENT;
         }
-        currentNode = node.getParentNode();
+        currentNode = tree.getParent(node);
         return END_TAG;
       }
     }
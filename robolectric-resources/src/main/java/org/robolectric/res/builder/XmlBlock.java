@@ -7,16 +7,30 @@ import org.w3c.dom.Document;
  * to Android's XmlBlock class.
  */
 public class XmlBlock {
-  private final Document document;
+  private final XmlTree tree;
   private final String filename;
   private final String packageName;
 
+  public static XmlBlock create(XmlTree tree, String file, String packageName) {
+    return new XmlBlock(tree, file, packageName);
+  }
+
   public static XmlBlock create(Document document, String file, String packageName) {
-    return new XmlBlock(document, file, packageName);
+    return new XmlBlock(XmlTree.from(document), file, packageName);
   }
 
+  /**
+   * @return A new DOM document built from the block's tree.
+   * @deprecated XmlBlocks are no longer parsed into DOM documents; use {@link #getTree()}, which this builds the
+   *     document from on each call.
+   */
+  @Deprecated
   public Document getDocument() {
-    return document;
+    return tree.toDocument();
+  }
+
+  public XmlTree getTree() {
+    return tree;
   }
 
   public String getFilename() {
@@ -27,8 +41,8 @@ public class XmlBlock {
     return packageName;
   }
 
-  private XmlBlock(Document document, String filename, String packageName) {
-    this.document = document;
+  private XmlBlock(XmlTree tree, String filename, String packageName) {
+    this.tree = tree;
     this.filename = filename;
     this.packageName = packageName;
   }
@@ -0,0 +1,649 @@
+package org.robolectric.res.builder;
+
+import com.ximpleware.NavException;
+import com.ximpleware.ParseException;
+import com.ximpleware.VTDGen;
+import com.ximpleware.VTDNav;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, compact form of a parsed resource XML file, similar in spirit to Android's compiled binary XML.
+ *
+ * <p>Nodes and attributes are stored in parallel int arrays which refer to a pool of unique strings, and are
+ * addressed by index; the root element is node 0. The tree keeps the parts of the document
+ * {@link ResourceParser.XmlResourceParserImpl} exposes (elements, attributes including namespace declarations,
+ * text and CDATA sections) with the same namespace, ordering and text merging rules as a namespace-aware
+ * DOM parse, so it can be built either from the VTD-XML parse done by
+ * {@link org.robolectric.res.DocumentLoader} or from a {@link Document}.</p>
+ */
+public class XmlTree {
+  public static final int NO_NODE = -1;
+
+  static final int ELEMENT = Node.ELEMENT_NODE;
+  static final int TEXT = Node.TEXT_NODE;
+  static final int CDATA = Node.CDATA_SECTION_NODE;
+
+  static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
+  static final String XMLNS_NS = "http://www.w3.org/2000/xmlns/";
+
+  private static final int NO_STRING = -1;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final String[] strings;
+
+  private final byte[] nodeTypes;
+  private final int[] nodeParents;
+  private final int[] nodeFirstChildren;
+  private final int[] nodeNextSiblings;
+  // qualified name for elements, text for text and CDATA nodes
+  private final int[] nodeValues;
+  private final int[] nodeNamespaces;
+  private final int[] nodeFirstAttributes;
+  private final int[] nodeAttributeCounts;
+
+  private final int[] attributeNames;
+  private final int[] attributeLocalNames;
+  private final int[] attributeNamespaces;
+  private final int[] attributeValues;
+
+  private XmlTree(Builder builder) {
+    strings = builder.strings.toArray(new String[builder.strings.size()]);
+
+    int nodeCount = builder.nodeCount;
+    nodeTypes = Arrays.copyOf(builder.nodeTypes, nodeCount);
+    nodeParents = Arrays.copyOf(builder.nodeParents, nodeCount);
+    nodeFirstChildren = Arrays.copyOf(builder.nodeFirstChildren, nodeCount);
+    nodeNextSiblings = Arrays.copyOf(builder.nodeNextSiblings, nodeCount);
+    nodeValues = Arrays.copyOf(builder.nodeValues, nodeCount);
+    nodeNamespaces = Arrays.copyOf(builder.nodeNamespaces, nodeCount);
+    nodeFirstAttributes = Arrays.copyOf(builder.nodeFirstAttributes, nodeCount);
+    nodeAttributeCounts = Arrays.copyOf(builder.nodeAttributeCounts, nodeCount);
+
+    int attributeCount = builder.attributeCount;
+    attributeNames = Arrays.copyOf(builder.attributeNames, attributeCount);
+    attributeLocalNames = Arrays.copyOf(builder.attributeLocalNames, attributeCount);
+    attributeNamespaces = Arrays.copyOf(builder.attributeNamespaces, attributeCount);
+    attributeValues = Arrays.copyOf(builder.attributeValues, attributeCount);
+  }
+
+  private XmlTree(String[] strings, byte[] nodeTypes, int[][] nodeArrays, int[][] attributeArrays) {
+    this.strings = strings;
+    this.nodeTypes = nodeTypes;
+    nodeParents = nodeArrays[0];
+    nodeFirstChildren = nodeArrays[1];
+    nodeNextSiblings = nodeArrays[2];
+    nodeValues = nodeArrays[3];
+    nodeNamespaces = nodeArrays[4];
+    nodeFirstAttributes = nodeArrays[5];
+    nodeAttributeCounts = nodeArrays[6];
+    attributeNames = attributeArrays[0];
+    attributeLocalNames = attributeArrays[1];
+    attributeNamespaces = attributeArrays[2];
+    attributeValues = attributeArrays[3];
+  }
+
+  /**
+   * Read a tree written by {@link #writeTo(DataOutput)}.
+   *
+   * @param in Input positioned at the start of the tree.
+   * @return The tree.
+   * @throws IOException If the input can't be read.
+   */
+  public static XmlTree readFrom(DataInput in) throws IOException {
+    String[] strings = new String[in.readInt()];
+    for (int i = 0; i < strings.length; i++) {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      strings[i] = new String(bytes, UTF_8);
+    }
+
+    byte[] nodeTypes = new byte[in.readInt()];
+    in.readFully(nodeTypes);
+    int[][] nodeArrays = new int[7][nodeTypes.length];
+    readInts(in, nodeArrays);
+
+    int[][] attributeArrays = new int[4][in.readInt()];
+    readInts(in, attributeArrays);
+
+    return new XmlTree(strings, nodeTypes, nodeArrays, attributeArrays);
+  }
+
+  /**
+   * Write the tree in a compact binary form which {@link #readFrom(DataInput)} reads back.
+   *
+   * @param out Output to write to.
+   * @throws IOException If the output can't be written.
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(strings.length);
+    for (String string : strings) {
+      byte[] bytes = string.getBytes(UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    out.writeInt(nodeTypes.length);
+    out.write(nodeTypes);
+    writeInts(out, nodeParents, nodeFirstChildren, nodeNextSiblings, nodeValues, nodeNamespaces,
+        nodeFirstAttributes, nodeAttributeCounts);
+
+    out.writeInt(attributeNames.length);
+    writeInts(out, attributeNames, attributeLocalNames, attributeNamespaces, attributeValues);
+  }
+
+  private static void readInts(DataInput in, int[][] arrays) throws IOException {
+    for (int[] array : arrays) {
+      for (int i = 0; i < array.length; i++) {
+        array[i] = in.readInt();
+      }
+    }
+  }
+
+  private static void writeInts(DataOutput out, int[]... arrays) throws IOException {
+    for (int[] array : arrays) {
+      for (int value : array) {
+        out.writeInt(value);
+      }
+    }
+  }
+
+  /**
+   * Parse an XML file with VTD-XML.
+   *
+   * @param bytes Content of the file.
+   * @return The tree.
+   */
+  public static XmlTree parse(byte[] bytes) {
+    VTDGen vtdGen = new VTDGen();
+    vtdGen.enableIgnoredWhiteSpace(true);
+    vtdGen.setDoc(bytes);
+    try {
+      vtdGen.parse(true);
+    } catch (ParseException e) {
+      throw new RuntimeException(e);
+    }
+    return from(vtdGen.getNav());
+  }
+
+  /**
+   * Build a tree from a namespace-aware VTD-XML parse, without moving the navigator's cursor. Unless the parse was
+   * made with {@link VTDGen#enableIgnoredWhiteSpace(boolean)}, whitespace-only text is missing from the tree.
+   *
+   * @param vtdNav Navigator over the parsed document.
+   * @return The tree.
+   */
+  public static XmlTree from(VTDNav vtdNav) {
+    try {
+      return new VtdReader(vtdNav).read();
+    } catch (NavException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Build a tree from a namespace-aware DOM parse.
+   *
+   * @param document The document.
+   * @return The tree.
+   */
+  public static XmlTree from(Document document) {
+    Builder builder = new Builder();
+    addDomElement(builder, NO_NODE, document.getDocumentElement());
+    return builder.build();
+  }
+
+  private static void addDomElement(Builder builder, int parent, Node element) {
+    NamedNodeMap domAttributes = element.getAttributes();
+    List<Attribute> attributes = new ArrayList<>(domAttributes.getLength());
+    for (int i = 0; i < domAttributes.getLength(); i++) {
+      Node attribute = domAttributes.item(i);
+      String localName = attribute.getLocalName() == null ? attribute.getNodeName() : attribute.getLocalName();
+      attributes.add(new Attribute(attribute.getNamespaceURI(), attribute.getNodeName(), localName, attribute.getNodeValue()));
+    }
+    int node = builder.addElement(parent, element.getNamespaceURI(), element.getNodeName(), attributes);
+
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      switch (child.getNodeType()) {
+        case Node.ELEMENT_NODE:
+          addDomElement(builder, node, child);
+          break;
+        case Node.TEXT_NODE:
+          builder.addText(node, child.getNodeValue(), false);
+          break;
+        case Node.CDATA_SECTION_NODE:
+          builder.addText(node, child.getNodeValue(), true);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Build a namespace-aware DOM document with the same content as the tree.
+   *
+   * @return A new document, which the caller may modify.
+   */
+  public Document toDocument() {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    Document document;
+    try {
+      document = factory.newDocumentBuilder().newDocument();
+    } catch (ParserConfigurationException e) {
+      throw new RuntimeException(e);
+    }
+    document.appendChild(toDomElement(document, getRoot()));
+    return document;
+  }
+
+  private Element toDomElement(Document document, int node) {
+    String namespace = getNamespace(node);
+    Element element = namespace == null
+        ? document.createElement(getNodeName(node))
+        : document.createElementNS(namespace, getNodeName(node));
+    for (int i = 0; i < getAttributeCount(node); i++) {
+      String attributeNamespace = getAttributeNamespace(node, i);
+      if (attributeNamespace == null) {
+        element.setAttribute(getAttributeName(node, i), getAttributeValue(node, i));
+      } else {
+        element.setAttributeNS(attributeNamespace, getAttributeName(node, i), getAttributeValue(node, i));
+      }
+    }
+
+    for (int child = getFirstChild(node); child != NO_NODE; child = getNextSibling(child)) {
+      switch (nodeTypes[child]) {
+        case ELEMENT:
+          element.appendChild(toDomElement(document, child));
+          break;
+        case CDATA:
+          element.appendChild(document.createCDATASection(getText(child)));
+          break;
+        default:
+          element.appendChild(document.createTextNode(getText(child)));
+          break;
+      }
+    }
+    return element;
+  }
+
+  public int getRoot() {
+    return 0;
+  }
+
+  public int getNodeType(int node) {
+    return nodeTypes[node];
+  }
+
+  public boolean isElement(int node) {
+    return nodeTypes[node] == ELEMENT;
+  }
+
+  public int getParent(int node) {
+    return nodeParents[node];
+  }
+
+  public int getFirstChild(int node) {
+    return nodeFirstChildren[node];
+  }
+
+  public int getNextSibling(int node) {
+    return nodeNextSiblings[node];
+  }
+
+  /**
+   * @return The qualified name of an element, or {@code #text} or {@code #cdata-section}, as in DOM.
+   */
+  public String getNodeName(int node) {
+    switch (nodeTypes[node]) {
+      case ELEMENT:
+        return strings[nodeValues[node]];
+      case CDATA:
+        return "#cdata-section";
+      default:
+        return "#text";
+    }
+  }
+
+  /**
+   * @return The namespace URI of an element, or null.
+   */
+  public String getNamespace(int node) {
+    return string(nodeNamespaces[node]);
+  }
+
+  /**
+   * @return The text of a text or CDATA node, or the concatenated text of all the descendants of an element.
+   */
+  public String getText(int node) {
+    if (nodeTypes[node] != ELEMENT) {
+      return strings[nodeValues[node]];
+    }
+    StringBuilder buf = new StringBuilder();
+    appendText(node, buf);
+    return buf.toString();
+  }
+
+  private void appendText(int node, StringBuilder buf) {
+    for (int child = nodeFirstChildren[node]; child != NO_NODE; child = nodeNextSiblings[child]) {
+      if (nodeTypes[child] == ELEMENT) {
+        appendText(child, buf);
+      } else {
+        buf.append(strings[nodeValues[child]]);
+      }
+    }
+  }
+
+  public int getAttributeCount(int node) {
+    return nodeAttributeCounts[node];
+  }
+
+  /**
+   * @return The qualified name of an element's attribute, e.g. {@code android:id} or {@code xmlns:android}.
+   */
+  public String getAttributeName(int node, int index) {
+    return strings[attributeNames[attributeIndex(node, index)]];
+  }
+
+  public String getAttributeLocalName(int node, int index) {
+    return strings[attributeLocalNames[attributeIndex(node, index)]];
+  }
+
+  /**
+   * @return The namespace URI of an element's attribute, or null if it has no prefix.
+   */
+  public String getAttributeNamespace(int node, int index) {
+    return string(attributeNamespaces[attributeIndex(node, index)]);
+  }
+
+  public String getAttributeValue(int node, int index) {
+    return strings[attributeValues[attributeIndex(node, index)]];
+  }
+
+  /**
+   * @param node The element.
+   * @param namespace The attribute's namespace URI, or null for an attribute without a prefix.
+   * @param localName The attribute's name without its prefix.
+   * @return The attribute's value, or null if the element has no such attribute.
+   */
+  public String getAttributeValue(int node, String namespace, String localName) {
+    int first = nodeFirstAttributes[node];
+    for (int i = first; i < first + nodeAttributeCounts[node]; i++) {
+      if (strings[attributeLocalNames[i]].equals(localName) && equal(string(attributeNamespaces[i]), namespace)) {
+        return strings[attributeValues[i]];
+      }
+    }
+    return null;
+  }
+
+  private int attributeIndex(int node, int index) {
+    if (index < 0 || index >= nodeAttributeCounts[node]) {
+      throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+    return nodeFirstAttributes[node] + index;
+  }
+
+  private String string(int index) {
+    return index == NO_STRING ? null : strings[index];
+  }
+
+  private static boolean equal(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  private static class Attribute {
+    private static final Comparator<Attribute> BY_NAME = new Comparator<Attribute>() {
+      @Override public int compare(Attribute a, Attribute b) {
+        return a.name.compareTo(b.name);
+      }
+    };
+
+    final String namespace;
+    final String name;
+    final String localName;
+    final String value;
+
+    Attribute(String namespace, String name, String localName, String value) {
+      this.namespace = namespace;
+      this.name = name;
+      this.localName = localName;
+      this.value = value;
+    }
+  }
+
+  private static class VtdReader {
+    private final VTDNav vtdNav;
+    private final Builder builder = new Builder();
+    // open elements and the namespace prefixes in scope for them, by depth
+    private final List<Integer> elements = new ArrayList<>();
+    private final List<Map<String, String>> prefixes = new ArrayList<>();
+
+    VtdReader(VTDNav vtdNav) {
+      this.vtdNav = vtdNav;
+    }
+
+    XmlTree read() throws NavException {
+      int tokenCount = vtdNav.getTokenCount();
+      int i = 0;
+      while (i < tokenCount) {
+        int depth = vtdNav.getTokenDepth(i);
+        switch (vtdNav.getTokenType(i)) {
+          case VTDNav.TOKEN_STARTING_TAG:
+            i = readElement(i, depth);
+            continue;
+          case VTDNav.TOKEN_CHARACTER_DATA:
+            if (depth >= 0 && depth < elements.size()) {
+              builder.addText(elements.get(depth), vtdNav.toString(i).replace("\r\n", "\n"), false);
+            }
+            break;
+          case VTDNav.TOKEN_CDATA_VAL:
+            if (depth >= 0 && depth < elements.size()) {
+              builder.addText(elements.get(depth), vtdNav.toRawString(i), true);
+            }
+            break;
+          default:
+            break;
+        }
+        i++;
+      }
+      return builder.build();
+    }
+
+    private int readElement(int i, int depth) throws NavException {
+      while (elements.size() > depth) {
+        elements.remove(elements.size() - 1);
+        prefixes.remove(prefixes.size() - 1);
+      }
+
+      String name = vtdNav.toString(i++);
+      List<String[]> rawAttributes = new ArrayList<>();
+      Map<String, String> scope = prefixes.isEmpty() ? Collections.<String, String>emptyMap() : prefixes.get(prefixes.size() - 1);
+      boolean copied = false;
+      int tokenCount = vtdNav.getTokenCount();
+      while (i + 1 < tokenCount) {
+        int type = vtdNav.getTokenType(i);
+        if (type != VTDNav.TOKEN_ATTR_NAME && type != VTDNav.TOKEN_ATTR_NS) break;
+
+        String attributeName = vtdNav.toString(i);
+        String attributeValue = normalizeAttributeValue(vtdNav.toString(i + 1));
+        if (type == VTDNav.TOKEN_ATTR_NS) {
+          if (!copied) {
+            scope = new HashMap<>(scope);
+            copied = true;
+          }
+          scope.put(attributeName.equals("xmlns") ? "" : localName(attributeName), attributeValue);
+        }
+        rawAttributes.add(new String[] {attributeName, attributeValue});
+        i += 2;
+      }
+
+      List<Attribute> attributes = new ArrayList<>(rawAttributes.size());
+      for (String[] rawAttribute : rawAttributes) {
+        String attributeName = rawAttribute[0];
+        String namespace;
+        if (attributeName.equals("xmlns") || attributeName.startsWith("xmlns:")) {
+          namespace = XMLNS_NS;
+        } else if (attributeName.indexOf(':') == -1) {
+          namespace = null;
+        } else {
+          namespace = resolve(scope, prefix(attributeName));
+        }
+        attributes.add(new Attribute(namespace, attributeName, localName(attributeName), rawAttribute[1]));
+      }
+
+      int parent = depth == 0 || elements.isEmpty() ? NO_NODE : elements.get(depth - 1);
+      String namespace = resolve(scope, name.indexOf(':') == -1 ? "" : prefix(name));
+      elements.add(builder.addElement(parent, namespace, name, attributes));
+      prefixes.add(scope);
+      return i;
+    }
+
+    private static String resolve(Map<String, String> scope, String prefix) {
+      if (prefix.equals("xml")) return XML_NS;
+      String namespace = scope.get(prefix);
+      return namespace == null || namespace.isEmpty() ? null : namespace;
+    }
+
+    private static String prefix(String qualifiedName) {
+      return qualifiedName.substring(0, qualifiedName.indexOf(':'));
+    }
+
+    private static String localName(String qualifiedName) {
+      return qualifiedName.substring(qualifiedName.indexOf(':') + 1);
+    }
+
+    // as a DOM parser does for CDATA attributes: each literal tab, newline or carriage return becomes a space
+    private static String normalizeAttributeValue(String value) {
+      return value.replace("\r\n", " ").replace('\n', ' ').replace('\r', ' ').replace('\t', ' ');
+    }
+  }
+
+  private static class Builder {
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+    private int nodeCount;
+    private byte[] nodeTypes = new byte[16];
+    private int[] nodeParents = new int[16];
+    private int[] nodeFirstChildren = new int[16];
+    private int[] nodeLastChildren = new int[16];
+    private int[] nodeNextSiblings = new int[16];
+    private int[] nodeValues = new int[16];
+    private int[] nodeNamespaces = new int[16];
+    private int[] nodeFirstAttributes = new int[16];
+    private int[] nodeAttributeCounts = new int[16];
+
+    private int attributeCount;
+    private int[] attributeNames = new int[16];
+    private int[] attributeLocalNames = new int[16];
+    private int[] attributeNamespaces = new int[16];
+    private int[] attributeValues = new int[16];
+
+    int addElement(int parent, String namespace, String name, List<Attribute> attributes) {
+      int node = addNode(parent, ELEMENT, intern(name));
+      nodeNamespaces[node] = intern(namespace);
+      nodeFirstAttributes[node] = attributeCount;
+      nodeAttributeCounts[node] = attributes.size();
+
+      // DOM keeps attributes ordered by qualified name, and so does the parser's index-based API
+      Collections.sort(attributes, Attribute.BY_NAME);
+      for (Attribute attribute : attributes) {
+        if (attributeCount == attributeNames.length) {
+          int capacity = attributeCount * 2;
+          attributeNames = Arrays.copyOf(attributeNames, capacity);
+          attributeLocalNames = Arrays.copyOf(attributeLocalNames, capacity);
+          attributeNamespaces = Arrays.copyOf(attributeNamespaces, capacity);
+          attributeValues = Arrays.copyOf(attributeValues, capacity);
+        }
+        attributeNames[attributeCount] = intern(attribute.name);
+        attributeLocalNames[attributeCount] = intern(attribute.localName);
+        attributeNamespaces[attributeCount] = intern(attribute.namespace);
+        attributeValues[attributeCount] = intern(attribute.value);
+        attributeCount++;
+      }
+      return node;
+    }
+
+    void addText(int parent, String text, boolean cdata) {
+      int lastChild = nodeLastChildren[parent];
+      if (!cdata && lastChild != NO_NODE && nodeTypes[lastChild] == TEXT) {
+        // text separated only by comments is a single node, as in DOM
+        nodeValues[lastChild] = intern(strings.get(nodeValues[lastChild]) + text);
+        return;
+      }
+      addNode(parent, cdata ? CDATA : TEXT, intern(text));
+    }
+
+    private int addNode(int parent, int type, int value) {
+      if (nodeCount == nodeTypes.length) {
+        int capacity = nodeCount * 2;
+        nodeTypes = Arrays.copyOf(nodeTypes, capacity);
+        nodeParents = Arrays.copyOf(nodeParents, capacity);
+        nodeFirstChildren = Arrays.copyOf(nodeFirstChildren, capacity);
+        nodeLastChildren = Arrays.copyOf(nodeLastChildren, capacity);
+        nodeNextSiblings = Arrays.copyOf(nodeNextSiblings, capacity);
+        nodeValues = Arrays.copyOf(nodeValues, capacity);
+        nodeNamespaces = Arrays.copyOf(nodeNamespaces, capacity);
+        nodeFirstAttributes = Arrays.copyOf(nodeFirstAttributes, capacity);
+        nodeAttributeCounts = Arrays.copyOf(nodeAttributeCounts, capacity);
+      }
+
+      int node = nodeCount++;
+      nodeTypes[node] = (byte) type;
+      nodeParents[node] = parent;
+      nodeFirstChildren[node] = NO_NODE;
+      nodeLastChildren[node] = NO_NODE;
+      nodeNextSiblings[node] = NO_NODE;
+      nodeValues[node] = value;
+      nodeNamespaces[node] = NO_STRING;
+      nodeFirstAttributes[node] = attributeCount;
+      nodeAttributeCounts[node] = 0;
+
+      if (parent != NO_NODE) {
+        int previousSibling = nodeLastChildren[parent];
+        if (previousSibling == NO_NODE) {
+          nodeFirstChildren[parent] = node;
+        } else {
+          nodeNextSiblings[previousSibling] = node;
+        }
+        nodeLastChildren[parent] = node;
+      }
+      return node;
+    }
+
+    private int intern(String string) {
+      if (string == null) return NO_STRING;
+      Integer index = stringIndexes.get(string);
+      if (index == null) {
+        index = strings.size();
+        strings.add(string);
+        stringIndexes.put(string, index);
+      }
+      return index;
+    }
+
+    XmlTree build() {
+      if (nodeCount == 0) {
+        throw new IllegalStateException("no root element");
+      }
+      return new XmlTree(this);
+    }
+  }
+}
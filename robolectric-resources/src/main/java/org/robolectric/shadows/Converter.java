@@ -31,7 +31,7 @@ public class Converter<T> {
     ATTR_TYPE_MAP.put("fraction", ResType.FRACTION);
   }
 
-  synchronized private static int getNextStringCookie() {
+  synchronized static int getNextStringCookie() {
     return nextStringCookie++;
   }
 
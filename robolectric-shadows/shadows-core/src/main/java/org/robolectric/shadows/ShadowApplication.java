@@ -39,11 +39,14 @@ import org.robolectric.manifest.BroadcastReceiverData;
 import org.robolectric.res.ResourceLoader;
 import org.robolectric.util.Scheduler;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -68,6 +71,9 @@ public class ShadowApplication extends ShadowContextWrapper {
   private List<ServiceConnection> boundServiceConnections = new ArrayList<>();
   private List<ServiceConnection> unboundServiceConnections = new ArrayList<>();
   private List<Wrapper> registeredReceivers = new ArrayList<>();
+  private List<Wrapper> registeredReceiversView = new RegisteredReceivers();
+  private Map<BroadcastReceiver, List<Wrapper>> registeredWrappersForReceiver = new IdentityHashMap<>();
+  private Map<String, Wrapper[]> registeredWrappersForAction = new HashMap<>();
   private Map<String, Intent> stickyIntents = new LinkedHashMap<>();
   private Looper mainLooper = Looper.myLooper();
   private Handler mainHandler = new Handler(mainLooper);
@@ -452,11 +458,8 @@ public class ShadowApplication extends ShadowContextWrapper {
 
     List<Wrapper> result = new ArrayList<>();
 
-    List<Wrapper> copy = new ArrayList<>();
-    copy.addAll(registeredReceivers);
-    for (Wrapper wrapper : copy) {
-      if (hasMatchingPermission(wrapper.broadcastPermission, receiverPermission)
-          && wrapper.intentFilter.matchAction(intent.getAction())) {
+    for (Wrapper wrapper : getWrappersForAction(intent.getAction())) {
+      if (hasMatchingPermission(wrapper.broadcastPermission, receiverPermission)) {
         final int match = wrapper.intentFilter.matchData(intent.getType(), intent.getScheme(), intent.getData());
         if (match != IntentFilter.NO_MATCH_DATA && match != IntentFilter.NO_MATCH_TYPE) {
           result.add(wrapper);
@@ -467,7 +470,7 @@ public class ShadowApplication extends ShadowContextWrapper {
   }
 
   private void postIntent(Intent intent, Wrapper wrapper, final AtomicBoolean abort) {
-    final Handler scheduler = (wrapper.scheduler != null) ? wrapper.scheduler : this.mainHandler;
+    final Handler scheduler = getScheduler(wrapper);
     final BroadcastReceiver receiver = wrapper.broadcastReceiver;
     final ShadowBroadcastReceiver shReceiver = Shadows.shadowOf(receiver);
     final Intent broadcastIntent = intent;
@@ -486,6 +489,57 @@ public class ShadowApplication extends ShadowContextWrapper {
     }
   }
 
+  /**
+   * Posts one task to each receiver's handler for the consecutive receivers which share it, delivering the
+   * broadcast to them in turn until one of them aborts it.
+   */
+  private void postInOrder(List<Wrapper> wrappers, final Intent intent) {
+    final AtomicBoolean abort = new AtomicBoolean(false);
+    int start = 0;
+    while (start < wrappers.size()) {
+      Handler scheduler = getScheduler(wrappers.get(start));
+      int end = start + 1;
+      while (end < wrappers.size() && getScheduler(wrappers.get(end)) == scheduler) {
+        end++;
+      }
+      final List<Wrapper> batch = wrappers.subList(start, end);
+      scheduler.post(new Runnable() {
+        @Override
+        public void run() {
+          // a receiver which throws doesn't keep the broadcast from the rest, as if each were posted on its own
+          RuntimeException failure = null;
+          for (Wrapper wrapper : batch) {
+            if (abort.get()) {
+              break;
+            }
+            try {
+              Shadows.shadowOf(wrapper.broadcastReceiver).onReceive(realApplication, intent, abort);
+            } catch (RuntimeException e) {
+              if (failure == null) {
+                failure = e;
+              } else {
+                failure.addSuppressed(e);
+              }
+            }
+          }
+          if (failure != null) {
+            throw failure;
+          }
+        }
+      });
+      start = end;
+    }
+  }
+
+  private Handler getScheduler(Wrapper wrapper) {
+    return (wrapper.scheduler != null) ? wrapper.scheduler : this.mainHandler;
+  }
+
+  private Wrapper[] getWrappersForAction(String action) {
+    Wrapper[] wrappers = registeredWrappersForAction.get(action);
+    return wrappers == null ? new Wrapper[0] : wrappers;
+  }
+
   /**
    * Broadcasts the {@code Intent} by iterating through the registered receivers, invoking their filters including
    * permissions, and calling {@code onReceive(Application, Intent)} as appropriate. Does not enqueue the
@@ -509,7 +563,7 @@ public class ShadowApplication extends ShadowContextWrapper {
       }
     });
 
-    postToWrappers(wrappers, intent, receiverPermission);
+    postInOrder(wrappers, intent);
   }
 
   public List<Intent> getBroadcastIntents() {
@@ -541,11 +595,47 @@ public class ShadowApplication extends ShadowContextWrapper {
 
   Intent registerReceiverWithContext(BroadcastReceiver receiver, IntentFilter filter, String broadcastPermission, Handler scheduler, Context context) {
     if (receiver != null) {
-      registeredReceivers.add(new Wrapper(receiver, filter, context, broadcastPermission, scheduler));
+      Wrapper wrapper = new Wrapper(receiver, filter, context, broadcastPermission, scheduler);
+      registeredReceivers.add(wrapper);
+      indexReceiver(wrapper);
     }
     return processStickyIntents(filter, receiver, context);
   }
 
+  private void indexReceiver(Wrapper wrapper) {
+    List<Wrapper> wrappers = registeredWrappersForReceiver.get(wrapper.broadcastReceiver);
+    if (wrappers == null) {
+      wrappers = new ArrayList<>();
+      registeredWrappersForReceiver.put(wrapper.broadcastReceiver, wrappers);
+    }
+    wrappers.add(wrapper);
+
+    // Each action's receivers are replaced rather than changed, so broadcasts needn't copy them.
+    for (String action : wrapper.actions) {
+      Wrapper[] actionWrappers = getWrappersForAction(action);
+      actionWrappers = Arrays.copyOf(actionWrappers, actionWrappers.length + 1);
+      actionWrappers[actionWrappers.length - 1] = wrapper;
+      registeredWrappersForAction.put(action, actionWrappers);
+    }
+  }
+
+  private void unindexReceiver(Wrapper wrapper) {
+    List<Wrapper> wrappers = registeredWrappersForReceiver.get(wrapper.broadcastReceiver);
+    if (wrappers != null && wrappers.remove(wrapper) && wrappers.isEmpty()) {
+      registeredWrappersForReceiver.remove(wrapper.broadcastReceiver);
+    }
+
+    for (String action : wrapper.actions) {
+      List<Wrapper> actionWrappers = new ArrayList<>(Arrays.asList(getWrappersForAction(action)));
+      actionWrappers.remove(wrapper);
+      if (actionWrappers.isEmpty()) {
+        registeredWrappersForAction.remove(action);
+      } else {
+        registeredWrappersForAction.put(action, actionWrappers.toArray(new Wrapper[actionWrappers.size()]));
+      }
+    }
+  }
+
   private void verifyActivityInManifest(Intent intent) {
     if (checkActivities && getPackageManager().resolveActivity(intent, -1) == null) {
       throw new ActivityNotFoundException(intent.getAction());
@@ -572,18 +662,14 @@ public class ShadowApplication extends ShadowContextWrapper {
   @Override
   @Implementation
   public void unregisterReceiver(BroadcastReceiver broadcastReceiver) {
-    boolean found = false;
-    Iterator<Wrapper> iterator = registeredReceivers.iterator();
-    while (iterator.hasNext()) {
-      Wrapper wrapper = iterator.next();
-      if (wrapper.broadcastReceiver == broadcastReceiver) {
-        iterator.remove();
-        found = true;
-      }
-    }
-    if (!found) {
+    List<Wrapper> wrappers = registeredWrappersForReceiver.get(broadcastReceiver);
+    if (wrappers == null) {
       throw new IllegalArgumentException("Receiver not registered: " + broadcastReceiver);
     }
+    for (Wrapper wrapper : new ArrayList<>(wrappers)) {
+      registeredReceivers.remove(wrapper);
+      unindexReceiver(wrapper);
+    }
   }
 
   /**
@@ -624,20 +710,13 @@ public class ShadowApplication extends ShadowContextWrapper {
   }
 
   public boolean hasReceiverForIntent(Intent intent) {
-    for (Wrapper wrapper : registeredReceivers) {
-      if (wrapper.intentFilter.matchAction(intent.getAction())) {
-        return true;
-      }
-    }
-    return false;
+    return getWrappersForAction(intent.getAction()).length > 0;
   }
 
   public List<BroadcastReceiver> getReceiversForIntent(Intent intent) {
     ArrayList<BroadcastReceiver> broadcastReceivers = new ArrayList<>();
-    for (Wrapper wrapper : registeredReceivers) {
-      if (wrapper.intentFilter.matchAction(intent.getAction())) {
-        broadcastReceivers.add(wrapper.getBroadcastReceiver());
-      }
+    for (Wrapper wrapper : getWrappersForAction(intent.getAction())) {
+      broadcastReceivers.add(wrapper.getBroadcastReceiver());
     }
     return broadcastReceivers;
   }
@@ -645,10 +724,10 @@ public class ShadowApplication extends ShadowContextWrapper {
   /**
    * Non-Android accessor.
    *
-   * @return list of {@link Wrapper}s for registered receivers
+   * @return list of {@link Wrapper}s for registered receivers; changes to it register and unregister them
    */
   public List<Wrapper> getRegisteredReceivers() {
-    return registeredReceivers;
+    return registeredReceiversView;
   }
 
   /**
@@ -783,6 +862,42 @@ public class ShadowApplication extends ShadowContextWrapper {
     this.latestListPopupWindow = latestListPopupWindow;
   }
 
+  // Live view of the registered receivers which keeps the indexes by receiver and action up to date
+  private class RegisteredReceivers extends AbstractList<Wrapper> {
+    @Override
+    public Wrapper get(int index) {
+      return registeredReceivers.get(index);
+    }
+
+    @Override
+    public int size() {
+      return registeredReceivers.size();
+    }
+
+    @Override
+    public void add(int index, Wrapper wrapper) {
+      registeredReceivers.add(index, wrapper);
+      indexReceiver(wrapper);
+      modCount++;
+    }
+
+    @Override
+    public Wrapper set(int index, Wrapper wrapper) {
+      Wrapper previous = registeredReceivers.set(index, wrapper);
+      unindexReceiver(previous);
+      indexReceiver(wrapper);
+      return previous;
+    }
+
+    @Override
+    public Wrapper remove(int index) {
+      Wrapper wrapper = registeredReceivers.remove(index);
+      unindexReceiver(wrapper);
+      modCount++;
+      return wrapper;
+    }
+  }
+
   public class Wrapper {
     public BroadcastReceiver broadcastReceiver;
     public IntentFilter intentFilter;
@@ -790,6 +905,8 @@ public class ShadowApplication extends ShadowContextWrapper {
     public Throwable exception;
     public String broadcastPermission;
     public Handler scheduler;
+    // Actions of the filter as it was registered, like the copy of it Android registers
+    private final String[] actions;
 
     public Wrapper(BroadcastReceiver broadcastReceiver, IntentFilter intentFilter, Context context, String broadcastPermission, Handler scheduler) {
       this.broadcastReceiver = broadcastReceiver;
@@ -798,6 +915,10 @@ public class ShadowApplication extends ShadowContextWrapper {
       this.broadcastPermission = broadcastPermission;
       this.scheduler = scheduler;
       exception = new Throwable();
+      actions = new String[intentFilter == null ? 0 : intentFilter.countActions()];
+      for (int i = 0; i < actions.length; i++) {
+        actions[i] = intentFilter.getAction(i);
+      }
     }
 
     public BroadcastReceiver getBroadcastReceiver() {
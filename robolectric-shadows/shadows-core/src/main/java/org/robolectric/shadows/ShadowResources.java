@@ -42,6 +42,7 @@ import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 
@@ -118,141 +119,172 @@ public class ShadowResources {
     if (set == null) {
       set = new RoboAttributeSet(new ArrayList<Attribute>(), ShadowApplication.getInstance().getResourceLoader());
     }
-    Style defStyleFromAttr = null;
-    Style defStyleFromRes = null;
-    Style styleAttrStyle = null;
-    Style theme = null;
+    if (attrs == null) attrs = new int[0];
 
-    List<ShadowAssetManager.OverlayedStyle> overlayedStyles = shadowAssetManager.getOverlayThemeStyles(themeResourceId);
+    ShadowAssetManager.ResolvedTheme theme = null;
     if (themeResourceId != 0) {
       // Load the style for the theme we represent. E.g. "@style/Theme.Robolectric"
       ResName themeStyleName = getResName(themeResourceId);
-      theme = ShadowAssetManager.resolveStyle(resourceLoader, null, themeStyleName, shadowAssetManager.getQualifiers());
-
-      if (defStyleAttr != 0) {
-        // Load the theme attribute for the default style attributes. E.g., attr/buttonStyle
-        ResName defStyleName = getResName(defStyleAttr);
-
-        // Load the style for the default style attribute. E.g. "@style/Widget.Robolectric.Button";
-        Attribute defStyleAttribute = getOverlayedThemeValue(defStyleName, theme, overlayedStyles);
-        if (defStyleAttribute != null) {
-          while (defStyleAttribute.isStyleReference()) {
-            Attribute other = getOverlayedThemeValue(defStyleAttribute.getStyleReference(), theme, overlayedStyles);
-            if (other == null) {
-              throw new RuntimeException("couldn't dereference " + defStyleAttribute);
-            }
-            defStyleAttribute = other;
-          }
+      theme = shadowAssetManager.getResolvedTheme(themeResourceId, resourceLoader, themeStyleName);
+    }
+
+    TypedArray typedArray;
+    if (theme != null && (defStyleRes == 0 || !getResName(defStyleRes).type.equals("attr"))) {
+      typedArray = styledAttributesToTypedArray(set, attrs, defStyleAttr, theme, defStyleRes);
+    } else {
+      // an attr defStyleRes may be set by the attribute set itself, so it can't be resolved ahead
+      typedArray = createTypedArray(resolveAttributes(set, set.getStyleAttribute(), attrs, defStyleAttr, theme, defStyleRes), attrs);
+    }
+    shadowOf(typedArray).positionDescription = set.getPositionDescription();
+    return typedArray;
+  }
+
+  /**
+   * Values of attributes which aren't in the attribute set only depend on the styles and the theme, so they are
+   * resolved once for each theme and copied into each TypedArray; only the attribute set's own values are
+   * resolved on every call.
+   */
+  private TypedArray styledAttributesToTypedArray(AttributeSet set, int[] attrs, int defStyleAttr, ShadowAssetManager.ResolvedTheme theme, int defStyleRes) {
+    ResourceLoader resourceLoader = getResourceLoader();
+    String qualifiers = shadowOf(realResources.getAssets()).getQualifiers();
+    int styleAttrResId = set.getStyleAttribute();
+
+    TypedArrayData styled = theme.getStyledAttributes(attrs, defStyleAttr, styleAttrResId, defStyleRes);
+    if (styled == null) {
+      AttributeSet noAttributes = new RoboAttributeSet(new ArrayList<Attribute>(), ShadowApplication.getInstance().getResourceLoader());
+      styled = createTypedArrayData(resolveAttributes(noAttributes, styleAttrResId, attrs, defStyleAttr, theme, defStyleRes), attrs);
+      theme.putStyledAttributes(attrs, defStyleAttr, styleAttrResId, defStyleRes, styled);
+    }
+
+    TypedArrayData typedArrayData = new TypedArrayData(styled);
+    for (int i = 0; i < attrs.length; i++) {
+      ResName attrName = tryResName(attrs[i]);
+      if (attrName == null) continue;
 
-          if (defStyleAttribute.isResourceReference()) {
-            ResName defStyleResName = defStyleAttribute.getResourceReference();
-            defStyleFromAttr = ShadowAssetManager.resolveStyle(resourceLoader, theme, defStyleResName, shadowAssetManager.getQualifiers());
+      String attrValue = set.getAttributeValue(attrName.getNamespaceUri(), attrName.name);
+      if (attrValue != null) {
+        Attribute attribute = dereferenceStyleReferences(attrName, new Attribute(attrName, attrValue, "fixme!!!"), theme);
+        typedArrayData.set(i, attribute, resourceLoader, qualifiers);
+      }
+    }
+    return typedArrayData.createTypedArray(realResources, attrs);
+  }
+
+  private List<Attribute> resolveAttributes(AttributeSet set, int styleAttrResId, int[] attrs, int defStyleAttr, ShadowAssetManager.ResolvedTheme theme, int defStyleRes) {
+    ResourceLoader resourceLoader = getResourceLoader();
+    ShadowAssetManager shadowAssetManager = shadowOf(realResources.getAssets());
+    Style defStyleFromAttr = null;
+    Style defStyleFromRes = null;
+    Style styleAttrStyle = null;
+
+    if (theme != null && defStyleAttr != 0) {
+      // Load the theme attribute for the default style attributes. E.g., attr/buttonStyle
+      ResName defStyleName = getResName(defStyleAttr);
+
+      // Load the style for the default style attribute. E.g. "@style/Widget.Robolectric.Button";
+      Attribute defStyleAttribute = theme.getAttrValue(defStyleName);
+      if (defStyleAttribute != null) {
+        while (defStyleAttribute.isStyleReference()) {
+          Attribute other = theme.getAttrValue(defStyleAttribute.getStyleReference());
+          if (other == null) {
+            throw new RuntimeException("couldn't dereference " + defStyleAttribute);
           }
+          defStyleAttribute = other;
+        }
+
+        if (defStyleAttribute.isResourceReference()) {
+          ResName defStyleResName = defStyleAttribute.getResourceReference();
+          defStyleFromAttr = theme.resolveStyle(defStyleResName);
         }
       }
     }
 
-    int styleAttrResId = set.getStyleAttribute();
     if (styleAttrResId != 0) {
       ResName styleAttributeResName = getResName(styleAttrResId);
       while (styleAttributeResName.type.equals("attr")) {
-        Attribute attrValue = getOverlayedThemeValue(styleAttributeResName, theme, overlayedStyles);
+        Attribute attrValue = theme.getAttrValue(styleAttributeResName);
         if (attrValue.isResourceReference()) {
           styleAttributeResName = attrValue.getResourceReference();
         } else if (attrValue.isStyleReference()) {
           styleAttributeResName = attrValue.getStyleReference();
         }
       }
-      styleAttrStyle = ShadowAssetManager.resolveStyle(resourceLoader, theme, styleAttributeResName, shadowAssetManager.getQualifiers());
+      styleAttrStyle = resolveStyle(resourceLoader, shadowAssetManager, theme, styleAttributeResName);
     }
 
     if (defStyleRes != 0) {
       ResName resName = getResName(defStyleRes);
       if (resName.type.equals("attr")) {
-        Attribute attributeValue = findAttributeValue(getResName(defStyleRes), set, styleAttrStyle, defStyleFromAttr, defStyleFromAttr, theme, overlayedStyles);
+        Attribute attributeValue = findAttributeValue(getResName(defStyleRes), set, styleAttrStyle, defStyleFromAttr, defStyleFromAttr, theme);
         if (attributeValue != null) {
           if (attributeValue.isStyleReference()) {
-            resName = getOverlayedThemeValue(attributeValue.getStyleReference(), theme, overlayedStyles).getResourceReference();
+            resName = theme.getAttrValue(attributeValue.getStyleReference()).getResourceReference();
           } else if (attributeValue.isResourceReference()) {
             resName = attributeValue.getResourceReference();
           }
         }
       }
-      defStyleFromRes = ShadowAssetManager.resolveStyle(resourceLoader, theme, resName, shadowAssetManager.getQualifiers());
+      defStyleFromRes = resolveStyle(resourceLoader, shadowAssetManager, theme, resName);
     }
 
     List<Attribute> attributes = new ArrayList<>();
-    if (attrs == null) attrs = new int[0];
     for (int attr : attrs) {
       ResName attrName = tryResName(attr); // todo probably getResName instead here?
       if (attrName == null) continue;
 
-      Attribute attribute = findAttributeValue(attrName, set, styleAttrStyle, defStyleFromAttr, defStyleFromRes, theme, overlayedStyles);
-      while (attribute != null && attribute.isStyleReference()) {
-        ResName otherAttrName = attribute.getStyleReference();
-
-        // TODO: this is just a debugging hack to avoid the problem of Resources.loadDrawableForCookie not working.
-        // TODO: We need to address the real problem instead, but are putting it off for a day or two -AV, ED 2014-12-03
-        if (theme == null) break;
-
-        attribute = getOverlayedThemeValue(otherAttrName, theme, overlayedStyles);
-        if (attribute != null) {
-          attribute = new Attribute(attrName, attribute.value, attribute.contextPackageName);
-        }
-      }
+      Attribute attribute = findAttributeValue(attrName, set, styleAttrStyle, defStyleFromAttr, defStyleFromRes, theme);
+      attribute = dereferenceStyleReferences(attrName, attribute, theme);
 
       if (attribute != null) {
         Attribute.put(attributes, attribute);
       }
     }
+    return attributes;
+  }
 
-    TypedArray typedArray = createTypedArray(attributes, attrs);
-    shadowOf(typedArray).positionDescription = set.getPositionDescription();
-    return typedArray;
+  private static Attribute dereferenceStyleReferences(ResName attrName, Attribute attribute, ShadowAssetManager.ResolvedTheme theme) {
+    while (attribute != null && attribute.isStyleReference()) {
+      ResName otherAttrName = attribute.getStyleReference();
+
+      // TODO: this is just a debugging hack to avoid the problem of Resources.loadDrawableForCookie not working.
+      // TODO: We need to address the real problem instead, but are putting it off for a day or two -AV, ED 2014-12-03
+      if (theme == null) break;
+
+      attribute = theme.getAttrValue(otherAttrName);
+      if (attribute != null) {
+        attribute = new Attribute(attrName, attribute.value, attribute.contextPackageName);
+      }
+    }
+    return attribute;
   }
 
   public TypedArray createTypedArray(List<Attribute> set, int[] attrs) {
+    return createTypedArrayData(set, attrs).createTypedArray(realResources, attrs);
+  }
+
+  private TypedArrayData createTypedArrayData(List<Attribute> set, int[] attrs) {
     ResourceLoader resourceLoader = getResourceLoader();
     ResourceIndex resourceIndex = resourceLoader.getResourceIndex();
     String qualifiers = shadowOf(realResources.getAssets()).getQualifiers();
 
-    CharSequence[] stringData = new CharSequence[attrs.length];
-    int[] data = new int[attrs.length * ShadowAssetManager.STYLE_NUM_ENTRIES];
-    int[] indices = new int[attrs.length + 1];
-    int nextIndex = 0;
-
+    TypedArrayData typedArrayData = new TypedArrayData(attrs.length);
     for (int i = 0; i < attrs.length; i++) {
-      int offset = i * ShadowAssetManager.STYLE_NUM_ENTRIES;
-
-      int attr = attrs[i];
-      ResName attrName = resourceIndex.getResName(attr);
+      ResName attrName = resourceIndex.getResName(attrs[i]);
       if (attrName != null) {
-        Attribute attribute = Attribute.find(set, attrName);
-        TypedValue typedValue = new TypedValue();
-        Converter.convertAndFill(attribute, typedValue, resourceLoader, qualifiers, true);
-
-        if (attribute != null && !attribute.isNull()) {
-          //noinspection PointlessArithmeticExpression
-          data[offset + ShadowAssetManager.STYLE_TYPE] = typedValue.type;
-          data[offset + ShadowAssetManager.STYLE_DATA] = typedValue.type == TypedValue.TYPE_STRING ? i : typedValue.data;
-          data[offset + ShadowAssetManager.STYLE_ASSET_COOKIE] = typedValue.assetCookie;
-          data[offset + ShadowAssetManager.STYLE_RESOURCE_ID] = typedValue.resourceId;
-          data[offset + ShadowAssetManager.STYLE_CHANGING_CONFIGURATIONS] = typedValue.changingConfigurations;
-          data[offset + ShadowAssetManager.STYLE_DENSITY] = typedValue.density;
-          stringData[i] = typedValue.string;
-
-          indices[nextIndex + 1] = i;
-          nextIndex++;
-        }
+        typedArrayData.set(i, Attribute.find(set, attrName), resourceLoader, qualifiers);
       }
     }
+    return typedArrayData;
+  }
 
-    indices[0] = nextIndex;
-
-    return ShadowTypedArray.create(realResources, attrs, data, indices, nextIndex, stringData);
+  private static Style resolveStyle(ResourceLoader resourceLoader, ShadowAssetManager shadowAssetManager, ShadowAssetManager.ResolvedTheme theme, ResName styleName) {
+    if (theme != null) {
+      return theme.resolveStyle(styleName);
+    }
+    return ShadowAssetManager.resolveStyle(resourceLoader, null, styleName, shadowAssetManager.getQualifiers());
   }
 
-  private Attribute findAttributeValue(ResName attrName, AttributeSet attributeSet, Style styleAttrStyle, Style defStyleFromAttr, Style defStyleFromRes, Style theme, List<ShadowAssetManager.OverlayedStyle> overlayedStyles) {
+  private Attribute findAttributeValue(ResName attrName, AttributeSet attributeSet, Style styleAttrStyle, Style defStyleFromAttr, Style defStyleFromRes, ShadowAssetManager.ResolvedTheme theme) {
     String attrValue = attributeSet.getAttributeValue(attrName.getNamespaceUri(), attrName.name);
     if (attrValue != null) {
       return new Attribute(attrName, attrValue, "fixme!!!");
@@ -282,7 +314,7 @@ public class ShadowResources {
 
     // else if attr in theme, use its value
     if (theme != null) {
-      return getOverlayedThemeValue(attrName, theme, overlayedStyles);
+      return theme.getAttrValue(attrName);
     }
 
     return null;
@@ -561,4 +593,71 @@ public class ShadowResources {
       return realObject.getClass().getName() + ": " + message;
     }
   }
+
+  /**
+   * The converted values of a TypedArray's attributes, one row of {@link ShadowAssetManager#STYLE_NUM_ENTRIES}
+   * entries per attribute.
+   */
+  static class TypedArrayData {
+    private final int[] data;
+    private final CharSequence[] stringData;
+    private final boolean[] present;
+
+    TypedArrayData(int length) {
+      data = new int[length * ShadowAssetManager.STYLE_NUM_ENTRIES];
+      stringData = new CharSequence[length];
+      present = new boolean[length];
+    }
+
+    /**
+     * Copies resolved values, giving them new cookies as if they had been converted again.
+     */
+    TypedArrayData(TypedArrayData other) {
+      data = other.data.clone();
+      stringData = other.stringData.clone();
+      present = other.present.clone();
+      for (int i = 0; i < present.length; i++) {
+        int cookie = i * ShadowAssetManager.STYLE_NUM_ENTRIES + ShadowAssetManager.STYLE_ASSET_COOKIE;
+        if (present[i] && data[cookie] != 0) {
+          data[cookie] = Converter.getNextStringCookie();
+        }
+      }
+    }
+
+    void set(int index, Attribute attribute, ResourceLoader resourceLoader, String qualifiers) {
+      int offset = index * ShadowAssetManager.STYLE_NUM_ENTRIES;
+      if (attribute == null || attribute.isNull()) {
+        Arrays.fill(data, offset, offset + ShadowAssetManager.STYLE_NUM_ENTRIES, 0);
+        stringData[index] = null;
+        present[index] = false;
+        return;
+      }
+
+      TypedValue typedValue = new TypedValue();
+      Converter.convertAndFill(attribute, typedValue, resourceLoader, qualifiers, true);
+      //noinspection PointlessArithmeticExpression
+      data[offset + ShadowAssetManager.STYLE_TYPE] = typedValue.type;
+      data[offset + ShadowAssetManager.STYLE_DATA] = typedValue.type == TypedValue.TYPE_STRING ? index : typedValue.data;
+      data[offset + ShadowAssetManager.STYLE_ASSET_COOKIE] = typedValue.assetCookie;
+      data[offset + ShadowAssetManager.STYLE_RESOURCE_ID] = typedValue.resourceId;
+      data[offset + ShadowAssetManager.STYLE_CHANGING_CONFIGURATIONS] = typedValue.changingConfigurations;
+      data[offset + ShadowAssetManager.STYLE_DENSITY] = typedValue.density;
+      stringData[index] = typedValue.string;
+      present[index] = true;
+    }
+
+    TypedArray createTypedArray(Resources resources, int[] attrs) {
+      int[] indices = new int[attrs.length + 1];
+      int nextIndex = 0;
+      for (int i = 0; i < attrs.length; i++) {
+        if (present[i]) {
+          indices[nextIndex + 1] = i;
+          nextIndex++;
+        }
+      }
+      indices[0] = nextIndex;
+
+      return ShadowTypedArray.create(resources, attrs, data, indices, nextIndex, stringData);
+    }
+  }
 }
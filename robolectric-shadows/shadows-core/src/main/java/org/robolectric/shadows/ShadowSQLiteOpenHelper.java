@@ -0,0 +1,38 @@
+package org.robolectric.shadows;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import org.robolectric.annotation.HiddenApi;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.RealObject;
+import org.robolectric.shadows.util.SQLiteDatabaseTemplates;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+import static org.robolectric.internal.Shadow.directlyOn;
+
+/**
+ * Shadow for {@link android.database.sqlite.SQLiteOpenHelper}, which tells {@link SQLiteDatabaseTemplates} which
+ * helper is opening a database.
+ */
+@Implements(SQLiteOpenHelper.class)
+public class ShadowSQLiteOpenHelper {
+  @RealObject private SQLiteOpenHelper realHelper;
+
+  @HiddenApi
+  @Implementation
+  public SQLiteDatabase getDatabaseLocked(boolean writable) {
+    if (!SQLiteDatabaseTemplates.isEnabled()) {
+      return directlyOn(realHelper, SQLiteOpenHelper.class, "getDatabaseLocked", ClassParameter.from(boolean.class, writable));
+    }
+
+    int version = ReflectionHelpers.<Integer>getField(realHelper, "mNewVersion");
+    Object previous = SQLiteDatabaseTemplates.startOpening(realHelper.getClass(), version);
+    try {
+      return directlyOn(realHelper, SQLiteOpenHelper.class, "getDatabaseLocked", ClassParameter.from(boolean.class, writable));
+    } finally {
+      SQLiteDatabaseTemplates.finishOpening(previous);
+    }
+  }
+}
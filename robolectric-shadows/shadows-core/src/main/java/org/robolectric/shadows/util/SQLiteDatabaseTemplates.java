@@ -0,0 +1,197 @@
+package org.robolectric.shadows.util;
+
+import com.almworks.sqlite4java.SQLiteBackup;
+import com.almworks.sqlite4java.SQLiteConnection;
+import com.almworks.sqlite4java.SQLiteException;
+import com.almworks.sqlite4java.SQLiteStatement;
+import org.robolectric.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Copies of databases as they were right after their schema was first created, so tests which open a database of
+ * the same name start from the created schema instead of running {@code SQLiteOpenHelper.onCreate()} again.
+ *
+ * <p>Enabled with the {@code robolectric.sqlite.templates} system property. Only databases opened through an
+ * {@code SQLiteOpenHelper} have templates. A database is recorded when the first transaction which sets its
+ * {@code user_version} to the helper's version is committed, keyed by the helper's class, that version and the
+ * database's file name. It is restored into a database file which doesn't exist yet, only for a helper of the same
+ * class and version; anything else {@code onCreate()} does besides creating the database will not happen for
+ * restored databases.</p>
+ *
+ * <p>Templates are shared by every test in the JVM. A helper class which creates different schemas for the same
+ * database name and version, e.g. depending on its constructor's arguments, will be handed the template of the
+ * first one, so don't enable templates for it.</p>
+ */
+public class SQLiteDatabaseTemplates {
+  private static final String ENABLED_PROPERTY = "robolectric.sqlite.templates";
+  private static final ThreadLocal<Opener> OPENER = new ThreadLocal<>();
+
+  private final ConcurrentMap<Key, File> templates = new ConcurrentHashMap<>();
+  private File templateDir;
+
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(ENABLED_PROPERTY);
+  }
+
+  /**
+   * Note that the current thread is opening databases for a helper, until {@link #finishOpening(Object)} is called
+   * with the returned value.
+   *
+   * @param helperClass Class of the {@code SQLiteOpenHelper}.
+   * @param version Version of the schema the helper creates.
+   * @return The helper which was opening databases on this thread before.
+   */
+  public static Object startOpening(Class<?> helperClass, int version) {
+    Opener previous = OPENER.get();
+    OPENER.set(new Opener(helperClass.getName(), version));
+    return previous;
+  }
+
+  public static void finishOpening(Object previous) {
+    if (previous == null) {
+      OPENER.remove();
+    } else {
+      OPENER.set((Opener) previous);
+    }
+  }
+
+  /**
+   * Must be called on the thread which is opening the database.
+   *
+   * @param database Database file about to be opened.
+   * @return The key a template of the database is recorded and restored under, or null if it isn't being opened by
+   *     a helper.
+   */
+  public static Key keyFor(File database) {
+    Opener opener = OPENER.get();
+    return opener == null ? null : new Key(opener.helperClassName, opener.version, database.getName());
+  }
+
+  /**
+   * Copy the template for a database into place, if there is one.
+   *
+   * @param database Database file about to be opened.
+   * @param key The database's key, from {@link #keyFor(File)}.
+   * @return True if the database was restored from a template.
+   */
+  public boolean restore(File database, Key key) {
+    if (database.exists()) {
+      return false;
+    }
+    File template = templates.get(key);
+    if (template == null) {
+      return false;
+    }
+
+    try {
+      Files.copy(template.toPath(), database.toPath());
+      return true;
+    } catch (IOException e) {
+      Logger.info("Cannot restore " + database + " from its template: " + e);
+      database.delete();
+      return false;
+    }
+  }
+
+  /**
+   * Record a template for a database, unless there is one for its key already or it isn't at its key's version.
+   *
+   * @param connection Connection to the database, on the thread it is confined to.
+   * @param key The database's key, from {@link #keyFor(File)}.
+   */
+  public void record(SQLiteConnection connection, Key key) throws SQLiteException {
+    if (templates.containsKey(key) || userVersion(connection) != key.version) {
+      return;
+    }
+
+    File templateFile;
+    try {
+      templateFile = File.createTempFile("template", ".db", getTemplateDir());
+    } catch (IOException e) {
+      Logger.info("Cannot create a template for " + key + ": " + e);
+      return;
+    }
+    templateFile.deleteOnExit();
+    templateFile.delete();
+
+    SQLiteBackup backup = connection.initializeBackup(templateFile);
+    try {
+      while (!backup.isFinished()) {
+        backup.backupStep(-1);
+      }
+    } finally {
+      backup.dispose();
+    }
+    if (templates.putIfAbsent(key, templateFile) != null) {
+      templateFile.delete();
+    }
+  }
+
+  /**
+   * @return The {@code user_version} of the database a connection is open on.
+   */
+  public static int userVersion(SQLiteConnection connection) throws SQLiteException {
+    SQLiteStatement stmt = connection.prepare("PRAGMA user_version", false);
+    try {
+      return stmt.step() ? stmt.columnInt(0) : 0;
+    } finally {
+      stmt.dispose();
+    }
+  }
+
+  private synchronized File getTemplateDir() throws IOException {
+    if (templateDir == null) {
+      templateDir = Files.createTempDirectory("robolectric-sqlite-templates").toFile();
+      templateDir.deleteOnExit();
+    }
+    return templateDir;
+  }
+
+  private static class Opener {
+    final String helperClassName;
+    final int version;
+
+    Opener(String helperClassName, int version) {
+      this.helperClassName = helperClassName;
+      this.version = version;
+    }
+  }
+
+  /**
+   * Identifies the databases a template can be restored into.
+   */
+  public static class Key {
+    private final String helperClassName;
+    private final int version;
+    private final String name;
+
+    Key(String helperClassName, int version, String name) {
+      this.helperClassName = helperClassName;
+      this.version = version;
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key key = (Key) o;
+      return version == key.version && helperClassName.equals(key.helperClassName) && name.equals(key.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * helperClassName.hashCode() + version) + name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return helperClassName + "/" + name + "@" + version;
+    }
+  }
+}
@@ -1,9 +1,11 @@
 package org.robolectric.util;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.PriorityQueue;
 
 /**
  * Class that manages a queue of Runnables that are scheduled to run now (or at some time in
@@ -21,6 +23,9 @@ import java.util.ListIterator;
  * <tt>true</tt>, then the Scheduler will continue looping through posted events
  * (including future events), advancing its clock as it goes.</li>
  * </ul>
+ *
+ * Runnables are kept in a heap ordered by scheduled time, and in the order they were posted for the same time.
+ * Removed runnables are only marked as cancelled, and dropped when they reach the head of the queue.
  */
 public class Scheduler {
   private long currentTime = 100;
@@ -28,7 +33,11 @@ public class Scheduler {
   private boolean isConstantlyIdling = false;
   private boolean isExecutingRunnable = false;
   private final Thread associatedThread = Thread.currentThread();
-  private final List<ScheduledRunnable> runnables = new ArrayList<>();
+  private final PriorityQueue<ScheduledRunnable> runnables = new PriorityQueue<>();
+  private final Map<Runnable, List<ScheduledRunnable>> scheduledRunnablesFor = new IdentityHashMap<>();
+  private long nextSequence = 0;
+  private long nextFrontSequence = -1;
+  private int cancelledCount = 0;
 
   /**
    * Get the current time (as seen by the scheduler).
@@ -93,7 +102,7 @@ public class Scheduler {
    */
   public synchronized void postAtFrontOfQueue(Runnable runnable) {
     if (paused || Thread.currentThread() != associatedThread) {
-      runnables.add(0, new ScheduledRunnable(runnable, currentTime));
+      queueRunnable(runnable, currentTime, nextFrontSequence--);
     } else {
       runOrQueueRunnable(runnable, currentTime);
     }
@@ -105,12 +114,16 @@ public class Scheduler {
    * @param runnable  Runnable to remove.
    */
   public synchronized void remove(Runnable runnable) {
-    ListIterator<ScheduledRunnable> iterator = runnables.listIterator();
-    while (iterator.hasNext()) {
-      ScheduledRunnable next = iterator.next();
-      if (next.runnable == runnable) {
-        iterator.remove();
-      }
+    List<ScheduledRunnable> scheduledRunnables = scheduledRunnablesFor.remove(runnable);
+    if (scheduledRunnables == null) {
+      return;
+    }
+    for (ScheduledRunnable scheduledRunnable : scheduledRunnables) {
+      scheduledRunnable.cancelled = true;
+    }
+    cancelledCount += scheduledRunnables.size();
+    if (cancelledCount > runnables.size() / 2) {
+      purgeCancelled();
     }
   }
 
@@ -120,7 +133,16 @@ public class Scheduler {
    * @return  True if a runnable was executed.
    */
   public synchronized boolean advanceToLastPostedRunnable() {
-    return size() >= 1 && advanceTo(runnables.get(runnables.size() - 1).scheduledTime);
+    if (size() < 1) {
+      return false;
+    }
+    long lastScheduledTime = Long.MIN_VALUE;
+    for (ScheduledRunnable scheduledRunnable : runnables) {
+      if (!scheduledRunnable.cancelled && scheduledRunnable.scheduledTime > lastScheduledTime) {
+        lastScheduledTime = scheduledRunnable.scheduledTime;
+      }
+    }
+    return advanceTo(lastScheduledTime);
   }
 
   /**
@@ -129,7 +151,7 @@ public class Scheduler {
    * @return  True if a runnable was executed.
    */
   public synchronized boolean advanceToNextPostedRunnable() {
-    return size() >= 1 && advanceTo(runnables.get(0).scheduledTime);
+    return size() >= 1 && advanceTo(peek().scheduledTime);
   }
 
   /**
@@ -174,7 +196,7 @@ public class Scheduler {
       return false;
     }
 
-    ScheduledRunnable postedRunnable = runnables.remove(0);
+    ScheduledRunnable postedRunnable = poll();
     currentTime = postedRunnable.scheduledTime;
     postedRunnable.run();
     return true;
@@ -194,6 +216,8 @@ public class Scheduler {
    */
   public synchronized void reset() {
     runnables.clear();
+    scheduledRunnablesFor.clear();
+    cancelledCount = 0;
     paused = false;
     isConstantlyIdling = false;
   }
@@ -204,7 +228,7 @@ public class Scheduler {
    * @return  Number of enqueues runnables.
    */
   public synchronized int size() {
-    return runnables.size();
+    return runnables.size() - cancelledCount;
   }
 
   /**
@@ -217,7 +241,7 @@ public class Scheduler {
   }
 
   private boolean nextTaskIsScheduledBefore(long endingTime) {
-    return size() > 0 && runnables.get(0).scheduledTime <= endingTime;
+    return size() > 0 && peek().scheduledTime <= endingTime;
   }
 
   private void runOrQueueRunnable(Runnable runnable, long scheduledTime) {
@@ -245,22 +269,76 @@ public class Scheduler {
   }
 
   private void queueRunnableAndSort(Runnable runnable, long scheduledTime) {
-    runnables.add(new ScheduledRunnable(runnable, scheduledTime));
-    Collections.sort(runnables);
+    queueRunnable(runnable, scheduledTime, nextSequence++);
+  }
+
+  private void queueRunnable(Runnable runnable, long scheduledTime, long sequence) {
+    ScheduledRunnable scheduledRunnable = new ScheduledRunnable(runnable, scheduledTime, sequence);
+    runnables.add(scheduledRunnable);
+    List<ScheduledRunnable> scheduledRunnables = scheduledRunnablesFor.get(runnable);
+    if (scheduledRunnables == null) {
+      scheduledRunnables = new ArrayList<>(1);
+      scheduledRunnablesFor.put(runnable, scheduledRunnables);
+    }
+    scheduledRunnables.add(scheduledRunnable);
+  }
+
+  private ScheduledRunnable peek() {
+    ScheduledRunnable head = runnables.peek();
+    while (head.cancelled) {
+      runnables.poll();
+      cancelledCount--;
+      head = runnables.peek();
+    }
+    return head;
+  }
+
+  private ScheduledRunnable poll() {
+    ScheduledRunnable head = peek();
+    runnables.poll();
+    List<ScheduledRunnable> scheduledRunnables = scheduledRunnablesFor.get(head.runnable);
+    if (scheduledRunnables.size() == 1) {
+      scheduledRunnablesFor.remove(head.runnable);
+    } else {
+      for (int i = 0; i < scheduledRunnables.size(); i++) {
+        if (scheduledRunnables.get(i) == head) {
+          scheduledRunnables.remove(i);
+          break;
+        }
+      }
+    }
+    return head;
+  }
+
+  private void purgeCancelled() {
+    Iterator<ScheduledRunnable> iterator = runnables.iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().cancelled) {
+        iterator.remove();
+      }
+    }
+    cancelledCount = 0;
   }
 
   private class ScheduledRunnable implements Comparable<ScheduledRunnable> {
     private final Runnable runnable;
     private final long scheduledTime;
+    private final long sequence;
+    private boolean cancelled;
 
-    private ScheduledRunnable(Runnable runnable, long scheduledTime) {
+    private ScheduledRunnable(Runnable runnable, long scheduledTime, long sequence) {
       this.runnable = runnable;
       this.scheduledTime = scheduledTime;
+      this.sequence = sequence;
     }
 
     @Override
     public int compareTo(ScheduledRunnable runnable) {
-      return (int) (scheduledTime - runnable.scheduledTime);
+      if (scheduledTime != runnable.scheduledTime) {
+        return scheduledTime < runnable.scheduledTime ? -1 : 1;
+      }
+      // Runnables posted at the front of the queue have negative sequence numbers, the latest one lowest.
+      return sequence < runnable.sequence ? -1 : (sequence == runnable.sequence ? 0 : 1);
     }
 
     public void run() {
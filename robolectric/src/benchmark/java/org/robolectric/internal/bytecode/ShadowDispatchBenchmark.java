@@ -0,0 +1,77 @@
+package org.robolectric.internal.bytecode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reflective and method handle dispatch of shadow methods.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ShadowDispatchBenchmark {
+  private final ShadowPaintLike shadow = new ShadowPaintLike();
+  private final Object[] setColorParams = new Object[] { 0xff00ff00 };
+  private final Object[] noParams = new Object[0];
+
+  private ClassHandler.Plan reflectiveSetColor;
+  private ClassHandler.Plan methodHandleSetColor;
+  private ClassHandler.Plan reflectiveGetColor;
+  private ClassHandler.Plan methodHandleGetColor;
+
+  @Setup
+  public void setUp() throws Exception {
+    Method setColor = ShadowPaintLike.class.getMethod("setColor", int.class);
+    Method getColor = ShadowPaintLike.class.getMethod("getColor");
+    reflectiveSetColor = new ShadowWrangler.ShadowMethodPlan(setColor);
+    methodHandleSetColor = new ShadowWrangler.ShadowMethodHandlePlan(setColor);
+    reflectiveGetColor = new ShadowWrangler.ShadowMethodPlan(getColor);
+    methodHandleGetColor = new ShadowWrangler.ShadowMethodHandlePlan(getColor);
+  }
+
+  @Benchmark
+  public Object reflectiveSetter() throws Throwable {
+    return reflectiveSetColor.run(null, shadow, setColorParams);
+  }
+
+  @Benchmark
+  public Object methodHandleSetter() throws Throwable {
+    return methodHandleSetColor.run(null, shadow, setColorParams);
+  }
+
+  @Benchmark
+  public Object reflectiveGetter() throws Throwable {
+    return reflectiveGetColor.run(null, shadow, noParams);
+  }
+
+  @Benchmark
+  public Object methodHandleGetter() throws Throwable {
+    return methodHandleGetColor.run(null, shadow, noParams);
+  }
+
+  public static class ShadowPaintLike {
+    private int color;
+
+    public void setColor(int color) {
+      this.color = color;
+    }
+
+    public int getColor() {
+      return color;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package org.robolectric.internal.bytecode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Compares {@link InstrumentationConfiguration#shouldAcquire(String)}, with and without memoization, against the
+ * regex-based implementation it replaced, over class names taken from the test classpath (mostly android-all).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ShouldAcquireBenchmark {
+  private static final int CLASS_NAME_COUNT = 20000;
+  private static final List<String> LEGACY_PACKAGES_TO_NOT_ACQUIRE = Arrays.asList(
+      "java.", "javax.", "sun.", "com.sun.", "org.w3c.", "org.xml.", "org.junit", "org.hamcrest",
+      "org.specs2", "scala.", "kotlin.", "com.almworks.sqlite4java");
+
+  private final List<String> classNames = new ArrayList<>();
+  private InstrumentationConfiguration config;
+
+  @Setup
+  public void setUp() throws Exception {
+    for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      if (path.endsWith(".jar")) {
+        addClassNames(new File(path));
+      }
+    }
+    Collections.shuffle(classNames, new Random(0));
+    if (classNames.size() > CLASS_NAME_COUNT) {
+      classNames.subList(CLASS_NAME_COUNT, classNames.size()).clear();
+    }
+    config = InstrumentationConfiguration.newBuilder().build();
+  }
+
+  @Benchmark
+  public int legacy() {
+    int count = 0;
+    for (String className : classNames) {
+      if (legacyShouldAcquire(className)) count++;
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int compiled() {
+    int count = 0;
+    for (String className : classNames) {
+      if (config.computeShouldAcquire(className)) count++;
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int memoized() {
+    int count = 0;
+    for (String className : classNames) {
+      if (config.shouldAcquire(className)) count++;
+    }
+    return count;
+  }
+
+  private void addClassNames(File jar) throws IOException {
+    try (ZipFile zipFile = new ZipFile(jar)) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        String name = entries.nextElement().getName();
+        if (name.endsWith(".class")) {
+          classNames.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+        }
+      }
+    }
+  }
+
+  private static boolean legacyShouldAcquire(String name) {
+    int lastDot = name.lastIndexOf('.');
+    String pkgName = name.substring(0, lastDot == -1 ? 0 : lastDot);
+    if (pkgName.equals("org.robolectric.res") || (pkgName.equals("org.robolectric.manifest"))) {
+      return name.contains("Test");
+    }
+
+    if (name.matches("com\\.android\\.internal\\.R(\\$.*)?")) return true;
+    if (name.equals("android.R$styleable")) return true;
+
+    for (String packageName : LEGACY_PACKAGES_TO_NOT_ACQUIRE) {
+      if (name.startsWith(packageName)) return false;
+    }
+
+    return !name.matches(".*\\.R(|\\$[a-z]+)$");
+  }
+}
@@ -0,0 +1,132 @@
+package org.robolectric.shadows;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing, marshalling and unmarshalling a large {@link android.os.Bundle} through {@link ShadowParcel},
+ * driving its natives with the calls {@code Bundle.writeToParcel()} makes: a key, a value type and the value for
+ * each entry, where every tenth value is a {@link android.os.Parcelable} holding a bitmap-sized byte array.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ParcelBenchmark {
+  private static final int VAL_STRING = 0;
+  private static final int VAL_INTEGER = 1;
+  private static final int VAL_PARCELABLE = 4;
+  private static final int VAL_LONG = 6;
+
+  @Param({"100", "10000"})
+  public int entryCount;
+
+  private byte[] pixels;
+  private byte[] marshalled;
+  private long parcelPtr;
+  private long otherPtr;
+
+  @Setup
+  public void setUp() {
+    pixels = new byte[64 * 64 * 4];
+    parcelPtr = ShadowParcel.nativeCreate();
+    otherPtr = ShadowParcel.nativeCreate();
+    writeBundle(parcelPtr);
+    marshalled = ShadowParcel.nativeMarshall(parcelPtr);
+  }
+
+  @TearDown
+  public void tearDown() {
+    ShadowParcel.nativeDestroy(parcelPtr);
+    ShadowParcel.nativeDestroy(otherPtr);
+  }
+
+  @Benchmark
+  public byte[] writeAndMarshall() {
+    ShadowParcel.nativeFreeBuffer(otherPtr);
+    writeBundle(otherPtr);
+    return ShadowParcel.nativeMarshall(otherPtr);
+  }
+
+  @Benchmark
+  public int unmarshallAndRead() {
+    ShadowParcel.nativeUnmarshall(otherPtr, marshalled, 0, marshalled.length);
+    return readBundle(otherPtr);
+  }
+
+  @Benchmark
+  public int appendFrom() {
+    ShadowParcel.nativeFreeBuffer(otherPtr);
+    ShadowParcel.nativeAppendFrom(otherPtr, parcelPtr, 0, marshalled.length);
+    return ShadowParcel.nativeDataSize(otherPtr);
+  }
+
+  private void writeBundle(long ptr) {
+    ShadowParcel.nativeWriteInt(ptr, entryCount);
+    for (int i = 0; i < entryCount; i++) {
+      ShadowParcel.nativeWriteString(ptr, "key" + i);
+      switch (i % 10) {
+        case 0:
+          ShadowParcel.nativeWriteInt(ptr, VAL_PARCELABLE);
+          ShadowParcel.nativeWriteString(ptr, "android.graphics.Bitmap");
+          ShadowParcel.nativeWriteInt(ptr, 64);
+          ShadowParcel.nativeWriteInt(ptr, 64);
+          ShadowParcel.nativeWriteByteArray(ptr, pixels, 0, pixels.length);
+          break;
+        case 1:
+        case 2:
+        case 3:
+          ShadowParcel.nativeWriteInt(ptr, VAL_LONG);
+          ShadowParcel.nativeWriteLong(ptr, i);
+          break;
+        case 4:
+        case 5:
+        case 6:
+          ShadowParcel.nativeWriteInt(ptr, VAL_INTEGER);
+          ShadowParcel.nativeWriteInt(ptr, i);
+          break;
+        default:
+          ShadowParcel.nativeWriteInt(ptr, VAL_STRING);
+          ShadowParcel.nativeWriteString(ptr, "value of entry " + i);
+      }
+    }
+  }
+
+  private int readBundle(long ptr) {
+    int count = ShadowParcel.nativeReadInt(ptr);
+    int checksum = 0;
+    for (int i = 0; i < count; i++) {
+      checksum += ShadowParcel.nativeReadString(ptr).length();
+      switch (ShadowParcel.nativeReadInt(ptr)) {
+        case VAL_PARCELABLE:
+          checksum += ShadowParcel.nativeReadString(ptr).length();
+          checksum += ShadowParcel.nativeReadInt(ptr) * ShadowParcel.nativeReadInt(ptr);
+          checksum += ShadowParcel.nativeCreateByteArray(ptr).length;
+          break;
+        case VAL_LONG:
+          checksum += (int) ShadowParcel.nativeReadLong(ptr);
+          break;
+        case VAL_INTEGER:
+          checksum += ShadowParcel.nativeReadInt(ptr);
+          break;
+        default:
+          checksum += ShadowParcel.nativeReadString(ptr).length();
+      }
+    }
+    return checksum;
+  }
+}
@@ -0,0 +1,80 @@
+package org.robolectric.shadows;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares insert and query throughput of {@link ShadowSQLiteConnection} when every call hops to the database
+ * thread against running in-thread, for a prepared statement which is bound, stepped and reset per operation
+ * the way {@link android.database.sqlite.SQLiteDatabase} does it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SQLiteConnectionBenchmark {
+  private static final int ROW_COUNT = 1000;
+
+  @Param({"false", "true"})
+  public boolean inThread;
+
+  private long connectionPtr;
+  private long insertPtr;
+  private long queryPtr;
+  private long nextId;
+
+  @Setup
+  public void setUp() {
+    System.setProperty("robolectric.sqlite.inThread", String.valueOf(inThread));
+    connectionPtr = ShadowSQLiteConnection.nativeOpen(":memory:", 0, "benchmark", false, false);
+    execute("CREATE TABLE routine (id INTEGER PRIMARY KEY, name VARCHAR, lastUsed INTEGER DEFAULT 0)");
+    insertPtr = ShadowSQLiteConnection.nativePrepareStatement(connectionPtr, "INSERT INTO routine (name, lastUsed) VALUES (?, ?)");
+    for (int i = 0; i < ROW_COUNT; i++) {
+      insert();
+    }
+    queryPtr = ShadowSQLiteConnection.nativePrepareStatement(connectionPtr, "SELECT name FROM routine WHERE id = ?");
+  }
+
+  @TearDown
+  public void tearDown() {
+    ShadowSQLiteConnection.reset();
+    System.clearProperty("robolectric.sqlite.inThread");
+  }
+
+  @Benchmark
+  public long insert() {
+    ShadowSQLiteConnection.nativeBindString(connectionPtr, insertPtr, 1, "routine " + nextId);
+    ShadowSQLiteConnection.nativeBindLong(connectionPtr, insertPtr, 2, nextId++);
+    long rowId = ShadowSQLiteConnection.nativeExecuteForLastInsertedRowId(connectionPtr, insertPtr);
+    ShadowSQLiteConnection.nativeResetStatementAndClearBindings(connectionPtr, insertPtr);
+    return rowId;
+  }
+
+  @Benchmark
+  public String query() {
+    ShadowSQLiteConnection.nativeBindLong(connectionPtr, queryPtr, 1, nextId++ % ROW_COUNT + 1);
+    String name = ShadowSQLiteConnection.nativeExecuteForString(connectionPtr, queryPtr);
+    ShadowSQLiteConnection.nativeResetStatementAndClearBindings(connectionPtr, queryPtr);
+    return name;
+  }
+
+  private void execute(String sql) {
+    long statementPtr = ShadowSQLiteConnection.nativePrepareStatement(connectionPtr, sql);
+    ShadowSQLiteConnection.nativeExecute(connectionPtr, statementPtr);
+    ShadowSQLiteConnection.nativeFinalizeStatement(connectionPtr, statementPtr);
+  }
+}
@@ -0,0 +1,80 @@
+package org.robolectric.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures posting runnables with random delays to a paused {@link Scheduler} and running them all by advancing
+ * its clock, with and without removing half of them before they run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SchedulerBenchmark {
+  @Param({"100", "10000"})
+  public int runnableCount;
+
+  private long[] delays;
+  private Runnable[] runnables;
+  private int runCount;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    delays = new long[runnableCount];
+    runnables = new Runnable[runnableCount];
+    for (int i = 0; i < runnableCount; i++) {
+      delays[i] = random.nextInt(1000);
+      runnables[i] = new Runnable() {
+        @Override
+        public void run() {
+          runCount++;
+        }
+      };
+    }
+  }
+
+  @Benchmark
+  public int postAndAdvance() {
+    Scheduler scheduler = newPausedScheduler();
+    for (int i = 0; i < runnableCount; i++) {
+      scheduler.postDelayed(runnables[i], delays[i]);
+    }
+    scheduler.advanceBy(1000);
+    return runCount;
+  }
+
+  @Benchmark
+  public int postRemoveAndAdvance() {
+    Scheduler scheduler = newPausedScheduler();
+    for (int i = 0; i < runnableCount; i++) {
+      scheduler.postDelayed(runnables[i], delays[i]);
+    }
+    for (int i = 0; i < runnableCount; i += 2) {
+      scheduler.remove(runnables[i]);
+    }
+    scheduler.advanceBy(1000);
+    return runCount;
+  }
+
+  private static Scheduler newPausedScheduler() {
+    Scheduler scheduler = new Scheduler();
+    scheduler.pause();
+    return scheduler;
+  }
+}
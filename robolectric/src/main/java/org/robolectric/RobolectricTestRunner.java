@@ -32,11 +32,14 @@ import org.robolectric.res.Fs;
 import org.robolectric.res.FsFile;
 import org.robolectric.res.OverlayResourceLoader;
 import org.robolectric.res.PackageResourceLoader;
+import org.robolectric.res.ResourceExtractor;
 import org.robolectric.res.ResourceLoader;
 import org.robolectric.res.ResourcePath;
+import org.robolectric.res.ResourceSnapshotCache;
 import org.robolectric.res.RoutingResourceLoader;
 import org.robolectric.util.Logger;
 import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
 import org.robolectric.util.Pair;
 
 import java.io.File;
@@ -109,6 +112,76 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner {
     return dependencyResolver;
   }
 
+  /**
+   * Create the on-disk cache of instrumented classes shared between test JVMs. The cache is disabled unless
+   * the {@code robolectric.bytecode.cache} system property is set to {@code true}; its location and size cap
+   * can be set with {@code robolectric.bytecode.cache.dir} and {@code robolectric.bytecode.cache.maxSize} (in bytes).
+   *
+   * @return The cache, or null if instrumented classes should not be cached.
+   */
+  protected InstrumentedClassCache createInstrumentedClassCache() {
+    if (!Boolean.getBoolean("robolectric.bytecode.cache")) {
+      return null;
+    }
+
+    File defaultCacheDir = new File(new File(System.getProperty("java.io.tmpdir")), "robolectric-bytecode");
+    File cacheDir = new File(System.getProperty("robolectric.bytecode.cache.dir", defaultCacheDir.getAbsolutePath()));
+    long maxSize = Long.getLong("robolectric.bytecode.cache.maxSize", 256L * 1024 * 1024);
+    Logger.info("Instrumented class cache location: %s", cacheDir.getAbsolutePath());
+    return new InstrumentedClassCache(cacheDir, maxSize);
+  }
+
+  /**
+   * Create the on-disk cache of parsed resources shared between test JVMs. The cache is disabled unless the
+   * {@code robolectric.resources.cache} system property is set to {@code true}; its location can be set with
+   * {@code robolectric.resources.cache.dir}.
+   *
+   * @return The cache, or null if parsed resources should not be cached.
+   */
+  protected ResourceSnapshotCache createResourceSnapshotCache() {
+    if (!Boolean.getBoolean("robolectric.resources.cache")) {
+      return null;
+    }
+
+    File defaultCacheDir = new File(new File(System.getProperty("java.io.tmpdir")), "robolectric-resources");
+    return new ResourceSnapshotCache(new File(System.getProperty("robolectric.resources.cache.dir", defaultCacheDir.getAbsolutePath())));
+  }
+
+  /**
+   * Returns the classes which should be loaded and instrumented in the background as soon as an
+   * {@link SdkEnvironment} is created. By default this is the comma-separated list in the
+   * {@code robolectric.bytecode.preload} system property.
+   *
+   * @return Fully-qualified names of classes to preload.
+   */
+  protected Collection<String> getClassesToPreload() {
+    String classNames = System.getProperty("robolectric.bytecode.preload");
+    if (classNames == null) {
+      return Collections.emptyList();
+    }
+
+    List<String> classesToPreload = new ArrayList<>();
+    for (String className : classNames.split(",")) {
+      className = className.trim();
+      if (!className.isEmpty()) {
+        classesToPreload.add(className);
+      }
+    }
+    return classesToPreload;
+  }
+
+  /**
+   * Returns the directory holding jars written by {@link InstrumentedJarWriter}. Classes found in a jar there with
+   * the same name as a jar on the SDK classpath are loaded without being instrumented again. By default this is
+   * the {@code robolectric.bytecode.preinstrumentedDir} system property.
+   *
+   * @return The directory, or null if there are no preinstrumented jars.
+   */
+  protected File getPreinstrumentedJarDir() {
+    String dir = System.getProperty("robolectric.bytecode.preinstrumentedDir");
+    return dir == null ? null : new File(dir);
+  }
+
   protected ClassHandler createClassHandler(ShadowMap shadowMap, SdkConfig sdkConfig) {
     return new ShadowWrangler(shadowMap);
   }
@@ -129,7 +202,9 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner {
   }
 
   public InstrumentationConfiguration createClassLoaderConfig() {
-    return InstrumentationConfiguration.newBuilder().build();
+    return InstrumentationConfiguration.newBuilder()
+        .useInvokeDynamic(Boolean.getBoolean("robolectric.invokedynamic"))
+        .build();
   }
 
   protected Class<? extends TestLifecycle> getTestLifecycleClass() {
@@ -139,7 +214,7 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner {
   public static void injectClassHandler(ClassLoader robolectricClassLoader, ClassHandler classHandler) {
     String className = RobolectricInternals.class.getName();
     Class<?> robolectricInternalsClass = ReflectionHelpers.loadClass(robolectricClassLoader, className);
-    ReflectionHelpers.setStaticField(robolectricInternalsClass, "classHandler", classHandler);
+    ReflectionHelpers.callStaticMethod(robolectricInternalsClass, "setClassHandler", ClassParameter.from(ClassHandler.class, classHandler));
   }
 
   @Override
@@ -182,7 +257,7 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner {
       try {
         AndroidManifest appManifest = getAppManifest(config);
         if (instrumentingClassLoaderFactory == null) {
-          instrumentingClassLoaderFactory = new InstrumentingClassLoaderFactory(createClassLoaderConfig(), getJarResolver());
+          instrumentingClassLoaderFactory = new InstrumentingClassLoaderFactory(createClassLoaderConfig(), getJarResolver(), createInstrumentedClassCache(), getClassesToPreload(), getPreinstrumentedJarDir());
         }
         SdkEnvironment sdkEnvironment = instrumentingClassLoaderFactory.getSdkEnvironment(new SdkConfig(pickSdkVersion(config, appManifest)));
         methodBlock(method, config, appManifest, sdkEnvironment).evaluate();
@@ -240,7 +315,7 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner {
           int sdkVersion = pickSdkVersion(config, appManifest);
           ReflectionHelpers.setStaticField(sdkEnvironment.bootstrappedClass(Build.VERSION.class), "SDK_INT", sdkVersion);
 
-          ResourceLoader systemResourceLoader = sdkEnvironment.getSystemResourceLoader(getJarResolver());
+          ResourceLoader systemResourceLoader = sdkEnvironment.getSystemResourceLoader(getJarResolver(), createResourceSnapshotCache());
           setUpApplicationState(bootstrappedMethod, parallelUniverseInterface, systemResourceLoader, appManifest, config);
           testLifecycle.beforeTest(bootstrappedMethod);
         } catch (Exception e) {
@@ -425,14 +500,29 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner {
   private ClassHandler getClassHandler(SdkEnvironment sdkEnvironment, ShadowMap shadowMap) {
     ClassHandler classHandler;
     synchronized (sdkEnvironment) {
-      classHandler = sdkEnvironment.classHandlersByShadowMap.get(shadowMap);
+      Class<?> creator = classHandlerCreator();
+      classHandler = sdkEnvironment.getClassHandler(creator, shadowMap);
       if (classHandler == null) {
         classHandler = createClassHandler(shadowMap, sdkEnvironment.getSdkConfig());
+        sdkEnvironment.putClassHandler(creator, shadowMap, classHandler);
       }
     }
     return classHandler;
   }
 
+  // Runners only share class handlers if the same createClassHandler() created them
+  private Class<?> classHandlerCreator() {
+    for (Class<?> runnerClass = getClass(); runnerClass != RobolectricTestRunner.class; runnerClass = runnerClass.getSuperclass()) {
+      try {
+        runnerClass.getDeclaredMethod("createClassHandler", ShadowMap.class, SdkConfig.class);
+        return runnerClass;
+      } catch (NoSuchMethodException e) {
+        // not overridden here
+      }
+    }
+    return RobolectricTestRunner.class;
+  }
+
   protected void setUpApplicationState(Method method, ParallelUniverseInterface parallelUniverseInterface, ResourceLoader systemResourceLoader, AndroidManifest appManifest, Config config) {
     parallelUniverseInterface.setUpApplicationState(method, testLifecycle, systemResourceLoader, appManifest, config);
   }
@@ -503,7 +593,8 @@ public class RobolectricTestRunner extends BlockJUnit4ClassRunner {
   }
 
   public PackageResourceLoader createResourceLoader(ResourcePath resourcePath) {
-    return new PackageResourceLoader(resourcePath);
+    return new PackageResourceLoader(resourcePath, new ResourceExtractor(resourcePath),
+        Boolean.getBoolean("robolectric.resources.lazy"), createResourceSnapshotCache());
   }
 
   protected ShadowMap createShadowMap() {
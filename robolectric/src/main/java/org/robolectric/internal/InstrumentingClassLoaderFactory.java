@@ -1,46 +1,144 @@
 package org.robolectric.internal;
 
 import org.robolectric.internal.bytecode.InstrumentationConfiguration;
+import org.robolectric.internal.bytecode.InstrumentedClassCache;
 import org.robolectric.internal.bytecode.InstrumentingClassLoader;
+import org.robolectric.internal.bytecode.PreinstrumentedJar;
 import org.robolectric.internal.dependency.DependencyResolver;
+import org.robolectric.util.Logger;
 import org.robolectric.util.Pair;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class InstrumentingClassLoaderFactory {
 
   // Typical test suites will use a single test runner, therefore have a maximum of one SdkEnvironment per API level.
-  private static final int CACHE_SIZE = SdkConfig.getSupportedApis().size();
+  private static final int CACHE_SIZE = Integer.getInteger("robolectric.sdkEnvironment.cacheSize", SdkConfig.getSupportedApis().size());
 
-  // Simple LRU Cache. SdkEnvironments are unique across InstrumentingClassloaderConfig and SdkConfig
-  private static final LinkedHashMap<Pair<InstrumentationConfiguration, SdkConfig>, SdkEnvironment> sdkToEnvironment = new LinkedHashMap<Pair<InstrumentationConfiguration, SdkConfig>, SdkEnvironment>() {
+  // JVM-wide LRU cache, shared by all runners. SdkEnvironments are unique across InstrumentingClassloaderConfig and SdkConfig
+  private static final LinkedHashMap<Pair<InstrumentationConfiguration, SdkConfig>, SdkEnvironment> sdkToEnvironment = new LinkedHashMap<Pair<InstrumentationConfiguration, SdkConfig>, SdkEnvironment>(16, 0.75f, true) {
     @Override
     protected boolean removeEldestEntry(Map.Entry<Pair<InstrumentationConfiguration, SdkConfig>, SdkEnvironment> eldest) {
-      return size() > CACHE_SIZE;
+      if (size() > CACHE_SIZE) {
+        evictedSdkToEnvironment.put(eldest.getKey(), new SoftReference<>(eldest.getValue()));
+        // release its open jars now, since the garbage collector may not collect it for a long time
+        closeClassLoader(eldest.getValue());
+        return true;
+      }
+      return false;
     }
   };
 
+  // Environments pushed out of the LRU cache stay reusable until the garbage collector needs their memory.
+  private static final Map<Pair<InstrumentationConfiguration, SdkConfig>, SoftReference<SdkEnvironment>> evictedSdkToEnvironment = new HashMap<>();
+
   private final InstrumentationConfiguration instrumentationConfig;
   private final DependencyResolver dependencyResolver;
+  private final InstrumentedClassCache instrumentedClassCache;
+  private final Collection<String> classesToPreload;
+  private final File preinstrumentedJarDir;
 
   public InstrumentingClassLoaderFactory(InstrumentationConfiguration instrumentationConfig, DependencyResolver dependencyResolver) {
+    this(instrumentationConfig, dependencyResolver, null);
+  }
+
+  public InstrumentingClassLoaderFactory(InstrumentationConfiguration instrumentationConfig, DependencyResolver dependencyResolver, InstrumentedClassCache instrumentedClassCache) {
+    this(instrumentationConfig, dependencyResolver, instrumentedClassCache, Collections.<String>emptyList());
+  }
+
+  public InstrumentingClassLoaderFactory(InstrumentationConfiguration instrumentationConfig, DependencyResolver dependencyResolver, InstrumentedClassCache instrumentedClassCache, Collection<String> classesToPreload) {
+    this(instrumentationConfig, dependencyResolver, instrumentedClassCache, classesToPreload, null);
+  }
+
+  public InstrumentingClassLoaderFactory(InstrumentationConfiguration instrumentationConfig, DependencyResolver dependencyResolver, InstrumentedClassCache instrumentedClassCache, Collection<String> classesToPreload, File preinstrumentedJarDir) {
     this.instrumentationConfig = instrumentationConfig;
     this.dependencyResolver = dependencyResolver;
+    this.instrumentedClassCache = instrumentedClassCache;
+    this.classesToPreload = classesToPreload;
+    this.preinstrumentedJarDir = preinstrumentedJarDir;
   }
 
-  public synchronized SdkEnvironment getSdkEnvironment(SdkConfig sdkConfig) {
-
+  public SdkEnvironment getSdkEnvironment(SdkConfig sdkConfig) {
     Pair<InstrumentationConfiguration, SdkConfig> key = Pair.create(instrumentationConfig, sdkConfig);
 
-    SdkEnvironment sdkEnvironment = sdkToEnvironment.get(key);
-    if (sdkEnvironment == null) {
-      URL[] urls = dependencyResolver.getLocalArtifactUrls(sdkConfig.getSdkClasspathDependencies());
-      ClassLoader robolectricClassLoader = new InstrumentingClassLoader(instrumentationConfig, urls);
-      sdkEnvironment = new SdkEnvironment(sdkConfig, robolectricClassLoader);
+    synchronized (sdkToEnvironment) {
+      SdkEnvironment sdkEnvironment = sdkToEnvironment.get(key);
+      if (sdkEnvironment == null) {
+        sdkEnvironment = reviveEvictedSdkEnvironment(key);
+      }
+      if (sdkEnvironment == null) {
+        URL[] urls = dependencyResolver.getLocalArtifactUrls(sdkConfig.getSdkClasspathDependencies());
+        ClassLoader robolectricClassLoader = new InstrumentingClassLoader(instrumentationConfig, instrumentedClassCache, findPreinstrumentedJars(urls), urls);
+        sdkEnvironment = new SdkEnvironment(sdkConfig, robolectricClassLoader);
+        if (!classesToPreload.isEmpty()) {
+          sdkEnvironment.preloadClasses(classesToPreload);
+        }
+        sdkToEnvironment.put(key, sdkEnvironment);
+      }
+      return sdkEnvironment;
+    }
+  }
+
+  private static SdkEnvironment reviveEvictedSdkEnvironment(Pair<InstrumentationConfiguration, SdkConfig> key) {
+    SdkEnvironment sdkEnvironment = null;
+    SoftReference<SdkEnvironment> reference = evictedSdkToEnvironment.remove(key);
+    if (reference != null) {
+      sdkEnvironment = reference.get();
+    }
+
+    Iterator<SoftReference<SdkEnvironment>> iterator = evictedSdkToEnvironment.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().get() == null) {
+        iterator.remove();
+      }
+    }
+
+    if (sdkEnvironment != null) {
       sdkToEnvironment.put(key, sdkEnvironment);
     }
     return sdkEnvironment;
   }
+
+  private static void closeClassLoader(SdkEnvironment sdkEnvironment) {
+    ClassLoader classLoader = sdkEnvironment.getRobolectricClassLoader();
+    if (classLoader instanceof Closeable) {
+      try {
+        ((Closeable) classLoader).close();
+      } catch (IOException e) {
+        Logger.info("couldn't close class loader for %s: %s", sdkEnvironment.getSdkConfig(), e.getMessage());
+      }
+    }
+  }
+
+  private List<PreinstrumentedJar> findPreinstrumentedJars(URL[] urls) {
+    List<PreinstrumentedJar> preinstrumentedJars = new ArrayList<>();
+    if (preinstrumentedJarDir == null) return preinstrumentedJars;
+
+    for (URL url : urls) {
+      if (!"file".equals(url.getProtocol())) continue;
+
+      try {
+        File preinstrumentedJarFile = new File(preinstrumentedJarDir, new File(url.toURI()).getName());
+        if (preinstrumentedJarFile.isFile()) {
+          preinstrumentedJars.add(new PreinstrumentedJar(preinstrumentedJarFile));
+        }
+      } catch (IOException | URISyntaxException e) {
+        Logger.info("couldn't open preinstrumented jar for %s: %s", url, e.getMessage());
+      }
+    }
+    return preinstrumentedJars;
+  }
 }
@@ -24,7 +24,7 @@ public class SdkConfig {
     addSdk(Build.VERSION_CODES.JELLY_BEAN_MR2, "4.3_r2", "0");
     addSdk(Build.VERSION_CODES.KITKAT, "4.4_r1", "1");
     addSdk(Build.VERSION_CODES.LOLLIPOP, "5.0.0_r2", "1");
-    ROBOLECTRIC_VERSION = getRobolectricVersion();
+    ROBOLECTRIC_VERSION = readRobolectricVersion();
   }
 
   public static void addSdk(int sdkVersion, String androidVersion, String robolectricVersion) {
@@ -35,6 +35,10 @@ public class SdkConfig {
     return SUPPORTED_APIS.keySet();
   }
 
+  public static String getRobolectricVersion() {
+    return ROBOLECTRIC_VERSION;
+  }
+
   public SdkConfig(int apiLevel) {
     this.apiLevel = apiLevel;
     SdkVersion version = SUPPORTED_APIS.get(apiLevel);
@@ -83,7 +87,7 @@ public class SdkConfig {
     return new DependencyJar(groupId, artifactId, version, classifier);
   }
 
-  private static String getRobolectricVersion() {
+  private static String readRobolectricVersion() {
     ClassLoader classLoader = SdkVersion.class.getClassLoader();
     try (InputStream is = classLoader.getResourceAsStream("robolectric-version.properties")) {
       final Properties properties = new Properties();
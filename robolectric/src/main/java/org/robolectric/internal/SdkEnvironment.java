@@ -1,47 +1,173 @@
 package org.robolectric.internal;
 
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Opcodes;
+import org.robolectric.RobolectricTestRunner;
 import org.robolectric.internal.dependency.DependencyResolver;
 import org.robolectric.internal.bytecode.ShadowMap;
+import org.robolectric.internal.bytecode.ClassHandler;
 import org.robolectric.internal.bytecode.ShadowWrangler;
 import org.robolectric.res.Fs;
 import org.robolectric.res.PackageResourceLoader;
 import org.robolectric.res.ResourceExtractor;
 import org.robolectric.res.ResourceLoader;
 import org.robolectric.res.ResourcePath;
+import org.robolectric.res.ResourceSnapshotCache;
+import org.robolectric.util.Logger;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 public class SdkEnvironment {
+  private static final ForkJoinPool PRELOAD_POOL = new ForkJoinPool();
+
+  // System resources don't depend on the instrumenting class loader, so eager loaders are loaded once for each
+  // android-all jar and shared by all environments using it. Lazy loaders keep loading as they're used, so each
+  // environment has its own.
+  private static final Map<String, ResourceLoader> SHARED_SYSTEM_RESOURCE_LOADERS = new HashMap<>();
+
   private final SdkConfig sdkConfig;
   private final ClassLoader robolectricClassLoader;
-  public final Map<ShadowMap, ShadowWrangler> classHandlersByShadowMap = new HashMap<>();
+  private static final int CLASS_HANDLER_CACHE_SIZE = Integer.getInteger("robolectric.classHandler.cacheSize", 16);
+
+  // LRU cache, so plan and meta-shadow caches survive across test methods and classes using the same shadows
+  private final Map<ClassHandlerKey, ClassHandler> classHandlers = new LinkedHashMap<ClassHandlerKey, ClassHandler>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<ClassHandlerKey, ClassHandler> eldest) {
+      return size() > CLASS_HANDLER_CACHE_SIZE;
+    }
+  };
   private ResourceLoader systemResourceLoader;
 
+  /**
+   * @deprecated Use {@link #getClassHandler(Class, ShadowMap)} and {@link #putClassHandler(Class, ShadowMap, ClassHandler)}.
+   *     This map is a view of the class handlers created by {@link RobolectricTestRunner}'s own
+   *     {@code createClassHandler()}.
+   */
+  @Deprecated
+  public final Map<ShadowMap, ShadowWrangler> classHandlersByShadowMap = new ClassHandlersByShadowMap();
+
   public SdkEnvironment(SdkConfig sdkConfig, ClassLoader robolectricClassLoader) {
     this.sdkConfig = sdkConfig;
     this.robolectricClassLoader = robolectricClassLoader;
   }
 
   public PackageResourceLoader createSystemResourceLoader(DependencyResolver dependencyResolver) {
-    Fs systemResFs = Fs.fromJar(dependencyResolver.getLocalArtifactUrl(sdkConfig.getSystemResourceDependency()));
+    return createSystemResourceLoader(dependencyResolver, null);
+  }
+
+  /**
+   * Create a loader for the system resources in this environment's android-all jar. Resource ids are read from the
+   * class files of the R classes in the jar, so the loader doesn't depend on this environment's class loader.
+   */
+  public PackageResourceLoader createSystemResourceLoader(DependencyResolver dependencyResolver, ResourceSnapshotCache snapshotCache) {
+    return createSystemResourceLoader(dependencyResolver.getLocalArtifactUrl(sdkConfig.getSystemResourceDependency()),
+        Boolean.getBoolean("robolectric.resources.lazy"), snapshotCache);
+  }
+
+  private static PackageResourceLoader createSystemResourceLoader(URL systemResJar, boolean lazy, ResourceSnapshotCache snapshotCache) {
+    Fs systemResFs = Fs.fromJar(systemResJar);
     ResourceExtractor resourceExtractor;
-    try {
-      resourceExtractor = new ResourceExtractor(getRobolectricClassLoader().loadClass("com.android.internal.R"), getRobolectricClassLoader().loadClass("android.R"));
-    } catch (ClassNotFoundException e) {
-      throw new RuntimeException(e);
+    try (JarFile jarFile = new JarFile(new File(systemResJar.toURI()))) {
+      resourceExtractor = new ResourceExtractor(readResourceIds(jarFile, "android/R$"), readResourceIds(jarFile, "com/android/internal/R$"));
+    } catch (IOException | URISyntaxException e) {
+      throw new RuntimeException("couldn't read resource ids from " + systemResJar, e);
+    }
+    ResourcePath resourcePath = new ResourcePath(null, resourceExtractor.getPackageName(), systemResFs.join("res"), systemResFs.join("assets"));
+    return new PackageResourceLoader(resourcePath, resourceExtractor, lazy, snapshotCache);
+  }
+
+  /**
+   * @param rClassPrefix Path prefix of the inner classes of an R class, e.g. {@code android/R$}.
+   * @return The values of the static int constants of the R class's inner classes, by inner class and field name.
+   */
+  static Map<String, Map<String, Integer>> readResourceIds(JarFile jarFile, String rClassPrefix) throws IOException {
+    Map<String, Map<String, Integer>> ids = new LinkedHashMap<>();
+    Enumeration<JarEntry> entries = jarFile.entries();
+    while (entries.hasMoreElements()) {
+      JarEntry entry = entries.nextElement();
+      String name = entry.getName();
+      if (!name.startsWith(rClassPrefix) || !name.endsWith(".class")) continue;
+
+      String section = name.substring(rClassPrefix.length(), name.length() - ".class".length());
+      if (section.contains("$")) continue;
+
+      final Map<String, Integer> sectionIds = new LinkedHashMap<>();
+      try (InputStream in = jarFile.getInputStream(entry)) {
+        new ClassReader(in).accept(new ClassVisitor(Opcodes.ASM4) {
+          @Override
+          public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            if ((access & Opcodes.ACC_STATIC) != 0 && "I".equals(desc) && value instanceof Integer) {
+              sectionIds.put(name, (Integer) value);
+            }
+            return null;
+          }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+      }
+      ids.put(section, sectionIds);
     }
-    ResourcePath resourcePath = new ResourcePath(resourceExtractor.getProcessedRFile(), resourceExtractor.getPackageName(), systemResFs.join("res"), systemResFs.join("assets"));
-    return new PackageResourceLoader(resourcePath, resourceExtractor);
+    return ids;
   }
 
-  public synchronized ResourceLoader getSystemResourceLoader(DependencyResolver dependencyResolver) {
+  public ResourceLoader getSystemResourceLoader(DependencyResolver dependencyResolver) {
+    return getSystemResourceLoader(dependencyResolver, null);
+  }
+
+  /**
+   * @return The loader for the system resources in this environment's android-all jar. Unless resources are loaded
+   *     lazily, it is shared with all other environments using the same jar.
+   */
+  public synchronized ResourceLoader getSystemResourceLoader(DependencyResolver dependencyResolver, ResourceSnapshotCache snapshotCache) {
     if (systemResourceLoader == null) {
-      systemResourceLoader = createSystemResourceLoader(dependencyResolver);
+      URL systemResJar = dependencyResolver.getLocalArtifactUrl(sdkConfig.getSystemResourceDependency());
+      if (Boolean.getBoolean("robolectric.resources.lazy")) {
+        systemResourceLoader = createSystemResourceLoader(systemResJar, true, snapshotCache);
+        return systemResourceLoader;
+      }
+
+      String key = systemResJar.toString();
+      synchronized (SHARED_SYSTEM_RESOURCE_LOADERS) {
+        systemResourceLoader = SHARED_SYSTEM_RESOURCE_LOADERS.get(key);
+        if (systemResourceLoader == null) {
+          systemResourceLoader = createSystemResourceLoader(systemResJar, false, snapshotCache);
+          SHARED_SYSTEM_RESOURCE_LOADERS.put(key, systemResourceLoader);
+        }
+      }
     }
     return systemResourceLoader;
   }
 
+  /**
+   * Load and instrument the given classes in the background, spread over all available cores.
+   * Classes which can't be loaded are skipped; they will fail again when the test uses them.
+   *
+   * @param classNames Fully-qualified names of classes to load.
+   * @return A future which completes once all classes have been loaded.
+   */
+  public Future<?> preloadClasses(Collection<String> classNames) {
+    return PRELOAD_POOL.submit(new PreloadTask(robolectricClassLoader, new ArrayList<>(classNames)));
+  }
+
   public Class<?> bootstrappedClass(Class<?> testClass) {
     try {
       return robolectricClassLoader.loadClass(testClass.getName());
@@ -50,6 +176,28 @@ public class SdkEnvironment {
     }
   }
 
+  /**
+   * Get a class handler created earlier for the same shadows by the same kind of runner.
+   *
+   * @param creator Class declaring the method which creates the runner's class handlers.
+   * @param shadowMap Shadows the class handler is for.
+   * @return The class handler, or null if there is none.
+   */
+  public synchronized ClassHandler getClassHandler(Class<?> creator, ShadowMap shadowMap) {
+    return classHandlers.get(new ClassHandlerKey(creator, shadowMap));
+  }
+
+  /**
+   * Keep a class handler for runners declaring the same creator and using the same shadows.
+   *
+   * @param creator Class declaring the method which created the class handler.
+   * @param shadowMap Shadows the class handler is for.
+   * @param classHandler Class handler to keep.
+   */
+  public synchronized void putClassHandler(Class<?> creator, ShadowMap shadowMap, ClassHandler classHandler) {
+    classHandlers.put(new ClassHandlerKey(creator, shadowMap), classHandler);
+  }
+
   public ClassLoader getRobolectricClassLoader() {
     return robolectricClassLoader;
   }
@@ -57,4 +205,101 @@ public class SdkEnvironment {
   public SdkConfig getSdkConfig() {
     return sdkConfig;
   }
+
+  private static class PreloadTask extends RecursiveAction {
+    private final ClassLoader classLoader;
+    private final List<String> classNames;
+
+    PreloadTask(ClassLoader classLoader, List<String> classNames) {
+      this.classLoader = classLoader;
+      this.classNames = classNames;
+    }
+
+    @Override
+    protected void compute() {
+      if (classNames.size() > 1) {
+        int middle = classNames.size() / 2;
+        invokeAll(new PreloadTask(classLoader, classNames.subList(0, middle)),
+            new PreloadTask(classLoader, classNames.subList(middle, classNames.size())));
+      } else if (classNames.size() == 1) {
+        String className = classNames.get(0);
+        try {
+          classLoader.loadClass(className);
+        } catch (ClassNotFoundException | LinkageError e) {
+          Logger.debug("couldn't preload %s: %s", className, e);
+        }
+      }
+    }
+  }
+
+  private class ClassHandlersByShadowMap extends AbstractMap<ShadowMap, ShadowWrangler> {
+    @Override
+    public ShadowWrangler get(Object key) {
+      synchronized (SdkEnvironment.this) {
+        ClassHandler classHandler = key instanceof ShadowMap ? getClassHandler(RobolectricTestRunner.class, (ShadowMap) key) : null;
+        return classHandler instanceof ShadowWrangler ? (ShadowWrangler) classHandler : null;
+      }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+
+    @Override
+    public ShadowWrangler put(ShadowMap key, ShadowWrangler value) {
+      synchronized (SdkEnvironment.this) {
+        ShadowWrangler previous = get(key);
+        putClassHandler(RobolectricTestRunner.class, key, value);
+        return previous;
+      }
+    }
+
+    @Override
+    public ShadowWrangler remove(Object key) {
+      synchronized (SdkEnvironment.this) {
+        ShadowWrangler previous = get(key);
+        if (previous != null) {
+          classHandlers.remove(new ClassHandlerKey(RobolectricTestRunner.class, (ShadowMap) key));
+        }
+        return previous;
+      }
+    }
+
+    @Override
+    public Set<Entry<ShadowMap, ShadowWrangler>> entrySet() {
+      Map<ShadowMap, ShadowWrangler> snapshot = new LinkedHashMap<>();
+      synchronized (SdkEnvironment.this) {
+        for (Map.Entry<ClassHandlerKey, ClassHandler> entry : classHandlers.entrySet()) {
+          if (entry.getKey().creator == RobolectricTestRunner.class && entry.getValue() instanceof ShadowWrangler) {
+            snapshot.put(entry.getKey().shadowMap, (ShadowWrangler) entry.getValue());
+          }
+        }
+      }
+      return Collections.unmodifiableMap(snapshot).entrySet();
+    }
+  }
+
+  private static class ClassHandlerKey {
+    private final Class<?> creator;
+    private final ShadowMap shadowMap;
+
+    ClassHandlerKey(Class<?> creator, ShadowMap shadowMap) {
+      this.creator = creator;
+      this.shadowMap = shadowMap;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof ClassHandlerKey)) return false;
+      ClassHandlerKey that = (ClassHandlerKey) o;
+      return creator.equals(that.creator) && shadowMap.equals(that.shadowMap);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * creator.hashCode() + shadowMap.hashCode();
+    }
+  }
 }
@@ -36,6 +36,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Configuration rules for {@link org.robolectric.internal.bytecode.InstrumentingClassLoader}.
@@ -50,6 +52,7 @@ public class InstrumentationConfiguration {
     private final Collection<String> classesToNotAquire = new HashSet<>();
     private final Collection<String> packagesToNotAquire = new HashSet<>();
     private final Collection<String> instrumentedClasses = new HashSet<>();
+    private boolean useInvokeDynamic;
 
     public Builder doNotAquireClass(String className) {
       this.classesToNotAquire.add(className);
@@ -81,6 +84,18 @@ public class InstrumentationConfiguration {
       return this;
     }
 
+    /**
+     * Link instrumented methods to their {@link ClassHandler.Plan} through invokedynamic call sites
+     * rather than looking the plan up by signature on every call.
+     *
+     * @param useInvokeDynamic True to emit invokedynamic call sites.
+     * @return This builder.
+     */
+    public Builder useInvokeDynamic(boolean useInvokeDynamic) {
+      this.useInvokeDynamic = useInvokeDynamic;
+      return this;
+    }
+
     public InstrumentationConfiguration build() {
       interceptedMethods.addAll(Arrays.asList(
           new MethodRef(LinkedHashMap.class, "eldest"),
@@ -149,7 +164,7 @@ public class InstrumentationConfiguration {
         instrumentedPackages.addAll(Arrays.asList(provider.getProvidedPackageNames()));
       }
 
-      return new InstrumentationConfiguration(classNameTranslations, interceptedMethods, instrumentedPackages, instrumentedClasses, classesToNotAquire, packagesToNotAquire);
+      return new InstrumentationConfiguration(classNameTranslations, interceptedMethods, instrumentedPackages, instrumentedClasses, classesToNotAquire, packagesToNotAquire, useInvokeDynamic);
     }
   }
 
@@ -157,20 +172,29 @@ public class InstrumentationConfiguration {
     return new Builder();
   }
 
+  private static final String INTERNAL_R_CLASS_NAME = "com.android.internal.R";
+
   private final List<String> instrumentedPackages = new ArrayList<>();
   private final HashSet<String> instrumentedClasses = new HashSet<>();
   private final Map<String, String> classNameTranslations = new HashMap<>();
   private final HashSet<MethodRef> interceptedMethods = new HashSet<>();
   private final Set<String> classesToNotAquire = new HashSet<>();
   private final Set<String> packagesToNotAquire = new HashSet<>();
+  private final boolean useInvokeDynamic;
+  private final PrefixTrie instrumentedPackageTrie;
+  private final PrefixTrie packagesToNotAquireTrie;
+  private final ConcurrentMap<String, Boolean> shouldAcquireCache = new ConcurrentHashMap<>();
 
-  private InstrumentationConfiguration(Map<String, String> classNameTranslations, Collection<MethodRef> interceptedMethods, Collection<String> instrumentedPackages, Collection<String> instrumentedClasses, Collection<String> classesToNotAquire, Collection<String> packagesToNotAquire) {
+  private InstrumentationConfiguration(Map<String, String> classNameTranslations, Collection<MethodRef> interceptedMethods, Collection<String> instrumentedPackages, Collection<String> instrumentedClasses, Collection<String> classesToNotAquire, Collection<String> packagesToNotAquire, boolean useInvokeDynamic) {
     this.classNameTranslations.putAll(classNameTranslations);
     this.interceptedMethods.addAll(interceptedMethods);
     this.instrumentedPackages.addAll(instrumentedPackages);
     this.instrumentedClasses.addAll(instrumentedClasses);
     this.classesToNotAquire.addAll(classesToNotAquire);
     this.packagesToNotAquire.addAll(packagesToNotAquire);
+    this.useInvokeDynamic = useInvokeDynamic;
+    this.instrumentedPackageTrie = new PrefixTrie(this.instrumentedPackages);
+    this.packagesToNotAquireTrie = new PrefixTrie(this.packagesToNotAquire);
   }
 
   /**
@@ -195,6 +219,15 @@ public class InstrumentationConfiguration {
    * @return  True if the class should be loaded.
    */
   public boolean shouldAcquire(String name) {
+    Boolean shouldAcquire = shouldAcquireCache.get(name);
+    if (shouldAcquire == null) {
+      shouldAcquire = computeShouldAcquire(name);
+      shouldAcquireCache.put(name, shouldAcquire);
+    }
+    return shouldAcquire;
+  }
+
+  boolean computeShouldAcquire(String name) {
     // the org.robolectric.res and org.robolectric.manifest packages live in the base classloader, but not its tests; yuck.
     int lastDot = name.lastIndexOf('.');
     String pkgName = name.substring(0, lastDot == -1 ? 0 : lastDot);
@@ -202,18 +235,41 @@ public class InstrumentationConfiguration {
       return name.contains("Test");
     }
 
-    if (name.matches("com\\.android\\.internal\\.R(\\$.*)?")) return true;
+    // com.android.internal.R and its inner classes
+    if (name.startsWith(INTERNAL_R_CLASS_NAME)
+        && (name.length() == INTERNAL_R_CLASS_NAME.length() || name.charAt(INTERNAL_R_CLASS_NAME.length()) == '$')) {
+      return true;
+    }
 
     // Android SDK code almost universally refers to com.android.internal.R, except
     // when refering to android.R.stylable, as in HorizontalScrollView. arghgh.
     // See https://github.com/robolectric/robolectric/issues/521
     if (name.equals("android.R$styleable")) return true;
 
-    for (String packageName : packagesToNotAquire) {
-      if (name.startsWith(packageName)) return false;
+    if (packagesToNotAquireTrie.matchesPrefixOf(name)) return false;
+
+    return !(isRClass(name, lastDot) || classesToNotAquire.contains(name));
+  }
+
+  /**
+   * Equivalent to matching {@code .*\.R(|\$[a-z]+)$}, e.g. {@code com.example.R} or {@code com.example.R$id}.
+   */
+  private static boolean isRClass(String name, int lastDot) {
+    if (lastDot == -1 || lastDot + 1 >= name.length() || name.charAt(lastDot + 1) != 'R') return false;
+
+    int end = name.length();
+    int i = lastDot + 2;
+    if (i == end) return true;
+    if (name.charAt(i) != '$' || i + 1 == end) return false;
+    for (i++; i < end; i++) {
+      char c = name.charAt(i);
+      if (c < 'a' || c > 'z') return false;
     }
+    return true;
+  }
 
-    return !(name.matches(".*\\.R(|\\$[a-z]+)$") || classesToNotAquire.contains(name));
+  public boolean useInvokeDynamic() {
+    return useInvokeDynamic;
   }
 
   public Set<MethodRef> methodsToIntercept() {
@@ -229,6 +285,31 @@ public class InstrumentationConfiguration {
     return Collections.unmodifiableMap(classNameTranslations);
   }
 
+  /**
+   * Describe the rules that affect the bytecode produced by {@link org.robolectric.internal.bytecode.InstrumentingClassLoader},
+   * in a form that is stable across JVMs.
+   *
+   * @return A digest of the instrumentation rules.
+   */
+  public String getInstrumentationFingerprint() {
+    List<String> rules = new ArrayList<>();
+    for (Map.Entry<String, String> entry : classNameTranslations.entrySet()) {
+      rules.add("translate:" + entry.getKey() + "=" + entry.getValue());
+    }
+    for (MethodRef methodRef : interceptedMethods) {
+      rules.add("intercept:" + methodRef.className + "." + methodRef.methodName);
+    }
+    for (String instrumentedPackage : instrumentedPackages) {
+      rules.add("package:" + instrumentedPackage);
+    }
+    for (String instrumentedClass : instrumentedClasses) {
+      rules.add("class:" + instrumentedClass);
+    }
+    rules.add("invokedynamic:" + useInvokeDynamic);
+    Collections.sort(rules);
+    return InstrumentedClassCache.digest(rules.toArray(new String[rules.size()]));
+  }
+
   public boolean containsStubs(ClassInfo classInfo) {
     return classInfo.getName().startsWith("com.google.android.maps.");
   }
@@ -242,13 +323,7 @@ public class InstrumentationConfiguration {
   }
 
   private boolean isInInstrumentedPackage(ClassInfo classInfo) {
-    final String className = classInfo.getName();
-    for (String instrumentedPackage : instrumentedPackages) {
-      if (className.startsWith(instrumentedPackage)) {
-        return true;
-      }
-    }
-    return false;
+    return instrumentedPackageTrie.matchesPrefixOf(classInfo.getName());
   }
 
   @Override
@@ -262,6 +337,7 @@ public class InstrumentationConfiguration {
     if (!classesToNotAquire.equals(that.classesToNotAquire)) return false;
     if (!instrumentedPackages.equals(that.instrumentedPackages)) return false;
     if (!interceptedMethods.equals(that.interceptedMethods)) return false;
+    if (useInvokeDynamic != that.useInvokeDynamic) return false;
 
     return true;
   }
@@ -272,6 +348,7 @@ public class InstrumentationConfiguration {
     result = 31 * result + classNameTranslations.hashCode();
     result = 31 * result + interceptedMethods.hashCode();
     result = 31 * result + classesToNotAquire.hashCode();
+    result = 31 * result + (useInvokeDynamic ? 1 : 0);
     return result;
   }
 
@@ -0,0 +1,234 @@
+package org.robolectric.internal.bytecode;
+
+import org.robolectric.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed disk cache of instrumented class bytes, shared between JVMs.
+ *
+ * <p>Entries are keyed by a digest of the original class bytes, the {@link InstrumentationConfiguration}
+ * and the Robolectric version, so a changed input simply misses. Writers publish entries with an
+ * atomic rename, so concurrent Surefire forks never observe partially written files. Reads bump the
+ * entry's modification time, and once the cache grows past its size cap the least recently used
+ * entries are evicted.</p>
+ */
+public class InstrumentedClassCache {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String ENTRY_SUFFIX = ".class";
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final File dir;
+  private final long maxSizeBytes;
+  private final AtomicLong approximateSize = new AtomicLong(-1);
+
+  /**
+   * @param dir Directory holding cache entries; created if missing.
+   * @param maxSizeBytes Size above which least recently used entries are evicted.
+   */
+  public InstrumentedClassCache(File dir, long maxSizeBytes) {
+    this.dir = dir;
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  /**
+   * Look up the instrumented form of a class.
+   *
+   * @param configurationKey Describes everything besides the class bytes that affects instrumentation.
+   * @param origClassBytes Bytecode as read from the classpath.
+   * @return The cached instrumented bytes, or null if there is no entry.
+   */
+  public byte[] get(String configurationKey, byte[] origClassBytes) {
+    File entry = entryFileFor(configurationKey, origClassBytes);
+    if (!entry.isFile()) return null;
+
+    try {
+      byte[] bytes = Files.readAllBytes(entry.toPath());
+      //noinspection ResultOfMethodCallIgnored
+      entry.setLastModified(System.currentTimeMillis());
+      return bytes;
+    } catch (IOException e) {
+      // the entry was probably evicted by another process while we were reading it
+      return null;
+    }
+  }
+
+  /**
+   * Store the instrumented form of a class. Failures are logged and otherwise ignored.
+   *
+   * @param configurationKey Describes everything besides the class bytes that affects instrumentation.
+   * @param origClassBytes Bytecode as read from the classpath.
+   * @param instrumentedBytes Bytecode produced by the instrumenting class loader.
+   */
+  public void put(String configurationKey, byte[] origClassBytes, byte[] instrumentedBytes) {
+    File entry = entryFileFor(configurationKey, origClassBytes);
+    if (entry.isFile()) return;
+
+    File entryDir = entry.getParentFile();
+    File tmpFile = null;
+    try {
+      if (!entryDir.isDirectory() && !entryDir.mkdirs() && !entryDir.isDirectory()) {
+        return;
+      }
+      tmpFile = File.createTempFile(entry.getName(), ".tmp", entryDir);
+      Files.write(tmpFile.toPath(), instrumentedBytes);
+      try {
+        Files.move(tmpFile.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmpFile.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      tmpFile = null;
+    } catch (IOException e) {
+      Logger.debug("couldn't write instrumented class cache entry %s: %s", entry, e.getMessage());
+      return;
+    } finally {
+      if (tmpFile != null) {
+        //noinspection ResultOfMethodCallIgnored
+        tmpFile.delete();
+      }
+    }
+
+    if (addToSize(instrumentedBytes.length) > maxSizeBytes) {
+      evict();
+    }
+  }
+
+  /**
+   * Evict least recently used entries until the cache is at most three quarters of its size cap.
+   */
+  public synchronized void evict() {
+    List<File> entries = listEntries();
+    long size = 0;
+    for (File entry : entries) {
+      size += entry.length();
+    }
+
+    if (size > maxSizeBytes) {
+      final long[] lastModified = new long[entries.size()];
+      for (int i = 0; i < entries.size(); i++) {
+        lastModified[i] = entries.get(i).lastModified();
+      }
+      Integer[] order = new Integer[entries.size()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          long diff = lastModified[a] - lastModified[b];
+          return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+        }
+      });
+
+      long target = maxSizeBytes - maxSizeBytes / 4;
+      for (Integer index : order) {
+        if (size <= target) break;
+        File entry = entries.get(index);
+        long length = entry.length();
+        if (entry.delete()) {
+          size -= length;
+        }
+      }
+    }
+
+    approximateSize.set(size);
+  }
+
+  private long addToSize(long delta) {
+    if (approximateSize.get() < 0) {
+      long size = 0;
+      for (File entry : listEntries()) {
+        size += entry.length();
+      }
+      approximateSize.compareAndSet(-1, size);
+    }
+    return approximateSize.addAndGet(delta);
+  }
+
+  private List<File> listEntries() {
+    File[] shards = dir.listFiles();
+    if (shards == null) return Collections.emptyList();
+
+    List<File> entries = new ArrayList<>();
+    for (File shard : shards) {
+      File[] files = shard.listFiles();
+      if (files == null) continue;
+      for (File file : files) {
+        if (file.getName().endsWith(ENTRY_SUFFIX)) {
+          entries.add(file);
+        }
+      }
+    }
+    return entries;
+  }
+
+  File entryFileFor(String configurationKey, byte[] origClassBytes) {
+    return entryFile(keyFor(configurationKey, origClassBytes));
+  }
+
+  private File entryFile(String key) {
+    return new File(new File(dir, key.substring(0, 2)), key.substring(2) + ENTRY_SUFFIX);
+  }
+
+  private String keyFor(String configurationKey, byte[] origClassBytes) {
+    MessageDigest digest = newDigest();
+    digest.update(configurationKey.getBytes(UTF_8));
+    digest.update(origClassBytes);
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Digest the given strings into a compact, filename-safe key.
+   *
+   * @param parts Strings to digest.
+   * @return Hex-encoded digest.
+   */
+  public static String digest(String... parts) {
+    MessageDigest digest = newDigest();
+    for (String part : parts) {
+      digest.update(part.getBytes(UTF_8));
+      digest.update((byte) 0);
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Digest the given bytes into a compact, filename-safe key.
+   *
+   * @param bytes Bytes to digest.
+   * @return Hex-encoded digest.
+   */
+  public static String digest(byte[] bytes) {
+    return toHex(newDigest().digest(bytes));
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+      chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+}
@@ -0,0 +1,111 @@
+package org.robolectric.internal.bytecode;
+
+import org.robolectric.util.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.robolectric.util.Util.readBytes;
+
+/**
+ * Instruments every acquired class in a jar (typically android-all) ahead of time, and writes the results to a
+ * {@link PreinstrumentedJar} which {@link InstrumentingClassLoader} can define classes from without running ASM.
+ *
+ * <p>Usage: {@code InstrumentedJarWriter <output-dir> <jar>...}. Each output jar has the same name as its input,
+ * which is how {@link org.robolectric.internal.InstrumentingClassLoaderFactory} finds it. The classes are
+ * instrumented with the same configuration {@link org.robolectric.RobolectricTestRunner} uses by default, so
+ * system properties such as {@code robolectric.invokedynamic} should match the ones tests run with.</p>
+ */
+public class InstrumentedJarWriter {
+  private final InstrumentationConfiguration config;
+
+  public InstrumentedJarWriter(InstrumentationConfiguration config) {
+    this.config = config;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: " + InstrumentedJarWriter.class.getName() + " <output-dir> <jar>...");
+      System.exit(1);
+    }
+
+    File outputDir = new File(args[0]);
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new IOException("couldn't create " + outputDir);
+    }
+
+    InstrumentedJarWriter writer = new InstrumentedJarWriter(InstrumentationConfiguration.newBuilder()
+        .useInvokeDynamic(Boolean.getBoolean("robolectric.invokedynamic"))
+        .build());
+    for (int i = 1; i < args.length; i++) {
+      File jar = new File(args[i]);
+      File outputJar = new File(outputDir, jar.getName());
+      int count = writer.write(jar, outputJar);
+      System.out.println("Wrote " + count + " classes to " + outputJar);
+    }
+  }
+
+  /**
+   * Instrument the acquired classes in {@code jar} and write them to {@code outputJar}. Classes which fail to
+   * instrument are left out, so they are instrumented at runtime as usual.
+   *
+   * @param jar Jar to read classes from.
+   * @param outputJar Jar to write.
+   * @return The number of classes written.
+   * @throws IOException if either jar can't be read or written.
+   */
+  public int write(File jar, File outputJar) throws IOException {
+    InstrumentingClassLoader classLoader = new InstrumentingClassLoader(config, jar.toURI().toURL());
+    int count = 0;
+
+    try (ZipFile zipFile = new ZipFile(jar);
+         JarOutputStream out = new JarOutputStream(new FileOutputStream(outputJar))) {
+      writeStoredEntry(out, PreinstrumentedJar.INSTRUMENTATION_KEY_ENTRY,
+          classLoader.getInstrumentationKey().getBytes(PreinstrumentedJar.UTF_8));
+
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        String name = entry.getName();
+        if (!name.endsWith(".class")) continue;
+
+        String className = name.substring(0, name.length() - ".class".length()).replace('/', '.');
+        if (!config.shouldAcquire(className)) continue;
+
+        byte[] bytes;
+        try (InputStream in = zipFile.getInputStream(entry)) {
+          bytes = classLoader.transformClass(className, readBytes(in));
+        } catch (Exception e) {
+          Logger.info("couldn't instrument %s, leaving it to be instrumented at runtime: %s", className, e);
+          continue;
+        }
+        writeStoredEntry(out, name, bytes);
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // entries are stored uncompressed so that defining a class is a plain read
+  private static void writeStoredEntry(JarOutputStream out, String name, byte[] bytes) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+
+    JarEntry entry = new JarEntry(name);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(bytes.length);
+    entry.setCompressedSize(bytes.length);
+    entry.setCrc(crc.getValue());
+    out.putNextEntry(entry);
+    out.write(bytes);
+    out.closeEntry();
+  }
+}
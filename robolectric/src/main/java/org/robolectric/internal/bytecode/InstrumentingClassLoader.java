@@ -3,6 +3,7 @@ package org.robolectric.internal.bytecode;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -23,21 +24,26 @@ import org.objectweb.asm.tree.TypeInsnNode;
 import org.robolectric.internal.ShadowedObject;
 import org.robolectric.internal.Shadow;
 import org.robolectric.internal.ShadowConstants;
+import org.robolectric.internal.SdkConfig;
 import org.objectweb.asm.tree.VarInsnNode;
 import org.robolectric.util.Logger;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.objectweb.asm.Type.ARRAY;
 import static org.objectweb.asm.Type.OBJECT;
@@ -46,8 +52,11 @@ import static org.robolectric.util.Util.readBytes;
 
 /**
  * Class loader that modifies the bytecode of Android classes to insert calls to Robolectric's shadow classes.
+ *
+ * <p>The loader is parallel capable, locking per class name rather than on the loader itself.
+ * Subclasses must call {@link ClassLoader#registerAsParallelCapable()} to keep this behavior.</p>
  */
-public class InstrumentingClassLoader extends ClassLoader implements Opcodes {
+public class InstrumentingClassLoader extends ClassLoader implements Opcodes, Closeable {
   private static final Type OBJECT_TYPE = Type.getType(Object.class);
   private static final Type ROBOLECTRIC_INTERNALS_TYPE = Type.getType(RobolectricInternals.class);
   private static final Type PLAN_TYPE = Type.getType(ClassHandler.Plan.class);
@@ -56,6 +65,9 @@ public class InstrumentingClassLoader extends ClassLoader implements Opcodes {
 
   private static final Method INITIALIZING_METHOD = new Method("initializing", "(Ljava/lang/Object;)Ljava/lang/Object;");
   private static final Method METHOD_INVOKED_METHOD = new Method("methodInvoked", "(Ljava/lang/String;ZLjava/lang/Class;)L" + PLAN_TYPE.getInternalName() + ";");
+  private static final Handle METHOD_INVOKED_BOOTSTRAP = new Handle(H_INVOKESTATIC,
+      Type.getInternalName(InvokeDynamicSupport.class), "bootstrapMethodInvoked",
+      "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;I)Ljava/lang/invoke/CallSite;");
   private static final Method PLAN_RUN_METHOD = new Method("run", OBJECT_TYPE, new Type[]{OBJECT_TYPE, OBJECT_TYPE, Type.getType(Object[].class)});
   private static final Method HANDLE_EXCEPTION_METHOD = new Method("cleanStackTrace", THROWABLE_TYPE, new Type[]{THROWABLE_TYPE});
   private static final String DIRECT_OBJECT_MARKER_TYPE_DESC = Type.getObjectType(DirectObjectMarker.class.getName().replace('.', '/')).getDescriptor();
@@ -64,44 +76,95 @@ public class InstrumentingClassLoader extends ClassLoader implements Opcodes {
 
   private final URLClassLoader urls;
   private final InstrumentationConfiguration config;
-  private final Map<String, Class> classes = new HashMap<>();
+  private final ConcurrentMap<String, Class> classes = new ConcurrentHashMap<>();
   private final Map<String, String> classesToRemap;
   private final Set<InstrumentationConfiguration.MethodRef> methodsToIntercept;
+  private final InstrumentedClassCache instrumentedClassCache;
+  private final List<PreinstrumentedJar> preinstrumentedJars = new ArrayList<>();
+  private volatile String instrumentationKey;
+
+  static {
+    ClassLoader.registerAsParallelCapable();
+  }
 
   public InstrumentingClassLoader(InstrumentationConfiguration config, URL... urls) {
+    this(config, null, urls);
+  }
+
+  public InstrumentingClassLoader(InstrumentationConfiguration config, InstrumentedClassCache instrumentedClassCache, URL... urls) {
+    this(config, instrumentedClassCache, Collections.<PreinstrumentedJar>emptyList(), urls);
+  }
+
+  /**
+   * @param config Configuration of which classes to acquire and how to instrument them.
+   * @param instrumentedClassCache Disk cache of instrumented classes, or null.
+   * @param preinstrumentedJars Jars written by {@link InstrumentedJarWriter}; classes found in them are defined
+   *                            without being instrumented again. Jars built with a different configuration are ignored.
+   * @param urls Classpath to acquire classes from.
+   */
+  public InstrumentingClassLoader(InstrumentationConfiguration config, InstrumentedClassCache instrumentedClassCache, List<PreinstrumentedJar> preinstrumentedJars, URL... urls) {
     super(InstrumentingClassLoader.class.getClassLoader());
     this.config = config;
     this.urls = new URLClassLoader(urls, null);
+    this.instrumentedClassCache = instrumentedClassCache;
     classesToRemap = convertToSlashes(config.classNameTranslations());
     methodsToIntercept = convertToSlashes(config.methodsToIntercept());
+    for (PreinstrumentedJar preinstrumentedJar : preinstrumentedJars) {
+      if (getInstrumentationKey().equals(preinstrumentedJar.getInstrumentationKey())) {
+        Logger.debug("Loading preinstrumented classes from: %s", preinstrumentedJar.getFile());
+        this.preinstrumentedJars.add(preinstrumentedJar);
+      } else {
+        Logger.info("Ignoring %s, it was instrumented with a different configuration", preinstrumentedJar.getFile());
+        closeQuietly(preinstrumentedJar);
+      }
+    }
     for (URL url : urls) {
       Logger.debug("Loading classes from: %s", url);
     }
   }
 
+  /**
+   * Returns a key identifying everything besides the original bytecode that affects how this loader instruments
+   * classes: the Robolectric version, the {@link InstrumentationConfiguration} and the instrumenter itself.
+   *
+   * @return Hex-encoded digest.
+   */
+  public String getInstrumentationKey() {
+    if (instrumentationKey == null) {
+      instrumentationKey = InstrumentedClassCache.digest(
+          String.valueOf(SdkConfig.getRobolectricVersion()),
+          config.getInstrumentationFingerprint(),
+          instrumenterFingerprint());
+    }
+    return instrumentationKey;
+  }
+
   @Override
-  synchronized public Class loadClass(String name) throws ClassNotFoundException {
+  public Class loadClass(String name) throws ClassNotFoundException {
     Class<?> theClass = classes.get(name);
-    if (theClass != null) {
-      if (theClass == MissingClassMarker.class) {
-        throw new ClassNotFoundException(name);
-      } else {
-        return theClass;
-      }
-    }
+    if (theClass == null) {
+      synchronized (getClassLoadingLock(name)) {
+        theClass = classes.get(name);
+        if (theClass == null) {
+          try {
+            if (config.shouldAcquire(name)) {
+              theClass = findClass(name);
+            } else {
+              theClass = getParent().loadClass(name);
+            }
+          } catch (ClassNotFoundException e) {
+            classes.put(name, MissingClassMarker.class);
+            throw e;
+          }
 
-    try {
-      if (config.shouldAcquire(name)) {
-        theClass = findClass(name);
-      } else {
-        theClass = getParent().loadClass(name);
+          classes.put(name, theClass);
+        }
       }
-    } catch (ClassNotFoundException e) {
-      classes.put(name, MissingClassMarker.class);
-      throw e;
     }
 
-    classes.put(name, theClass);
+    if (theClass == MissingClassMarker.class) {
+      throw new ClassNotFoundException(name);
+    }
     return theClass;
   }
 
@@ -120,34 +183,27 @@ public class InstrumentingClassLoader extends ClassLoader implements Opcodes {
   @Override
   protected Class<?> findClass(final String className) throws ClassNotFoundException {
     if (config.shouldAcquire(className)) {
-      final byte[] origClassBytes = getByteCode(className);
-
-      ClassNode classNode = new ClassNode(Opcodes.ASM4) {
-        @Override
-        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
-          desc = remapParamType(desc);
-          return super.visitField(access, name, desc, signature, value);
-        }
-
-        @Override
-        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
-          MethodVisitor methodVisitor = super.visitMethod(access, name, remapParams(desc), signature, exceptions);
-          return new JSRInlinerAdapter(methodVisitor, access, name, desc, signature, exceptions);
-        }
-      };
-
-      final ClassReader classReader = new ClassReader(origClassBytes);
-      classReader.accept(classNode, 0);
+      byte[] preinstrumentedBytes = getPreinstrumentedBytes(className);
+      if (preinstrumentedBytes != null) {
+        ensurePackage(className);
+        return defineClass(className, preinstrumentedBytes, 0, preinstrumentedBytes.length);
+      }
 
-      classNode.interfaces.add(Type.getInternalName(ShadowedObject.class));
+      final byte[] origClassBytes = getByteCode(className);
 
       try {
         byte[] bytes;
-        ClassInfo classInfo = new ClassInfo(className, classNode);
-        if (config.shouldInstrument(classInfo)) {
-          bytes = getInstrumentedBytes(classNode, config.containsStubs(classInfo));
-        } else {
+        if (instrumentedClassCache == null) {
+          bytes = transformClass(className, origClassBytes);
+        } else if (!config.shouldInstrument(readClassInfo(className, origClassBytes))) {
+          // classes which aren't instrumented are defined as they are, without hashing them for the cache
           bytes = origClassBytes;
+        } else {
+          bytes = instrumentedClassCache.get(getInstrumentationKey(), origClassBytes);
+          if (bytes == null) {
+            bytes = transformClass(className, origClassBytes);
+            instrumentedClassCache.put(getInstrumentationKey(), origClassBytes, bytes);
+          }
         }
         ensurePackage(className);
         return defineClass(className, bytes, 0, bytes.length);
@@ -162,6 +218,88 @@ public class InstrumentingClassLoader extends ClassLoader implements Opcodes {
     }
   }
 
+  /**
+   * Instrument an acquired class without defining it.
+   *
+   * @param className Name of the class.
+   * @param origClassBytes Bytecode as read from the classpath.
+   * @return The instrumented bytecode, or {@code origClassBytes} if the class shouldn't be instrumented.
+   * @throws ClassNotFoundException if a class needed for instrumentation can't be found.
+   */
+  byte[] transformClass(String className, byte[] origClassBytes) throws ClassNotFoundException {
+    ClassNode classNode = new ClassNode(Opcodes.ASM4) {
+      @Override
+      public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        desc = remapParamType(desc);
+        return super.visitField(access, name, desc, signature, value);
+      }
+
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        MethodVisitor methodVisitor = super.visitMethod(access, name, remapParams(desc), signature, exceptions);
+        return new JSRInlinerAdapter(methodVisitor, access, name, desc, signature, exceptions);
+      }
+    };
+
+    final ClassReader classReader = new ClassReader(origClassBytes);
+    classReader.accept(classNode, 0);
+
+    classNode.interfaces.add(Type.getInternalName(ShadowedObject.class));
+
+    ClassInfo classInfo = new ClassInfo(className, classNode);
+    if (config.shouldInstrument(classInfo)) {
+      return getInstrumentedBytes(classNode, config.containsStubs(classInfo));
+    } else {
+      return origClassBytes;
+    }
+  }
+
+  // whether a class is instrumented only depends on its access flags and annotations
+  private static ClassInfo readClassInfo(String className, byte[] classBytes) {
+    ClassNode classNode = new ClassNode(Opcodes.ASM4) {
+      @Override
+      public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        return null;
+      }
+
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        return null;
+      }
+    };
+    new ClassReader(classBytes).accept(classNode, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    return new ClassInfo(className, classNode);
+  }
+
+  /**
+   * Close the preinstrumented jars this loader owns. They are opened again if the loader needs more classes from
+   * them later.
+   */
+  @Override
+  public void close() {
+    for (PreinstrumentedJar preinstrumentedJar : preinstrumentedJars) {
+      closeQuietly(preinstrumentedJar);
+    }
+  }
+
+  private static void closeQuietly(PreinstrumentedJar preinstrumentedJar) {
+    try {
+      preinstrumentedJar.close();
+    } catch (IOException e) {
+      Logger.info("couldn't close %s: %s", preinstrumentedJar.getFile(), e.getMessage());
+    }
+  }
+
+  private byte[] getPreinstrumentedBytes(String className) {
+    for (PreinstrumentedJar preinstrumentedJar : preinstrumentedJars) {
+      byte[] bytes = preinstrumentedJar.getClassBytes(className);
+      if (bytes != null) {
+        return bytes;
+      }
+    }
+    return null;
+  }
+
   protected byte[] getByteCode(String className) throws ClassNotFoundException {
     String classFilename = className.replace('.', '/') + ".class";
     try (InputStream classBytesStream = getResourceAsStream(classFilename)) {
@@ -173,13 +311,37 @@ public class InstrumentingClassLoader extends ClassLoader implements Opcodes {
     }
   }
 
+  /**
+   * Digest the bytecode of the instrumenter itself, so that cached classes produced by a different
+   * build of a snapshot version are not reused.
+   */
+  private static String instrumenterFingerprint() {
+    StringBuilder buf = new StringBuilder();
+    for (Class<?> instrumenterClass : new Class<?>[] { InstrumentingClassLoader.class, ClassInstrumentor.class, InstrumentingClassWriter.class }) {
+      String classFilename = instrumenterClass.getName().replace('.', '/') + ".class";
+      try (InputStream classBytesStream = InstrumentingClassLoader.class.getClassLoader().getResourceAsStream(classFilename)) {
+        if (classBytesStream != null) {
+          buf.append(InstrumentedClassCache.digest(readBytes(classBytesStream)));
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return buf.toString();
+  }
+
   private void ensurePackage(final String className) {
     int lastDotIndex = className.lastIndexOf('.');
     if (lastDotIndex != -1) {
       String pckgName = className.substring(0, lastDotIndex);
       Package pckg = getPackage(pckgName);
       if (pckg == null) {
-        definePackage(pckgName, null, null, null, null, null, null, null);
+        try {
+          definePackage(pckgName, null, null, null, null, null, null, null);
+        } catch (IllegalArgumentException e) {
+          // another thread defined the package first
+          if (getPackage(pckgName) == null) throw e;
+        }
       }
     }
   }
@@ -378,6 +540,10 @@ public class InstrumentingClassLoader extends ClassLoader implements Opcodes {
       makePublic(classNode);
       classNode.access = classNode.access & ~ACC_FINAL;
 
+      if (config.useInvokeDynamic() && (classNode.version & 0xFFFF) < V1_7) {
+        classNode.version = V1_7; // invokedynamic needs a Java 7 class file; stack map frames are recomputed on write
+      }
+
       Set<String> foundMethods = new HashSet<>();
       List<MethodNode> methods = new ArrayList<>(classNode.methods);
       for (MethodNode method : methods) {
@@ -810,11 +976,17 @@ public class InstrumentingClassLoader extends ClassLoader implements Opcodes {
         m.mark(notInstanceOfThis);
       }
 
-      // prepare for call to classHandler.methodInvoked(String signature, boolean isStatic)
-      m.push(classType.getInternalName() + "/" + originalMethodName + originalMethod.desc);
-      m.push(m.isStatic());
-      m.push(classType);                                         // my class
-      m.invokeStatic(ROBOLECTRIC_INTERNALS_TYPE, METHOD_INVOKED_METHOD);
+      String signature = classType.getInternalName() + "/" + originalMethodName + originalMethod.desc;
+      if (config.useInvokeDynamic()) {
+        // call site resolves classHandler.methodInvoked(signature, isStatic, myClass) once, then returns the plan
+        m.invokeDynamic("methodInvoked", "()" + PLAN_TYPE.getDescriptor(), METHOD_INVOKED_BOOTSTRAP, signature, m.isStatic() ? 1 : 0);
+      } else {
+        // prepare for call to classHandler.methodInvoked(String signature, boolean isStatic)
+        m.push(signature);
+        m.push(m.isStatic());
+        m.push(classType);                                         // my class
+        m.invokeStatic(ROBOLECTRIC_INTERNALS_TYPE, METHOD_INVOKED_METHOD);
+      }
       m.storeLocal(planLocalVar);
 
       m.loadLocal(planLocalVar); // plan
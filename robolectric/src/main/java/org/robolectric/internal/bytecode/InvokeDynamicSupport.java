@@ -0,0 +1,59 @@
+package org.robolectric.internal.bytecode;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+
+/**
+ * Bootstrap for the invokedynamic call sites emitted by {@link InstrumentingClassLoader} when
+ * {@link InstrumentationConfiguration#useInvokeDynamic()} is set.
+ *
+ * <p>Each instrumented method gets its own call site, which resolves its {@link ClassHandler.Plan} on first
+ * use and then returns it as a constant. The constant is guarded by the {@link SwitchPoint} in
+ * {@link RobolectricInternals}, so installing a different class handler relinks every call site.</p>
+ */
+public class InvokeDynamicSupport {
+  private static final MethodType PLAN_TYPE = MethodType.methodType(ClassHandler.Plan.class);
+  private static final MethodHandle RELINK;
+
+  static {
+    try {
+      RELINK = MethodHandles.lookup().findVirtual(MethodInvokedCallSite.class, "relink", PLAN_TYPE);
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @SuppressWarnings("UnusedDeclaration")
+  public static CallSite bootstrapMethodInvoked(MethodHandles.Lookup caller, String name, MethodType type, String signature, int isStatic) {
+    return new MethodInvokedCallSite(caller.lookupClass(), signature, isStatic != 0);
+  }
+
+  private static class MethodInvokedCallSite extends MutableCallSite {
+    private final Class<?> theClass;
+    private final String signature;
+    private final boolean isStatic;
+    private final MethodHandle relink;
+
+    public MethodInvokedCallSite(Class<?> theClass, String signature, boolean isStatic) {
+      super(PLAN_TYPE);
+      this.theClass = theClass;
+      this.signature = signature;
+      this.isStatic = isStatic;
+      this.relink = RELINK.bindTo(this);
+      setTarget(relink);
+    }
+
+    @SuppressWarnings("UnusedDeclaration")
+    public ClassHandler.Plan relink() {
+      // grab the switch point first, so a class handler swapped in while we resolve forces another relink
+      SwitchPoint switchPoint = RobolectricInternals.getClassHandlerSwitchPoint();
+      ClassHandler.Plan plan = RobolectricInternals.methodInvoked(signature, isStatic, theClass);
+      setTarget(switchPoint.guardWithTest(MethodHandles.constant(ClassHandler.Plan.class, plan), relink));
+      return plan;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package org.robolectric.internal.bytecode;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable set of string prefixes, answering whether any of them is a prefix of a given string in a single
+ * pass over the string rather than one {@link String#startsWith(String)} per prefix.
+ */
+class PrefixTrie {
+  private final Node root = new Node();
+
+  PrefixTrie(Collection<String> prefixes) {
+    for (String prefix : prefixes) {
+      Node node = root;
+      for (int i = 0; i < prefix.length(); i++) {
+        node = node.getOrAddChild(prefix.charAt(i));
+      }
+      node.terminal = true;
+    }
+  }
+
+  /**
+   * @param string The string to check.
+   * @return True if any of the prefixes is a prefix of {@code string}.
+   */
+  boolean matchesPrefixOf(String string) {
+    Node node = root;
+    for (int i = 0; !node.terminal; i++) {
+      if (i == string.length()) return false;
+      node = node.getChild(string.charAt(i));
+      if (node == null) return false;
+    }
+    return true;
+  }
+
+  private static class Node {
+    private char[] keys = new char[0];
+    private Node[] children = new Node[0];
+    private boolean terminal;
+
+    Node getChild(char c) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] == c) return children[i];
+      }
+      return null;
+    }
+
+    Node getOrAddChild(char c) {
+      Node child = getChild(c);
+      if (child == null) {
+        child = new Node();
+        keys = Arrays.copyOf(keys, keys.length + 1);
+        children = Arrays.copyOf(children, children.length + 1);
+        keys[keys.length - 1] = c;
+        children[children.length - 1] = child;
+      }
+      return child;
+    }
+  }
+}
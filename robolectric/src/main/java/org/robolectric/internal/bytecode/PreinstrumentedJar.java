@@ -0,0 +1,90 @@
+package org.robolectric.internal.bytecode;
+
+import org.robolectric.util.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.robolectric.util.Util.readBytes;
+
+/**
+ * Jar of classes which were instrumented ahead of time by {@link InstrumentedJarWriter}.
+ *
+ * <p>The jar records the {@link InstrumentingClassLoader#getInstrumentationKey() instrumentation key} it was
+ * written with, so a loader can tell whether its classes can be defined as-is.</p>
+ *
+ * <p>Closing the jar releases its file handle. It is opened again if more classes are read from it later.</p>
+ */
+public class PreinstrumentedJar implements Closeable {
+  static final String INSTRUMENTATION_KEY_ENTRY = "META-INF/robolectric/instrumentation-key";
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File file;
+  private ZipFile zipFile;
+  private final String instrumentationKey;
+
+  public PreinstrumentedJar(File file) throws IOException {
+    this.file = file;
+    this.zipFile = new ZipFile(file);
+    ZipEntry keyEntry = zipFile.getEntry(INSTRUMENTATION_KEY_ENTRY);
+    if (keyEntry == null) {
+      this.instrumentationKey = null;
+    } else {
+      try (InputStream in = zipFile.getInputStream(keyEntry)) {
+        this.instrumentationKey = new String(readBytes(in), UTF_8);
+      }
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return The key of the loader configuration the jar was written with, or null if the jar has none.
+   */
+  public String getInstrumentationKey() {
+    return instrumentationKey;
+  }
+
+  /**
+   * Read the instrumented bytecode of a class.
+   *
+   * @param className Name of the class.
+   * @return The instrumented bytecode, or null if the class isn't in this jar or can't be read.
+   */
+  public byte[] getClassBytes(String className) {
+    try {
+      ZipFile zipFile = getZipFile();
+      ZipEntry entry = zipFile.getEntry(className.replace('.', '/') + ".class");
+      if (entry == null) return null;
+
+      try (InputStream in = zipFile.getInputStream(entry)) {
+        return readBytes(in);
+      }
+    } catch (IOException e) {
+      Logger.info("couldn't read %s from %s: %s", className, file, e.getMessage());
+      return null;
+    }
+  }
+
+  private synchronized ZipFile getZipFile() throws IOException {
+    if (zipFile == null) {
+      zipFile = new ZipFile(file);
+    }
+    return zipFile;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (zipFile != null) {
+      zipFile.close();
+      zipFile = null;
+    }
+  }
+}
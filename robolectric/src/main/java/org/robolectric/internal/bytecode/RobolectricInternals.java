@@ -3,11 +3,34 @@ package org.robolectric.internal.bytecode;
 import org.robolectric.util.ReflectionHelpers;
 import org.robolectric.internal.ShadowConstants;
 
+import java.lang.invoke.SwitchPoint;
+
 public class RobolectricInternals {
 
   @SuppressWarnings("UnusedDeclaration")
   private static ClassHandler classHandler; // initialized via magic by SdkEnvironment
 
+  private static SwitchPoint classHandlerSwitchPoint = new SwitchPoint();
+
+  /**
+   * Install the class handler for this class loader, invalidating any invokedynamic call sites linked
+   * against the previous one.
+   *
+   * @param newClassHandler The class handler to install.
+   */
+  public static synchronized void setClassHandler(ClassHandler newClassHandler) {
+    if (newClassHandler == classHandler) return;
+
+    classHandler = newClassHandler;
+    SwitchPoint oldSwitchPoint = classHandlerSwitchPoint;
+    classHandlerSwitchPoint = new SwitchPoint();
+    SwitchPoint.invalidateAll(new SwitchPoint[] { oldSwitchPoint });
+  }
+
+  static synchronized SwitchPoint getClassHandlerSwitchPoint() {
+    return classHandlerSwitchPoint;
+  }
+
   @SuppressWarnings("UnusedDeclaration")
   public static void classInitializing(Class clazz) throws Exception {
     classHandler.classInitializing(clazz);
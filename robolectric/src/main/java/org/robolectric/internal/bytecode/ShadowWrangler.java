@@ -9,8 +9,14 @@ import org.robolectric.internal.ShadowConstants;
 import org.robolectric.internal.Shadow;
 import org.robolectric.util.ReflectionHelpers.ClassParameter;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ShadowWrangler implements ClassHandler {
   public static final Function<Object, Object> DO_NOTHING_HANDLER = new Function<Object, Object>() {
@@ -27,17 +33,23 @@ public class ShadowWrangler implements ClassHandler {
   };
   public static final Plan CALL_REAL_CODE_PLAN = null;
   private static final boolean STRIP_SHADOW_STACK_TRACES = true;
+  // set robolectric.shadowDispatch=reflection to call shadow methods via java.lang.reflect rather than method handles
+  private static final boolean REFLECTIVE_SHADOW_DISPATCH = "reflection".equals(System.getProperty("robolectric.shadowDispatch"));
   private static final ShadowConfig NO_SHADOW_CONFIG = new ShadowConfig(Object.class.getName(), true, false, false);
   private static final Object NO_SHADOW = new Object();
   private final ShadowMap shadowMap;
-  private final Map<Class, MetaShadow> metaShadowMap = new HashMap<>();
-  private final Map<String, Plan> planCache = new LinkedHashMap<String, Plan>() {
+  private final ConcurrentMap<Class, MetaShadow> metaShadowMap = new ConcurrentHashMap<>();
+  private static final Plan CALL_REAL_CODE_PLAN_MARKER = new Plan() {
     @Override
-    protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
-      return size() > 500;
+    public Object run(Object instance, Object roboData, Object[] params) throws Throwable {
+      throw new IllegalStateException("marker plan should never be run");
     }
   };
-  private final Map<Class, ShadowConfig> shadowConfigCache = new HashMap<>();
+  private final ConcurrentMap<String, Plan> planCache = new ConcurrentHashMap<>();
+  private final AtomicLong planCacheHits = new AtomicLong();
+  private final AtomicLong planCacheMisses = new AtomicLong();
+  private final AtomicLong planCalculationNanos = new AtomicLong();
+  private final ConcurrentMap<Class, ShadowConfig> shadowConfigCache = new ConcurrentHashMap<>();
   public static final HashMap<String, Object> PRIMITIVE_RETURN_VALUES = new HashMap<>();
 
   static {
@@ -108,10 +120,29 @@ public class ShadowWrangler implements ClassHandler {
 
   @Override
   public Plan methodInvoked(String signature, boolean isStatic, Class<?> theClass) {
-    if (planCache.containsKey(signature)) return planCache.get(signature);
-    Plan plan = calculatePlan(signature, isStatic, theClass);
-    planCache.put(signature, plan);
-    return plan;
+    Plan plan = planCache.get(signature);
+    if (plan != null) {
+      planCacheHits.incrementAndGet();
+    } else {
+      planCacheMisses.incrementAndGet();
+      long startTime = System.nanoTime();
+      plan = calculatePlan(signature, isStatic, theClass);
+      planCalculationNanos.addAndGet(System.nanoTime() - startTime);
+
+      if (plan == CALL_REAL_CODE_PLAN) plan = CALL_REAL_CODE_PLAN_MARKER;
+      Plan racingPlan = planCache.putIfAbsent(signature, plan);
+      if (racingPlan != null) plan = racingPlan;
+    }
+    return plan == CALL_REAL_CODE_PLAN_MARKER ? CALL_REAL_CODE_PLAN : plan;
+  }
+
+  /**
+   * Snapshot of this handler's plan cache counters, for checking how well plans are being reused.
+   *
+   * @return Current plan cache statistics.
+   */
+  public PlanCacheStats getPlanCacheStats() {
+    return new PlanCacheStats(planCacheHits.get(), planCacheMisses.get(), planCalculationNanos.get(), planCache.size());
   }
 
   private Plan calculatePlan(String signature, boolean isStatic, Class<?> theClass) {
@@ -159,7 +190,7 @@ public class ShadowWrangler implements ClassHandler {
         if (shadowClassMismatch && (!shadowConfig.inheritImplementationMethods || strict(invocationProfile))) {
           return CALL_REAL_CODE_PLAN;
         } else {
-          return new ShadowMethodPlan(shadowMethod);
+          return createShadowMethodPlan(shadowMethod);
         }
       } catch (ClassNotFoundException e) {
         throw new RuntimeException(e);
@@ -167,11 +198,15 @@ public class ShadowWrangler implements ClassHandler {
     }
   }
 
+  static Plan createShadowMethodPlan(Method shadowMethod) {
+    return REFLECTIVE_SHADOW_DISPATCH ? new ShadowMethodPlan(shadowMethod) : new ShadowMethodHandlePlan(shadowMethod);
+  }
+
   private ShadowConfig getShadowConfig(Class clazz) {
     ShadowConfig shadowConfig = shadowConfigCache.get(clazz);
     if (shadowConfig == null) {
       shadowConfig = shadowMap.get(clazz);
-      shadowConfigCache.put(clazz, shadowConfig == null ? NO_SHADOW_CONFIG : shadowConfig);
+      shadowConfigCache.putIfAbsent(clazz, shadowConfig == null ? NO_SHADOW_CONFIG : shadowConfig);
       return shadowConfig;
     } else {
       return (shadowConfig == NO_SHADOW_CONFIG) ? null : shadowConfig;
@@ -337,7 +372,7 @@ public class ShadowWrangler implements ClassHandler {
           continue;
         }
 
-        if (className.equals(ShadowMethodPlan.class.getName())) {
+        if (className.equals(ShadowMethodPlan.class.getName()) || className.equals(ShadowMethodHandlePlan.class.getName())) {
           continue;
         }
 
@@ -347,7 +382,7 @@ public class ShadowWrangler implements ClassHandler {
               stackTraceElement.getFileName(), stackTraceElement.getLineNumber());
         }
 
-        if (className.startsWith("sun.reflect.") || className.startsWith("java.lang.reflect.")) {
+        if (className.startsWith("sun.reflect.") || className.startsWith("java.lang.reflect.") || className.startsWith("java.lang.invoke.")) {
           continue;
         }
 
@@ -396,14 +431,16 @@ public class ShadowWrangler implements ClassHandler {
   }
 
   private MetaShadow getMetaShadow(Class<?> shadowClass) {
-    synchronized (metaShadowMap) {
-      MetaShadow metaShadow = metaShadowMap.get(shadowClass);
-      if (metaShadow == null) {
-        metaShadow = new MetaShadow(shadowClass);
-        metaShadowMap.put(shadowClass, metaShadow);
+    MetaShadow metaShadow = metaShadowMap.get(shadowClass);
+    if (metaShadow == null) {
+      // racing threads may both build one; they're equivalent, and only the first is kept
+      metaShadow = new MetaShadow(shadowClass);
+      MetaShadow racingMetaShadow = metaShadowMap.putIfAbsent(shadowClass, metaShadow);
+      if (racingMetaShadow != null) {
+        metaShadow = racingMetaShadow;
       }
-      return metaShadow;
     }
+    return metaShadow;
   }
 
   private Class<?> findDirectShadowClass(Class<?> originalClass) {
@@ -422,7 +459,7 @@ public class ShadowWrangler implements ClassHandler {
     }
   }
 
-  private static class ShadowMethodPlan implements Plan {
+  static class ShadowMethodPlan implements Plan {
     private final Method shadowMethod;
 
     public ShadowMethodPlan(Method shadowMethod) {
@@ -436,14 +473,107 @@ public class ShadowWrangler implements ClassHandler {
       try {
         return shadowMethod.invoke(shadow, params);
       } catch (IllegalArgumentException e) {
-        throw new IllegalArgumentException("attempted to invoke " + shadowMethod
-            + (shadow == null ? "" : " on instance of " + shadow.getClass() + ", but " + shadow.getClass().getSimpleName() + " doesn't extend " + shadowMethod.getDeclaringClass().getSimpleName()));
+        throw wrongShadowType(shadowMethod, shadow);
       } catch (InvocationTargetException e) {
         throw e.getCause();
       }
     }
   }
 
+  /**
+   * Calls a shadow method through a method handle bound when the plan is created, which avoids the access
+   * checks and argument copying that {@link Method#invoke(Object, Object...)} performs on every call.
+   */
+  static class ShadowMethodHandlePlan implements Plan {
+    private static final MethodType GENERIC_INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    private final Method shadowMethod;
+    private final Class<?> shadowClass;
+    private final MethodHandle invoker;
+
+    public ShadowMethodHandlePlan(Method shadowMethod) {
+      this.shadowMethod = shadowMethod;
+      boolean isStatic = Modifier.isStatic(shadowMethod.getModifiers());
+      this.shadowClass = isStatic ? null : shadowMethod.getDeclaringClass();
+
+      MethodHandle methodHandle;
+      try {
+        shadowMethod.setAccessible(true);
+        methodHandle = MethodHandles.lookup().unreflect(shadowMethod).asFixedArity();
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+      if (isStatic) {
+        methodHandle = MethodHandles.dropArguments(methodHandle, 0, Object.class);
+      }
+      this.invoker = methodHandle
+          .asSpreader(Object[].class, shadowMethod.getParameterTypes().length)
+          .asType(GENERIC_INVOKER_TYPE);
+    }
+
+    @Override
+    public Object run(Object instance, Object roboData, Object[] params) throws Throwable {
+      //noinspection UnnecessaryLocalVariable
+      Object shadow = roboData;
+      if (shadowClass != null && shadow != null && !shadowClass.isInstance(shadow)) {
+        throw wrongShadowType(shadowMethod, shadow);
+      }
+      return (Object) invoker.invokeExact(shadow, params);
+    }
+  }
+
+  private static IllegalArgumentException wrongShadowType(Method shadowMethod, Object shadow) {
+    return new IllegalArgumentException("attempted to invoke " + shadowMethod
+        + (shadow == null ? "" : " on instance of " + shadow.getClass() + ", but " + shadow.getClass().getSimpleName() + " doesn't extend " + shadowMethod.getDeclaringClass().getSimpleName()));
+  }
+
+  /**
+   * Counters describing the effectiveness of a {@link ShadowWrangler}'s plan cache.
+   */
+  public static class PlanCacheStats {
+    private final long hits;
+    private final long misses;
+    private final long calculationNanos;
+    private final int size;
+
+    public PlanCacheStats(long hits, long misses, long calculationNanos, int size) {
+      this.hits = hits;
+      this.misses = misses;
+      this.calculationNanos = calculationNanos;
+      this.size = size;
+    }
+
+    /** Number of lookups answered from the cache. */
+    public long getHits() {
+      return hits;
+    }
+
+    /** Number of lookups that had to calculate a plan. */
+    public long getMisses() {
+      return misses;
+    }
+
+    /** Total time spent calculating plans on cache misses, in nanoseconds. */
+    public long getCalculationNanos() {
+      return calculationNanos;
+    }
+
+    /** Number of plans currently cached. */
+    public int getSize() {
+      return size;
+    }
+
+    @Override
+    public String toString() {
+      return "PlanCacheStats{" +
+          "hits=" + hits +
+          ", misses=" + misses +
+          ", calculationMillis=" + calculationNanos / 1000000 +
+          ", size=" + size +
+          '}';
+    }
+  }
+
   private class MetaShadow {
     final List<Field> realObjectFields = new ArrayList<>();
 
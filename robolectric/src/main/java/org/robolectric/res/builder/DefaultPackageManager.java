@@ -12,7 +12,6 @@ import android.content.pm.ResolveInfo;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.PatternMatcher;
 import android.util.Pair;
 
 import java.io.File;
@@ -34,7 +33,6 @@ import org.robolectric.manifest.ActivityData;
 import org.robolectric.manifest.AndroidManifest;
 import org.robolectric.manifest.BroadcastReceiverData;
 import org.robolectric.manifest.ContentProviderData;
-import org.robolectric.manifest.IntentFilterData;
 import org.robolectric.res.ResName;
 import org.robolectric.res.ResourceIndex;
 import org.robolectric.res.ResourceLoader;
@@ -111,6 +109,7 @@ public class DefaultPackageManager extends StubPackageManager implements Robolec
   private final ShadowsAdapter shadowsAdapter;
   private final Map<String, AndroidManifest> androidManifests = new LinkedHashMap<>();
   private final Map<String, PackageInfo> packageInfos = new LinkedHashMap<>();
+  private final Map<String, IntentFilterIndex> intentFilterIndexes = new HashMap<>();
   private Map<Intent, List<ResolveInfo>> resolveInfoForIntent = new TreeMap<>(new IntentComparator());
   private Map<ComponentName, ComponentState> componentList = new LinkedHashMap<>();
   private Map<ComponentName, Drawable> drawableList = new LinkedHashMap<>();
@@ -411,6 +410,7 @@ public class DefaultPackageManager extends StubPackageManager implements Robolec
   @Override
   public void addManifest(AndroidManifest androidManifest, ResourceLoader loader) {
     androidManifests.put(androidManifest.getPackageName(), androidManifest);
+    intentFilterIndexes.remove(androidManifest.getPackageName());
     ResourceIndex resourceIndex = loader.getResourceIndex();
 
     // first opportunity to access a resource index for this manifest, use it to init the references
@@ -543,88 +543,25 @@ public class DefaultPackageManager extends StubPackageManager implements Robolec
 
     for (Map.Entry<String, AndroidManifest> androidManifest : androidManifests.entrySet()) {
       String packageName = androidManifest.getKey();
-      AndroidManifest appManifest = androidManifest.getValue();
-
-      for (Map.Entry<String, ActivityData> activity : appManifest.getActivityDatas().entrySet()) {
-        String activityName = activity.getKey();
-        ActivityData activityData = activity.getValue();
-        if (activityData.getTargetActivity() != null) {
-          activityName = activityData.getTargetActivityName();
-        }
+      IntentFilterIndex intentFilterIndex = intentFilterIndexes.get(packageName);
+      if (intentFilterIndex == null) {
+        intentFilterIndex = new IntentFilterIndex(androidManifest.getValue());
+        intentFilterIndexes.put(packageName, intentFilterIndex);
+      }
 
-        if (matchIntentFilter(activityData, intent)) {
-          ResolveInfo resolveInfo = new ResolveInfo();
-          resolveInfo.resolvePackageName = packageName;
-          resolveInfo.activityInfo = new ActivityInfo();
-          resolveInfo.activityInfo.targetActivity = activityName;
+      for (String activityName : intentFilterIndex.match(intent)) {
+        ResolveInfo resolveInfo = new ResolveInfo();
+        resolveInfo.resolvePackageName = packageName;
+        resolveInfo.activityInfo = new ActivityInfo();
+        resolveInfo.activityInfo.targetActivity = activityName;
 
-          resolveInfoList.add(resolveInfo);
-        }
+        resolveInfoList.add(resolveInfo);
       }
     }
 
     return resolveInfoList;
   }
 
-  private boolean matchIntentFilter(ActivityData activityData, Intent intent) {
-    for (IntentFilterData intentFilterData : activityData.getIntentFilters()) {
-      List<String> actionList = intentFilterData.getActions();
-      List<String> categoryList = intentFilterData.getCategories();
-      IntentFilter intentFilter = new IntentFilter();
-
-      for (String action : actionList) {
-        intentFilter.addAction(action);
-      }
-
-      for (String category : categoryList) {
-        intentFilter.addCategory(category);
-      }
-
-      for (String scheme : intentFilterData.getSchemes()) {
-        intentFilter.addDataScheme(scheme);
-      }
-
-      for (String mimeType : intentFilterData.getMimeTypes()) {
-        try {
-          intentFilter.addDataType(mimeType);
-        } catch (IntentFilter.MalformedMimeTypeException ex) {
-          throw new RuntimeException(ex);
-        }
-      }
-
-      for (String path : intentFilterData.getPaths()) {
-        intentFilter.addDataPath(path, PatternMatcher.PATTERN_LITERAL);
-      }
-
-      for (String pathPattern : intentFilterData.getPathPatterns()) {
-        intentFilter.addDataPath(pathPattern, PatternMatcher.PATTERN_SIMPLE_GLOB);
-      }
-
-      for (String pathPrefix : intentFilterData.getPathPrefixes()) {
-        intentFilter.addDataPath(pathPrefix, PatternMatcher.PATTERN_PREFIX);
-      }
-
-      for (IntentFilterData.DataAuthority authority : intentFilterData.getAuthorities()) {
-        intentFilter.addDataAuthority(authority.getHost(), authority.getPort());
-      }
-
-      // match action
-      boolean matchActionResult = intentFilter.matchAction(intent.getAction());
-      // match category
-      String matchCategoriesResult = intentFilter.matchCategories(intent.getCategories());
-      // match data
-
-      int matchResult = intentFilter.matchData(intent.getType(),
-          (intent.getData() != null ? intent.getData().getScheme() : null),
-          intent.getData());
-      if (matchActionResult && (matchCategoriesResult == null) &&
-          (matchResult != IntentFilter.NO_MATCH_DATA && matchResult != IntentFilter.NO_MATCH_TYPE)){
-        return true;
-      }
-    }
-    return false;
-  }
-
   @Override
   public boolean isQueryIntentImplicitly() {
     return queryIntentImplicitly;
@@ -0,0 +1,133 @@
+package org.robolectric.res.builder;
+
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.PatternMatcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.robolectric.manifest.ActivityData;
+import org.robolectric.manifest.AndroidManifest;
+import org.robolectric.manifest.IntentFilterData;
+
+/**
+ * The intent filters of a manifest's activities, compiled into {@link IntentFilter}s once and indexed by action,
+ * which an intent has to match before its categories and data are looked at.
+ */
+class IntentFilterIndex {
+  private final Map<String, List<Entry>> entriesByAction = new HashMap<>();
+
+  IntentFilterIndex(AndroidManifest androidManifest) {
+    int activityIndex = 0;
+    for (Map.Entry<String, ActivityData> activity : androidManifest.getActivityDatas().entrySet()) {
+      String activityName = activity.getKey();
+      ActivityData activityData = activity.getValue();
+      if (activityData.getTargetActivity() != null) {
+        activityName = activityData.getTargetActivityName();
+      }
+
+      for (IntentFilterData intentFilterData : activityData.getIntentFilters()) {
+        Entry entry = new Entry(activityIndex, activityName, compile(intentFilterData));
+        for (String action : intentFilterData.getActions()) {
+          List<Entry> entries = entriesByAction.get(action);
+          if (entries == null) {
+            entries = new ArrayList<>();
+            entriesByAction.put(action, entries);
+          }
+          entries.add(entry);
+        }
+      }
+      activityIndex++;
+    }
+  }
+
+  /**
+   * @param intent Intent to resolve.
+   * @return Names of the activities with a filter matching the intent, in the order they are declared.
+   */
+  List<String> match(Intent intent) {
+    List<Entry> entries = entriesByAction.get(intent.getAction());
+    if (entries == null) {
+      return Collections.emptyList();
+    }
+
+    List<String> activityNames = new ArrayList<>();
+    int lastMatchedActivity = -1;
+    for (Entry entry : entries) {
+      // An activity's filters are next to each other, so one which matched already is the last one matched.
+      if (entry.activityIndex != lastMatchedActivity && matches(entry.filter, intent)) {
+        activityNames.add(entry.activityName);
+        lastMatchedActivity = entry.activityIndex;
+      }
+    }
+    return activityNames;
+  }
+
+  private static boolean matches(IntentFilter intentFilter, Intent intent) {
+    if (intentFilter.matchCategories(intent.getCategories()) != null) {
+      return false;
+    }
+    int matchResult = intentFilter.matchData(intent.getType(),
+        (intent.getData() != null ? intent.getData().getScheme() : null),
+        intent.getData());
+    return matchResult != IntentFilter.NO_MATCH_DATA && matchResult != IntentFilter.NO_MATCH_TYPE;
+  }
+
+  private static IntentFilter compile(IntentFilterData intentFilterData) {
+    IntentFilter intentFilter = new IntentFilter();
+
+    for (String action : intentFilterData.getActions()) {
+      intentFilter.addAction(action);
+    }
+
+    for (String category : intentFilterData.getCategories()) {
+      intentFilter.addCategory(category);
+    }
+
+    for (String scheme : intentFilterData.getSchemes()) {
+      intentFilter.addDataScheme(scheme);
+    }
+
+    for (String mimeType : intentFilterData.getMimeTypes()) {
+      try {
+        intentFilter.addDataType(mimeType);
+      } catch (IntentFilter.MalformedMimeTypeException ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+
+    for (String path : intentFilterData.getPaths()) {
+      intentFilter.addDataPath(path, PatternMatcher.PATTERN_LITERAL);
+    }
+
+    for (String pathPattern : intentFilterData.getPathPatterns()) {
+      intentFilter.addDataPath(pathPattern, PatternMatcher.PATTERN_SIMPLE_GLOB);
+    }
+
+    for (String pathPrefix : intentFilterData.getPathPrefixes()) {
+      intentFilter.addDataPath(pathPrefix, PatternMatcher.PATTERN_PREFIX);
+    }
+
+    for (IntentFilterData.DataAuthority authority : intentFilterData.getAuthorities()) {
+      intentFilter.addDataAuthority(authority.getHost(), authority.getPort());
+    }
+
+    return intentFilter;
+  }
+
+  private static class Entry {
+    final int activityIndex;
+    final String activityName;
+    final IntentFilter filter;
+
+    Entry(int activityIndex, String activityName, IntentFilter filter) {
+      this.activityIndex = activityIndex;
+      this.activityName = activityName;
+      this.filter = filter;
+    }
+  }
+}
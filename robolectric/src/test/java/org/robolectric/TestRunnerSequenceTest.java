@@ -7,14 +7,18 @@ import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.model.InitializationError;
 import org.robolectric.annotation.Config;
+import org.robolectric.internal.bytecode.ClassHandler;
 import org.robolectric.internal.bytecode.InstrumentationConfiguration;
+import org.robolectric.internal.SdkConfig;
 import org.robolectric.internal.SdkEnvironment;
+import org.robolectric.internal.bytecode.ShadowMap;
 import org.robolectric.manifest.AndroidManifest;
 import org.robolectric.res.FsFile;
 import org.robolectric.util.Transcript;
 
 import java.lang.reflect.Method;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
 import static org.junit.Assert.assertTrue;
 import static org.robolectric.util.TestUtil.resourceFile;
@@ -72,6 +76,26 @@ public class TestRunnerSequenceTest {
     assertTrue(robolectricTestRunner.allStateIsCleared());
   }
 
+  @Test public void shouldReuseClassHandlerAcrossRunners() throws Exception {
+    StateHolder.transcript = new Transcript();
+    Runner firstRunner = new Runner(SimpleTest.class);
+    assertNoFailures(run(firstRunner));
+    Runner secondRunner = new Runner(SimpleTest.class);
+    assertNoFailures(run(secondRunner));
+
+    assertThat(firstRunner.classHandlersCreated).isLessThanOrEqualTo(1);
+    assertThat(secondRunner.classHandlersCreated).isEqualTo(0);
+  }
+
+  @Test public void shouldNotReuseClassHandlerFromRunnersCreatingThemDifferently() throws Exception {
+    StateHolder.transcript = new Transcript();
+    assertNoFailures(run(new Runner(SimpleTest.class)));
+    RunnerWithOwnClassHandler otherRunner = new RunnerWithOwnClassHandler(SimpleTest.class);
+    assertNoFailures(run(otherRunner));
+
+    assertThat(otherRunner.classHandlersCreated).isEqualTo(1);
+  }
+
   public static class SimpleTest {
     @Test public void shouldDoNothingMuch() throws Exception {
       StateHolder.transcript.add("TEST!");
@@ -95,10 +119,17 @@ public class TestRunnerSequenceTest {
   }
 
   public static class Runner extends RobolectricTestRunner {
+    int classHandlersCreated;
+
     public Runner(Class<?> testClass) throws InitializationError {
       super(testClass);
     }
 
+    @Override protected ClassHandler createClassHandler(ShadowMap shadowMap, SdkConfig sdkConfig) {
+      classHandlersCreated++;
+      return super.createClassHandler(shadowMap, sdkConfig);
+    }
+
     @Override public InstrumentationConfiguration createClassLoaderConfig() {
       return InstrumentationConfiguration.newBuilder()
           .doNotAquireClass(StateHolder.class.getName())
@@ -120,6 +151,16 @@ public class TestRunnerSequenceTest {
     }
   }
 
+  public static class RunnerWithOwnClassHandler extends Runner {
+    public RunnerWithOwnClassHandler(Class<?> testClass) throws InitializationError {
+      super(testClass);
+    }
+
+    @Override protected ClassHandler createClassHandler(ShadowMap shadowMap, SdkConfig sdkConfig) {
+      return super.createClassHandler(shadowMap, sdkConfig);
+    }
+  }
+
   public static class MyTestLifecycle extends DefaultTestLifecycle {
     @Override public Application createApplication(Method method, AndroidManifest appManifest, Config config) {
       StateHolder.transcript.add("createApplication");
@@ -0,0 +1,66 @@
+package org.robolectric.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.robolectric.R;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.internal.bytecode.ShadowMap;
+import org.robolectric.internal.bytecode.ShadowWrangler;
+import org.robolectric.test.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SdkEnvironmentTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void shouldReadResourceIdsFromRClassFiles() throws Exception {
+    File jar = temporaryFolder.newFile("android-all.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      copyClass(out, R.string.class, "android/R$string.class");
+      copyClass(out, R.style.class, "android/R$style.class");
+      copyClass(out, R.string.class, "com/android/internal/R$string.class");
+    }
+
+    try (JarFile jarFile = new JarFile(jar)) {
+      Map<String, Map<String, Integer>> ids = SdkEnvironment.readResourceIds(jarFile, "android/R$");
+      assertThat(ids.keySet()).containsOnly("string", "style");
+      assertThat(ids.get("string").get("hello")).isEqualTo(R.string.hello);
+      assertThat(ids.get("style").get("Theme_AnotherTheme")).isEqualTo(R.style.Theme_AnotherTheme);
+    }
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void classHandlersByShadowMap_shouldBeBackedByTheDefaultRunnersClassHandlers() throws Exception {
+    SdkEnvironment sdkEnvironment = new SdkEnvironment(null, getClass().getClassLoader());
+    ShadowMap shadowMap = ShadowMap.EMPTY;
+    ShadowWrangler shadowWrangler = new ShadowWrangler(shadowMap);
+
+    sdkEnvironment.classHandlersByShadowMap.put(shadowMap, shadowWrangler);
+    assertThat(sdkEnvironment.getClassHandler(RobolectricTestRunner.class, shadowMap)).isSameAs(shadowWrangler);
+    assertThat(sdkEnvironment.classHandlersByShadowMap.get(shadowMap)).isSameAs(shadowWrangler);
+
+    sdkEnvironment.putClassHandler(SdkEnvironmentTest.class, shadowMap, new ShadowWrangler(shadowMap));
+    assertThat(sdkEnvironment.classHandlersByShadowMap).hasSize(1).containsEntry(shadowMap, shadowWrangler);
+  }
+
+  private static void copyClass(JarOutputStream out, Class<?> clazz, String entryName) throws Exception {
+    out.putNextEntry(new JarEntry(entryName));
+    try (InputStream in = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class")) {
+      byte[] buffer = new byte[8192];
+      for (int count = in.read(buffer); count != -1; count = in.read(buffer)) {
+        out.write(buffer, 0, count);
+      }
+    }
+    out.closeEntry();
+  }
+}
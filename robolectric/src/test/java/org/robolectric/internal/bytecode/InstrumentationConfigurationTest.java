@@ -50,6 +50,31 @@ public class InstrumentationConfigurationTest {
     assertThat(config.shouldAcquire("com.whatever.R$anything$else")).isTrue();
   }
 
+  @Test
+  public void shouldNotAcquireRClassesWithUnusualNames() throws Exception {
+    assertThat(config.shouldAcquire("com.whatever.R$")).isTrue();
+    assertThat(config.shouldAcquire("com.whatever.R$Anything")).isTrue();
+    assertThat(config.shouldAcquire("com.whatever.R$id1")).isTrue();
+    assertThat(config.shouldAcquire("R")).isTrue();
+  }
+
+  @Test
+  public void shouldAcquireInternalRClasses() throws Exception {
+    assertThat(config.shouldAcquire("com.android.internal.R")).isTrue();
+    assertThat(config.shouldAcquire("com.android.internal.R$styleable")).isTrue();
+    assertThat(config.shouldAcquire("com.android.internal.R$anything$else")).isTrue();
+    assertThat(config.shouldAcquire("android.R$styleable")).isTrue();
+    assertThat(config.shouldAcquire("android.R$id")).isFalse();
+  }
+
+  @Test
+  public void shouldReturnSameAnswerWhenAskedAgain() throws Exception {
+    assertThat(config.shouldAcquire("com.whatever.R")).isFalse();
+    assertThat(config.shouldAcquire("com.whatever.R")).isFalse();
+    assertThat(config.shouldAcquire("android.content.Intent")).isTrue();
+    assertThat(config.shouldAcquire("android.content.Intent")).isTrue();
+  }
+
   @Test
   public void shouldNotAcquireExcludedPackages() throws Exception {
     assertThat(config.shouldAcquire("scala.Test")).isFalse();
@@ -0,0 +1,69 @@
+package org.robolectric.internal.bytecode;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.robolectric.test.TemporaryFolder;
+
+import java.io.File;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InstrumentedClassCacheTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final byte[] origBytes = new byte[] { 1, 2, 3 };
+  private final byte[] instrumentedBytes = new byte[] { 4, 5, 6, 7 };
+
+  @Test
+  public void shouldReturnNullWhenCacheIsEmpty() throws Exception {
+    InstrumentedClassCache cache = new InstrumentedClassCache(temporaryFolder.newFolder("cache"), 1024);
+
+    assertThat(cache.get("config", origBytes)).isNull();
+  }
+
+  @Test
+  public void shouldReturnInstrumentedBytesForSameOriginalBytesAndConfiguration() throws Exception {
+    File dir = temporaryFolder.newFolder("cache");
+    new InstrumentedClassCache(dir, 1024).put("config", origBytes, instrumentedBytes);
+
+    assertThat(new InstrumentedClassCache(dir, 1024).get("config", origBytes)).isEqualTo(instrumentedBytes);
+  }
+
+  @Test
+  public void shouldMissWhenConfigurationOrOriginalBytesDiffer() throws Exception {
+    InstrumentedClassCache cache = new InstrumentedClassCache(temporaryFolder.newFolder("cache"), 1024);
+    cache.put("config", origBytes, instrumentedBytes);
+
+    assertThat(cache.get("other-config", origBytes)).isNull();
+    assertThat(cache.get("config", new byte[] { 1, 2, 3, 4 })).isNull();
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedEntriesWhenOverSizeCap() throws Exception {
+    InstrumentedClassCache cache = new InstrumentedClassCache(temporaryFolder.newFolder("cache"), 11);
+    byte[] first = new byte[] { 1 };
+    byte[] second = new byte[] { 2 };
+    byte[] third = new byte[] { 3 };
+
+    cache.put("config", first, instrumentedBytes);
+    cache.put("config", second, instrumentedBytes);
+    backdate(cache, "config", first, 2000);
+    backdate(cache, "config", second, 1000);
+    cache.put("config", third, instrumentedBytes);
+
+    assertThat(cache.get("config", first)).isNull();
+    assertThat(cache.get("config", second)).isEqualTo(instrumentedBytes);
+    assertThat(cache.get("config", third)).isEqualTo(instrumentedBytes);
+  }
+
+  @Test
+  public void digestShouldBeStable() throws Exception {
+    assertThat(InstrumentedClassCache.digest("a", "b")).isEqualTo(InstrumentedClassCache.digest("a", "b"));
+    assertThat(InstrumentedClassCache.digest("a", "b")).isNotEqualTo(InstrumentedClassCache.digest("ab"));
+  }
+
+  private void backdate(InstrumentedClassCache cache, String configurationKey, byte[] origBytes, long millis) {
+    File entry = cache.entryFileFor(configurationKey, origBytes);
+    assertThat(entry.setLastModified(entry.lastModified() - millis)).isTrue();
+  }
+}
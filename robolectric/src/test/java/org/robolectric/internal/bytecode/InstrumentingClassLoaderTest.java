@@ -41,6 +41,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.concurrent.CountDownLatch;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertArrayEquals;
@@ -136,6 +137,35 @@ public class InstrumentingClassLoaderTest {
         "methodInvoked: AnExampleClass.normalMethod(java.lang.String value1, int 123)");
   }
 
+  @Test
+  public void withInvokeDynamic_callingNormalMethodShouldInvokeClassHandler() throws Exception {
+    setClassLoader(new InstrumentingClassLoader(InstrumentationConfiguration.newBuilder().useInvokeDynamic(true).build()));
+    Class<?> exampleClass = loadClass(AnExampleClass.class);
+    Method normalMethod = exampleClass.getMethod("normalMethod", String.class, int.class);
+
+    Object exampleInstance = exampleClass.newInstance();
+    assertEquals("response from methodInvoked: AnExampleClass.normalMethod(java.lang.String value1, int 123)",
+        normalMethod.invoke(exampleInstance, "value1", 123));
+    transcript.assertEventsSoFar("methodInvoked: AnExampleClass.__constructor__()",
+        "methodInvoked: AnExampleClass.normalMethod(java.lang.String value1, int 123)");
+  }
+
+  @Test
+  public void withInvokeDynamic_shouldRelinkCallSitesWhenClassHandlerChanges() throws Exception {
+    setClassLoader(new InstrumentingClassLoader(InstrumentationConfiguration.newBuilder().useInvokeDynamic(true).build()));
+    Class<?> exampleClass = loadClass(AClassWithStaticMethod.class);
+    Method staticMethod = exampleClass.getMethod("staticMethod", String.class);
+    staticMethod.invoke(null, "value1");
+    transcript.assertEventsSoFar("methodInvoked: AClassWithStaticMethod.staticMethod(java.lang.String value1)");
+
+    Transcript otherTranscript = new Transcript();
+    RobolectricTestRunner.injectClassHandler(classLoader, new MyClassHandler(otherTranscript));
+    staticMethod.invoke(null, "value2");
+
+    transcript.assertNoEventsSoFar();
+    otherTranscript.assertEventsSoFar("methodInvoked: AClassWithStaticMethod.staticMethod(java.lang.String value2)");
+  }
+
   @Test
   public void shouldGenerateClassSpecificDirectAccessMethod() throws Exception {
     Class<?> exampleClass = loadClass(AnExampleClass.class);
@@ -689,4 +719,68 @@ public class InstrumentingClassLoaderTest {
 
     transcript.assertEventsSoFar("find foo.AClass");
   }
+
+  @Test public void shouldLoadClassOnceWhenRequestedConcurrently() throws Exception {
+    final BlockingInstrumentingClassLoader classLoader = new BlockingInstrumentingClassLoader(AnExampleClass.class.getName());
+
+    final Class<?>[] loadedClasses = new Class<?>[4];
+    Thread[] threads = new Thread[loadedClasses.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            loadedClasses[index] = classLoader.loadClass(AnExampleClass.class.getName());
+          } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    classLoader.findStarted.await();
+    // a class with a different name shouldn't have to wait for the blocked one
+    assertThat(classLoader.loadClass(AClassToRemember.class.getName()).getName()).isEqualTo(AClassToRemember.class.getName());
+    classLoader.releaseFind.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    for (Class<?> loadedClass : loadedClasses) {
+      assertThat(loadedClass).isNotNull().isSameAs(loadedClasses[0]);
+    }
+    classLoader.transcript.assertEventsSoFar("find " + AnExampleClass.class.getName(), "find " + AClassToRemember.class.getName());
+  }
+
+  private static class BlockingInstrumentingClassLoader extends InstrumentingClassLoader {
+    static {
+      registerAsParallelCapable();
+    }
+
+    final Transcript transcript = new Transcript();
+    final CountDownLatch findStarted = new CountDownLatch(1);
+    final CountDownLatch releaseFind = new CountDownLatch(1);
+    private final String classNameToBlock;
+
+    BlockingInstrumentingClassLoader(String classNameToBlock) {
+      super(InstrumentationConfiguration.newBuilder().build());
+      this.classNameToBlock = classNameToBlock;
+    }
+
+    @Override
+    protected Class<?> findClass(String className) throws ClassNotFoundException {
+      transcript.add("find " + className);
+      if (className.equals(classNameToBlock)) {
+        findStarted.countDown();
+        try {
+          releaseFind.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return super.findClass(className);
+    }
+  }
 }
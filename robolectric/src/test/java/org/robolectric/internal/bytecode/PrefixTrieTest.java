@@ -0,0 +1,37 @@
+package org.robolectric.internal.bytecode;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrefixTrieTest {
+  @Test
+  public void shouldMatchStringsStartingWithAnyPrefix() throws Exception {
+    PrefixTrie trie = new PrefixTrie(Arrays.asList("java.", "javax.", "org.junit"));
+
+    assertThat(trie.matchesPrefixOf("java.lang.Object")).isTrue();
+    assertThat(trie.matchesPrefixOf("javax.inject.Inject")).isTrue();
+    assertThat(trie.matchesPrefixOf("org.junit.Test")).isTrue();
+    assertThat(trie.matchesPrefixOf("org.junitx.Test")).isTrue();
+    assertThat(trie.matchesPrefixOf("java.")).isTrue();
+  }
+
+  @Test
+  public void shouldNotMatchStringsWithoutAnyPrefix() throws Exception {
+    PrefixTrie trie = new PrefixTrie(Arrays.asList("java.", "javax."));
+
+    assertThat(trie.matchesPrefixOf("java")).isFalse();
+    assertThat(trie.matchesPrefixOf("javaz.Foo")).isFalse();
+    assertThat(trie.matchesPrefixOf("android.app.Activity")).isFalse();
+    assertThat(trie.matchesPrefixOf("")).isFalse();
+  }
+
+  @Test
+  public void emptyPrefixShouldMatchEverything() throws Exception {
+    assertThat(new PrefixTrie(Collections.singletonList("")).matchesPrefixOf("anything")).isTrue();
+    assertThat(new PrefixTrie(Collections.<String>emptyList()).matchesPrefixOf("anything")).isFalse();
+  }
+}
@@ -0,0 +1,87 @@
+package org.robolectric.internal.bytecode;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.robolectric.internal.ShadowedObject;
+import org.robolectric.internal.bytecode.testing.AnExampleClass;
+import org.robolectric.test.TemporaryFolder;
+import org.robolectric.util.Transcript;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.robolectric.util.Util.readBytes;
+
+public class PreinstrumentedJarTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final Transcript transcript = new Transcript();
+
+  @Test
+  public void shouldDefineClassesFromPreinstrumentedJarWithoutInstrumentingThemAgain() throws Exception {
+    InstrumentationConfiguration config = InstrumentationConfiguration.newBuilder().build();
+    File outputJar = writePreinstrumentedJar(config, AnExampleClass.class);
+
+    try (PreinstrumentedJar preinstrumentedJar = new PreinstrumentedJar(outputJar)) {
+      Class<?> exampleClass = newClassLoader(config, preinstrumentedJar).loadClass(AnExampleClass.class.getName());
+
+      assertThat(ShadowedObject.class.isAssignableFrom(exampleClass)).isTrue();
+      transcript.assertNoEventsSoFar();
+    }
+  }
+
+  @Test
+  public void shouldIgnorePreinstrumentedJarWrittenWithDifferentConfiguration() throws Exception {
+    File outputJar = writePreinstrumentedJar(InstrumentationConfiguration.newBuilder().useInvokeDynamic(true).build(), AnExampleClass.class);
+
+    try (PreinstrumentedJar preinstrumentedJar = new PreinstrumentedJar(outputJar)) {
+      newClassLoader(InstrumentationConfiguration.newBuilder().build(), preinstrumentedJar).loadClass(AnExampleClass.class.getName());
+
+      transcript.assertEventsSoFar("getByteCode " + AnExampleClass.class.getName());
+    }
+  }
+
+  @Test
+  public void shouldReopenPreinstrumentedJarAfterClassLoaderIsClosed() throws Exception {
+    InstrumentationConfiguration config = InstrumentationConfiguration.newBuilder().build();
+    File outputJar = writePreinstrumentedJar(config, AnExampleClass.class);
+
+    try (PreinstrumentedJar preinstrumentedJar = new PreinstrumentedJar(outputJar)) {
+      InstrumentingClassLoader classLoader = newClassLoader(config, preinstrumentedJar);
+      classLoader.close();
+      classLoader.loadClass(AnExampleClass.class.getName());
+
+      transcript.assertNoEventsSoFar();
+    }
+  }
+
+  private File writePreinstrumentedJar(InstrumentationConfiguration config, Class<?> clazz) throws Exception {
+    String entryName = clazz.getName().replace('.', '/') + ".class";
+    File inputJar = temporaryFolder.newFile("input.jar");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(inputJar));
+         InputStream in = getClass().getClassLoader().getResourceAsStream(entryName)) {
+      out.putNextEntry(new JarEntry(entryName));
+      out.write(readBytes(in));
+      out.closeEntry();
+    }
+
+    File outputJar = new File(temporaryFolder.newFolder("output"), inputJar.getName());
+    assertThat(new InstrumentedJarWriter(config).write(inputJar, outputJar)).isEqualTo(1);
+    return outputJar;
+  }
+
+  private InstrumentingClassLoader newClassLoader(InstrumentationConfiguration config, PreinstrumentedJar preinstrumentedJar) {
+    return new InstrumentingClassLoader(config, null, Collections.singletonList(preinstrumentedJar)) {
+      @Override
+      protected byte[] getByteCode(String className) throws ClassNotFoundException {
+        transcript.add("getByteCode " + className);
+        return super.getByteCode(className);
+      }
+    };
+  }
+}
@@ -2,9 +2,13 @@ package org.robolectric.internal.bytecode;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
 import org.robolectric.internal.SdkConfig;
+import org.robolectric.internal.bytecode.testing.AnExampleClass;
 import org.robolectric.util.Function;
 
+import java.lang.reflect.Method;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -59,4 +63,116 @@ public class ShadowWranglerUnitTest {
 
     assertThat(result).isNull();
   }
+
+  @Test
+  public void methodInvoked_shouldCacheCallRealCodePlansAndCountHitsAndMisses() throws Exception {
+    String signature = "org/robolectric/internal/bytecode/testing/AnExampleClass/normalMethod(Ljava/lang/String;I)Ljava/lang/String;";
+
+    assertThat(shadowWrangler.methodInvoked(signature, false, AnExampleClass.class)).isNull();
+    assertThat(shadowWrangler.methodInvoked(signature, false, AnExampleClass.class)).isNull();
+    assertThat(shadowWrangler.methodInvoked(signature, false, AnExampleClass.class)).isNull();
+
+    ShadowWrangler.PlanCacheStats stats = shadowWrangler.getPlanCacheStats();
+    assertThat(stats.getMisses()).isEqualTo(1);
+    assertThat(stats.getHits()).isEqualTo(2);
+    assertThat(stats.getSize()).isEqualTo(1);
+  }
+
+  @Test
+  public void methodInvoked_shouldReturnTheSamePlanFromConcurrentCallers() throws Exception {
+    final String signature = "org/robolectric/internal/bytecode/testing/AnExampleClass/normalMethod(Ljava/lang/String;I)Ljava/lang/String;";
+    final ShadowWrangler wrangler = new ShadowWrangler(new ShadowMap.Builder().addShadowClass(
+        AnExampleClass.class.getName(), ShadowAnExampleClass.class.getName(), true, false, false).build());
+    final ClassHandler.Plan[] plans = new ClassHandler.Plan[8];
+    Thread[] threads = new Thread[plans.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          plans[index] = wrangler.methodInvoked(signature, false, AnExampleClass.class);
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    for (ClassHandler.Plan plan : plans) {
+      assertThat(plan).isNotNull().isSameAs(plans[0]);
+    }
+    ShadowWrangler.PlanCacheStats stats = wrangler.getPlanCacheStats();
+    assertThat(stats.getHits() + stats.getMisses()).isEqualTo(plans.length);
+    assertThat(stats.getSize()).isEqualTo(1);
+  }
+
+  @Test
+  public void shadowMethodHandlePlan_shouldInvokeShadowMethodWithUnboxedArguments() throws Throwable {
+    ClassHandler.Plan plan = new ShadowWrangler.ShadowMethodHandlePlan(ShadowAdder.class.getMethod("add", int.class, int.class));
+
+    assertThat(plan.run(null, new ShadowAdder(), new Object[] { 1, 2 })).isEqualTo(3);
+  }
+
+  @Test
+  public void shadowMethodHandlePlan_shouldInvokeStaticShadowMethods() throws Throwable {
+    ClassHandler.Plan plan = new ShadowWrangler.ShadowMethodHandlePlan(ShadowAdder.class.getMethod("describe", String.class));
+
+    assertThat(plan.run(null, null, new Object[] { "x" })).isEqualTo("adder:x");
+  }
+
+  @Test
+  public void shadowMethodHandlePlan_shouldReturnNullForVoidShadowMethods() throws Throwable {
+    ShadowAdder shadow = new ShadowAdder();
+    ClassHandler.Plan plan = new ShadowWrangler.ShadowMethodHandlePlan(ShadowAdder.class.getMethod("reset"));
+
+    assertThat(plan.run(null, shadow, new Object[0])).isNull();
+    assertThat(shadow.resetCount).isEqualTo(1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shadowMethodHandlePlan_shouldRejectShadowsOfTheWrongType() throws Throwable {
+    ClassHandler.Plan plan = new ShadowWrangler.ShadowMethodHandlePlan(ShadowAdder.class.getMethod("reset"));
+
+    plan.run(null, new Object(), new Object[0]);
+  }
+
+  @Test
+  public void shadowMethodPlans_shouldPassVarargsArraysThroughInBothDispatchModes() throws Throwable {
+    Method format = ShadowAdder.class.getMethod("format", String.class, Object[].class);
+    ClassHandler.Plan[] plans = { new ShadowWrangler.ShadowMethodPlan(format), new ShadowWrangler.ShadowMethodHandlePlan(format) };
+
+    for (ClassHandler.Plan plan : plans) {
+      assertThat(plan.run(null, new ShadowAdder(), new Object[] { "%s+%s", new Object[] { 1, 2 } }))
+          .as(plan.getClass().getSimpleName()).isEqualTo("1+2");
+    }
+  }
+
+  @Implements(AnExampleClass.class)
+  public static class ShadowAnExampleClass {
+    @Implementation
+    public String normalMethod(String stringArg, int intArg) {
+      return "shadowed";
+    }
+  }
+
+  public static class ShadowAdder {
+    public int resetCount;
+
+    public int add(int a, int b) {
+      return a + b;
+    }
+
+    public void reset() {
+      resetCount++;
+    }
+
+    public static String describe(String suffix) {
+      return "adder:" + suffix;
+    }
+
+    public String format(String format, Object... args) {
+      return String.format(format, args);
+    }
+  }
 }
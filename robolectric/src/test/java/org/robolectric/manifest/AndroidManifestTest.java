@@ -14,9 +14,11 @@ import org.robolectric.res.Fs;
 import org.robolectric.res.FsFile;
 import org.robolectric.res.ResourcePath;
 import org.robolectric.test.TemporaryFolder;
+import org.robolectric.util.ReflectionHelpers;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -156,6 +158,29 @@ public class AndroidManifestTest {
     assertEquals("@string/app_name", metaValue);
   }
 
+  @Test
+  public void parseManifest_shouldNotShareMetaDataBetweenManifestsWithTheSameContent() throws Exception {
+    AndroidManifest config = newConfig("TestAndroidManifestWithReceivers.xml");
+    config.getBroadcastReceivers().get(4).getMetaData().getValueMap().put("org.robolectric.metaName1", 1);
+    config.getApplicationMetaData().put("org.robolectric.metaName1", 1);
+
+    AndroidManifest sameConfig = newConfig("TestAndroidManifestWithReceivers.xml");
+    assertThat(sameConfig.getBroadcastReceivers()).hasSameSizeAs(config.getBroadcastReceivers());
+    assertThat(sameConfig.getBroadcastReceivers().get(4).getMetaData().getValueMap().get("org.robolectric.metaName1")).isEqualTo("metaValue1");
+    assertThat(sameConfig.getApplicationMetaData()).doesNotContainKey("org.robolectric.metaName1");
+  }
+
+  @Test
+  public void parseManifest_shouldDropParsedManifestsWhichWereCollected() throws Exception {
+    Map<String, SoftReference<AndroidManifest>> parsedManifests =
+        ReflectionHelpers.getStaticField(AndroidManifest.class, "PARSED_MANIFESTS");
+    parsedManifests.put("collected", new SoftReference<AndroidManifest>(null));
+
+    // content no other test uses, so it is parsed rather than found
+    assertEquals(1234, newConfigWith("android:targetSdkVersion=\"1234\"").getTargetSdkVersion());
+    assertThat(parsedManifests).doesNotContainKey("collected");
+  }
+
   @Test
   public void shouldReadBroadcastReceiverPermissions() throws Exception {
     AndroidManifest config = newConfig("TestAndroidManifestWithReceivers.xml");
@@ -134,6 +134,23 @@ public class DefaultRobolectricPackageManagerTest {
     assertThat(activities.get(0).activityInfo.targetActivity.toString()).isEqualTo("org.robolectric.shadows.TestActivity");
   }
 
+  @Test
+  @Config(manifest = "src/test/resources/TestAndroidManifestForImplicitIntents.xml")
+  public void queryIntentActivities_MatchWithImplicitIntentsByAction() throws Exception {
+    rpm.addManifest(ShadowApplication.getInstance().getAppManifest(), ShadowApplication.getInstance().getResourceLoader());
+    rpm.setQueryIntentImplicitly(true);
+
+    List<ResolveInfo> activities = rpm.queryIntentActivities(new Intent(Intent.ACTION_VIEW, Uri.parse("http://example.com")), 0);
+    assertThat(activities).hasSize(1);
+    assertThat(activities.get(0).activityInfo.targetActivity).isEqualTo("org.robolectric.shadows.TestActivity");
+
+    activities = rpm.queryIntentActivities(new Intent(Intent.ACTION_SEND).setType("text/plain"), 0);
+    assertThat(activities).hasSize(1);
+    assertThat(activities.get(0).activityInfo.targetActivity).isEqualTo("org.robolectric.shadows.TestActivity2");
+
+    assertThat(rpm.queryIntentActivities(new Intent(Intent.ACTION_EDIT, Uri.parse("http://example.com")), 0)).isEmpty();
+  }
+
   @Test
   @Config(manifest = "src/test/resources/TestAndroidManifestForActivityAliases.xml")
   public void queryIntentActivities_MatchWithAliasIntents() throws Exception {
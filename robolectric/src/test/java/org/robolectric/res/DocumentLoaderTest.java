@@ -0,0 +1,47 @@
+package org.robolectric.res;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.robolectric.test.TemporaryFolder;
+
+import java.io.File;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class DocumentLoaderTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private ResourcePath resourcePath;
+
+  @Before
+  public void setUp() throws Exception {
+    temporaryFolder.newFile("res/values/a.xml", "<resources><string name=\"a\">A</string></resources>");
+    temporaryFolder.newFile("res/values/b.xml", "<resources><string name=\"b\">B</resources>");
+    temporaryFolder.newFile("res/values/c.xml", "<resources><string name=\"c\">C</string></resources>");
+    File resourceBase = new File(temporaryFolder.getRoot(), "res");
+    resourcePath = new ResourcePath(null, "org.robolectric.test", Fs.newFile(resourceBase), null);
+  }
+
+  @Test
+  public void shouldFailParallelLoadsWithTheSameExceptionAsSerialLoads() throws Exception {
+    Exception serialFailure = load(false);
+    Exception parallelFailure = load(true);
+
+    assertThat(parallelFailure).isExactlyInstanceOf(serialFailure.getClass());
+    assertThat(parallelFailure.getMessage()).isEqualTo(serialFailure.getMessage());
+  }
+
+  private Exception load(boolean parallel) {
+    ResBunch data = new ResBunch();
+    try {
+      new DocumentLoader(resourcePath, parallel).load("values",
+          new ValueResourceLoader(data, "/resources/string", "string", ResType.CHAR_SEQUENCE));
+    } catch (Exception e) {
+      return e;
+    }
+    fail("expected b.xml not to parse");
+    return null;
+  }
+}
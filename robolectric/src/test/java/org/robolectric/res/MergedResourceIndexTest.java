@@ -0,0 +1,59 @@
+package org.robolectric.res;
+
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MergedResourceIndexTest {
+  @Test public void shouldLookUpNamesAndIdsInEachSubIndex() throws Exception {
+    MergedResourceIndex mergedResourceIndex = new MergedResourceIndex(
+        new DummyResourceIndex("package.a", new ResName("package.a", "type", "name-a"), 0x7f010001),
+        new DummyResourceIndex("package.b", new ResName("package.b", "type", "name-b"), 0x01010001)
+    );
+
+    assertThat(mergedResourceIndex.getResourceId(new ResName("package.a", "type", "name-a"))).isEqualTo(0x7f010001);
+    assertThat(mergedResourceIndex.getResourceId(new ResName("package.b", "type", "name-b"))).isEqualTo(0x01010001);
+    assertThat(mergedResourceIndex.getResName(0x01010001)).isEqualTo(new ResName("package.b", "type", "name-b"));
+    assertThat(mergedResourceIndex.getPackages()).containsOnly("package.a", "package.b");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectSubIndexesMappingTheSameId() throws Exception {
+    new MergedResourceIndex(
+        new DummyResourceIndex("package.a", new ResName("package.a", "type", "name-a"), 0x7f010001),
+        new DummyResourceIndex("package.b", new ResName("package.b", "type", "name-b"), 0x7f010001)
+    );
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectSubIndexesMappingTheSameName() throws Exception {
+    new MergedResourceIndex(
+        new DummyResourceIndex("package.a", new ResName("package.a", "type", "name-a"), 0x7f010001),
+        new MergedResourceIndex(new DummyResourceIndex("package.a", new ResName("package.a", "type", "name-a"), 0x7f010002))
+    );
+  }
+
+  private static class DummyResourceIndex extends ResourceIndex {
+    private final String packageName;
+
+    private DummyResourceIndex(String packageName, ResName resName, Integer value) {
+      this.packageName = packageName;
+      resourceNameToId.put(resName, value);
+    }
+
+    @Override public Integer getResourceId(ResName resName) {
+      return resourceNameToId.get(resName);
+    }
+
+    @Override public ResName getResName(int resourceId) {
+      return resourceIdToResName.get(resourceId);
+    }
+
+    @Override public Collection<String> getPackages() {
+      return Collections.singletonList(packageName);
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package org.robolectric.res;
 
 import org.junit.Test;
+
+import java.util.Arrays;
+
 import static org.robolectric.util.TestUtil.*;
 import static org.assertj.core.api.Assertions.*;
 
@@ -53,4 +56,25 @@ public class PackageResourceLoaderTest {
     assertThat(value).describedAs("Item color from gradle output is not loaded").isNotNull();
     assertThat(value.asString()).isEqualTo("1.0");
   }
+
+  @Test
+  public void lazyLoader_shouldOnlyLoadResourceTypesWhichAreRequested() {
+    PackageResourceLoader loader = new PackageResourceLoader(testResources(), true);
+    TypedResource value = loader.getValue(new ResName(TEST_PACKAGE, "string", "hello"), "");
+    assertThat(value.asString()).isEqualTo("Hello");
+    assertThat(loader.xmlDocuments.size()).isEqualTo(0);
+
+    assertThat(loader.getXml(new ResName(TEST_PACKAGE, "layout", "activity_main"), "")).isNotNull();
+    assertThat(loader.xmlDocuments.size()).isGreaterThan(0);
+  }
+
+  @Test
+  public void lazyOverlayLoader_shouldKeepPrecedenceOfAppResources() {
+    OverlayResourceLoader loader = new OverlayResourceLoader(TEST_PACKAGE, Arrays.asList(
+        new PackageResourceLoader(testResources(), true), new PackageResourceLoader(lib1Resources(), true)));
+
+    assertThat(loader.getXml(new ResName(TEST_PACKAGE, "layout", "activity_main"), "")).isNotNull();
+    assertThat(loader.getValue(new ResName(TEST_PACKAGE, "string", "in_all_libs"), "").asString()).isEqualTo("from main");
+    assertThat(loader.getValue(new ResName(TEST_PACKAGE, "string", "only_in_lib1"), "").asString()).isEqualTo("from lib1");
+  }
 }
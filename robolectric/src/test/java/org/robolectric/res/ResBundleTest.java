@@ -2,7 +2,9 @@ package org.robolectric.res;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import org.junit.Test;
+import org.robolectric.util.ReflectionHelpers;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -114,6 +116,49 @@ public class ResBundleTest {
         "port-notouch-12key"), "en-GB-port-hdpi-notouch-12key").getValue());
   }
 
+  @Test
+  public void shouldPickAgainAfterValuesAreAdded() throws Exception {
+    ResBundle<String> bundle = new ResBundle<>();
+    ResName resName = new ResName("some.package", "string", "greeting");
+
+    bundle.put("string", "greeting", "hello", xmlContext("values"));
+    assertThat(bundle.get(resName, "fr-v18")).isEqualTo("hello");
+    assertThat(bundle.get(resName, "fr-v18")).isEqualTo("hello");
+
+    bundle.put("string", "greeting", "bonjour", xmlContext("values-fr"));
+    assertThat(bundle.get(resName, "fr-v18")).isEqualTo("bonjour");
+    assertThat(bundle.get(resName, "en-v18")).isEqualTo("hello");
+    assertThat(bundle.get(new ResName("some.package", "string", "missing"), "fr-v18")).isNull();
+  }
+
+  @Test
+  public void lookingUpMissingValuesShouldNotAddEntries() throws Exception {
+    ResBundle<String> bundle = new ResBundle<>();
+    bundle.put("string", "greeting", "hello", xmlContext("values"));
+    bundle.makeImmutable();
+
+    assertThat(bundle.get(new ResName("some.package", "string", "missing"), "")).isNull();
+    assertThat(bundle.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void parsedDeviceQualifiersShouldOnlyBeCachedForTheMostRecentConfigurations() throws Exception {
+    Qualifiers first = Qualifiers.forDevice("mcc1");
+    assertThat(Qualifiers.forDevice("mcc1")).isSameAs(first);
+
+    for (int i = 2; i < 1000; i++) {
+      Qualifiers.forDevice("mcc" + i);
+    }
+
+    Map<String, Qualifiers> configurations = ReflectionHelpers.getStaticField(Qualifiers.class, "CONFIGURATIONS");
+    assertThat(configurations.size()).isLessThanOrEqualTo(64);
+    assertThat(Qualifiers.forDevice("mcc999")).isSameAs(Qualifiers.forDevice("mcc999"));
+  }
+
+  private static XmlLoader.XmlContext xmlContext(String valuesDir) {
+    return new XmlLoader.XmlContext("some.package", Fs.fileFromPath("res/" + valuesDir + "/strings.xml"));
+  }
+
   private List<Value<String>> asValues(String... qualifierses) {
     List<Value<String>> values = new ArrayList<>();
     for (String qualifiers : qualifierses) {
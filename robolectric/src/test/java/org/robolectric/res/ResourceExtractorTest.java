@@ -4,6 +4,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.robolectric.R;
 
+import java.util.Collections;
+import java.util.Map;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.robolectric.util.TestUtil.*;
 
@@ -47,6 +50,17 @@ public class ResourceExtractorTest {
     assertThat(resourceIndex.getResName(R.id.burritos).getFullyQualifiedName()).isEqualTo("org.robolectric:id/burritos");
   }
 
+  @Test
+  public void systemResourceIdsReadFromRClassFilesShouldNotBeAssignedOnLookup() throws Exception {
+    Map<String, Map<String, Integer>> androidRIds =
+        Collections.singletonMap("id", Collections.singletonMap("text1", android.R.id.text1));
+    ResourceExtractor resourceExtractor =
+        new ResourceExtractor(androidRIds, Collections.<String, Map<String, Integer>>emptyMap());
+
+    assertThat(resourceExtractor.getResourceId(new ResName("android", "id", "text1"))).isEqualTo(android.R.id.text1);
+    assertThat(resourceExtractor.getResourceId(new ResName("android", "id", "undeclared"))).isNull();
+  }
+
   @Test
   public void shouldResolveEquivalentResNames() throws Exception {
     OverlayResourceIndex overlayResourceIndex = new OverlayResourceIndex(
@@ -0,0 +1,80 @@
+package org.robolectric.res;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.robolectric.test.TemporaryFolder;
+
+import java.io.File;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.robolectric.util.TestUtil.TEST_PACKAGE;
+import static org.robolectric.util.TestUtil.testResources;
+
+public class ResourceSnapshotCacheTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private ResourceSnapshotCache cache;
+  private File cacheDir;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheDir = temporaryFolder.newFolder("snapshots");
+    cache = new ResourceSnapshotCache(cacheDir);
+  }
+
+  @Test
+  public void shouldWriteSnapshotAfterParsingAndReadItBack() throws Exception {
+    PackageResourceLoader parsed = new PackageResourceLoader(testResources(), new ResourceExtractor(testResources()), false, cache);
+    assertThat(parsed.getValue(new ResName(TEST_PACKAGE, "string", "hello"), "").asString()).isEqualTo("Hello");
+    assertThat(cache.entryFileFor(testResources())).isFile();
+
+    PackageResourceLoader restored = new PackageResourceLoader(testResources(), new ResourceExtractor(testResources()), false, null);
+    assertThat(cache.load(testResources(), restored)).isTrue();
+    assertThat(restored.data.size()).isEqualTo(parsed.data.size());
+    assertThat(restored.xmlDocuments.size()).isEqualTo(parsed.xmlDocuments.size());
+    assertThat(restored.drawableData.size()).isEqualTo(parsed.drawableData.size());
+    assertThat(restored.rawResources.size()).isEqualTo(parsed.rawResources.size());
+
+    assertThat(restored.getValue(new ResName(TEST_PACKAGE, "string", "hello"), "").asString()).isEqualTo("Hello");
+    ResName style = new ResName(TEST_PACKAGE, "style", "Theme_AnotherTheme");
+    assertThat(((StyleData) restored.getValue(style, "").getData()).getParent())
+        .isEqualTo(((StyleData) parsed.getValue(style, "").getData()).getParent());
+    assertThat(restored.getXml(new ResName(TEST_PACKAGE, "layout", "activity_main"), "").getTree().getNodeName(0))
+        .isEqualTo(parsed.getXml(new ResName(TEST_PACKAGE, "layout", "activity_main"), "").getTree().getNodeName(0));
+    assertThat(restored.getDrawableNode(new ResName(TEST_PACKAGE, "drawable", "an_image"), "").getFsFile())
+        .isEqualTo(parsed.getDrawableNode(new ResName(TEST_PACKAGE, "drawable", "an_image"), "").getFsFile());
+  }
+
+  @Test
+  public void shouldFindSnapshotsByContentWhenTheirIndexIsMissing() throws Exception {
+    new PackageResourceLoader(testResources(), new ResourceExtractor(testResources()), false, cache);
+    File index = cache.indexFileFor(testResources());
+    assertThat(index).isFile();
+    assertThat(index.delete()).isTrue();
+
+    PackageResourceLoader restored = new PackageResourceLoader(testResources(), new ResourceExtractor(testResources()), false, null);
+    assertThat(cache.load(testResources(), restored)).isTrue();
+    assertThat(restored.getValue(new ResName(TEST_PACKAGE, "string", "hello"), "").asString()).isEqualTo("Hello");
+    assertThat(index).isFile();
+  }
+
+  @Test
+  public void shouldIgnoreIndexesPointingAtMissingSnapshots() throws Exception {
+    File index = cache.indexFileFor(testResources());
+    temporaryFolder.newFile("snapshots/" + index.getName(), "missing.snapshot");
+
+    PackageResourceLoader loader = new PackageResourceLoader(testResources(), new ResourceExtractor(testResources()), false, null);
+    assertThat(cache.load(testResources(), loader)).isFalse();
+  }
+
+  @Test
+  public void shouldIgnoreSnapshotsWhichCantBeRead() throws Exception {
+    File entry = cache.entryFileFor(testResources());
+    temporaryFolder.newFile("snapshots/" + entry.getName(), "not a snapshot");
+
+    PackageResourceLoader loader = new PackageResourceLoader(testResources(), new ResourceExtractor(testResources()), false, null);
+    assertThat(cache.load(testResources(), loader)).isFalse();
+    assertThat(loader.data.size()).isEqualTo(0);
+  }
+}
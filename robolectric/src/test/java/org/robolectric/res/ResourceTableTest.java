@@ -0,0 +1,42 @@
+package org.robolectric.res;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResourceTableTest {
+  private final ResourceTable resourceTable = new ResourceTable();
+
+  @Test
+  public void shouldMapIdsAndNamesBothWays() throws Exception {
+    ResName appName = new ResName("some.package", "string", "app_name");
+    ResName systemName = new ResName("android", "id", "text1");
+    resourceTable.put(appName, 0x7f050001);
+    resourceTable.put(systemName, 0x01020014);
+
+    assertThat(resourceTable.getId(appName)).isEqualTo(0x7f050001);
+    assertThat(resourceTable.getName(0x7f050001)).isEqualTo(appName);
+    assertThat(resourceTable.getId(systemName)).isEqualTo(0x01020014);
+    assertThat(resourceTable.getName(0x01020014)).isEqualTo(systemName);
+    assertThat(resourceTable.getMaxId()).isEqualTo(0x7f050001);
+  }
+
+  @Test
+  public void shouldReturnNullForUnknownIdsAndNames() throws Exception {
+    resourceTable.put(new ResName("some.package", "string", "app_name"), 0x7f050001);
+
+    assertThat(resourceTable.getId(new ResName("some.package", "string", "other"))).isNull();
+    assertThat(resourceTable.getName(0x7f050000)).isNull();
+    assertThat(resourceTable.getName(0x7f05ffff)).isNull();
+    assertThat(resourceTable.getName(0x7f060001)).isNull();
+    assertThat(resourceTable.getName(0x01050001)).isNull();
+  }
+
+  @Test
+  public void shouldReturnSameIntegerForEveryLookup() throws Exception {
+    ResName resName = new ResName("some.package", "string", "app_name");
+    resourceTable.put(resName, 0x7f050001);
+
+    assertThat(resourceTable.getId(resName)).isSameAs(resourceTable.getId(new ResName("some.package", "string", "app_name")));
+  }
+}
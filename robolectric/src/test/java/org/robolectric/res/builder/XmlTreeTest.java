@@ -0,0 +1,95 @@
+package org.robolectric.res.builder;
+
+import org.junit.Test;
+import org.robolectric.res.FsFile;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.robolectric.util.TestUtil.resourceFile;
+
+public class XmlTreeTest {
+  @Test
+  public void shouldMatchDomParse() throws Exception {
+    for (String path : new String[] {"res/xml/preferences.xml", "res/layout/custom_layout.xml", "res/layout/text_views.xml", "res/menu/test.xml"}) {
+      FsFile file = resourceFile(path.split("/"));
+      assertThat(describe(XmlTree.parse(file.getBytes()))).describedAs(path)
+          .isEqualTo(describe(XmlTree.from(parseDom(file.getBytes()))));
+    }
+  }
+
+  @Test
+  public void shouldResolveNamespacesAndOrderAttributesByName() throws Exception {
+    XmlTree tree = XmlTree.parse(("<foo xmlns='urn:default' xmlns:a='urn:a' z='1' a:b='2'>"
+        + "x<!-- comment -->y<![CDATA[<z>]]><a:bar/></foo>").getBytes("UTF-8"));
+    int root = tree.getRoot();
+
+    assertThat(tree.getNamespace(root)).isEqualTo("urn:default");
+    assertThat(tree.getAttributeName(root, 0)).isEqualTo("a:b");
+    assertThat(tree.getAttributeNamespace(root, 0)).isEqualTo("urn:a");
+    assertThat(tree.getAttributeValue(root, "urn:a", "b")).isEqualTo("2");
+    assertThat(tree.getAttributeValue(root, null, "z")).isEqualTo("1");
+    assertThat(tree.getAttributeValue(root, XmlTree.XMLNS_NS, "a")).isEqualTo("urn:a");
+    assertThat(tree.getText(root)).isEqualTo("xy<z>");
+
+    int text = tree.getFirstChild(root);
+    assertThat(tree.getText(text)).isEqualTo("xy");
+    int bar = tree.getNextSibling(tree.getNextSibling(text));
+    assertThat(tree.getNodeName(bar)).isEqualTo("a:bar");
+    assertThat(tree.getNamespace(bar)).isEqualTo("urn:a");
+  }
+
+  @Test
+  public void shouldKeepWhitespaceOnlyTextLikeDom() throws Exception {
+    byte[] bytes = "<resources>\n  <string name=\"s\"> </string>\n</resources>".getBytes("UTF-8");
+    XmlTree tree = XmlTree.parse(bytes);
+    int string = tree.getNextSibling(tree.getFirstChild(tree.getRoot()));
+
+    assertThat(tree.getNodeName(string)).isEqualTo("string");
+    assertThat(tree.getText(string)).isEqualTo(" ")
+        .isEqualTo(parseDom(bytes).getElementsByTagName("string").item(0).getTextContent());
+    assertThat(tree.getText(tree.getRoot())).isEqualTo(parseDom(bytes).getDocumentElement().getTextContent());
+    assertThat(describe(tree)).isEqualTo(describe(XmlTree.from(parseDom(bytes))));
+  }
+
+  @Test
+  public void shouldConvertToDomDocument() throws Exception {
+    for (String path : new String[] {"res/xml/preferences.xml", "res/layout/custom_layout.xml", "res/menu/test.xml"}) {
+      XmlTree tree = XmlTree.parse(resourceFile(path.split("/")).getBytes());
+      assertThat(describe(XmlTree.from(tree.toDocument()))).describedAs(path).isEqualTo(describe(tree));
+    }
+  }
+
+  private static Document parseDom(byte[] bytes) throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    factory.setIgnoringComments(true);
+    return factory.newDocumentBuilder().parse(new ByteArrayInputStream(bytes));
+  }
+
+  private static List<String> describe(XmlTree tree) {
+    List<String> lines = new ArrayList<>();
+    describe(tree, tree.getRoot(), lines);
+    return lines;
+  }
+
+  private static void describe(XmlTree tree, int node, List<String> lines) {
+    if (!tree.isElement(node)) {
+      lines.add(tree.getNodeName(node) + " [" + tree.getText(node) + "]");
+      return;
+    }
+
+    lines.add("<" + tree.getNodeName(node) + " " + tree.getNamespace(node));
+    for (int i = 0; i < tree.getAttributeCount(node); i++) {
+      lines.add("  " + tree.getAttributeNamespace(node, i) + " " + tree.getAttributeName(node, i) + "=" + tree.getAttributeValue(node, i));
+    }
+    for (int child = tree.getFirstChild(node); child != XmlTree.NO_NODE; child = tree.getNextSibling(child)) {
+      describe(tree, child, lines);
+    }
+    lines.add(">");
+  }
+}
@@ -32,6 +32,7 @@ import static junit.framework.Assert.assertEquals;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.robolectric.Robolectric.buildActivity;
 import static org.robolectric.Shadows.shadowOf;
 
@@ -137,6 +138,74 @@ public class ShadowContextWrapperTest {
     transcript.assertEventsSoFar("High notified of test", "Low notified of test");
   }
 
+  @Test
+  public void sendOrderedBroadcast_shouldPostOneTaskForReceiversSharingAHandler() throws Exception {
+    HandlerThread handlerThread = new HandlerThread("test");
+    handlerThread.start();
+    Handler handler = new Handler(handlerThread.getLooper());
+
+    IntentFilter lowFilter = intentFilter("test");
+    lowFilter.setPriority(1);
+    contextWrapper.registerReceiver(broadcastReceiver("Low"), lowFilter, null, handler);
+
+    IntentFilter highFilter = intentFilter("test");
+    highFilter.setPriority(2);
+    contextWrapper.registerReceiver(broadcastReceiver("High"), highFilter, null, handler);
+
+    contextWrapper.sendOrderedBroadcast(new Intent("test"), null);
+    assertThat(shadowOf(handler.getLooper()).getScheduler().size()).isEqualTo(1);
+    shadowOf(handlerThread.getLooper()).idle();
+    transcript.assertEventsSoFar("High notified of test", "Low notified of test");
+  }
+
+  @Test
+  public void sendOrderedBroadcast_shouldDeliverToTheRestOfABatchWhenAReceiverThrows() throws Exception {
+    HandlerThread handlerThread = new HandlerThread("test");
+    handlerThread.start();
+    Handler handler = new Handler(handlerThread.getLooper());
+
+    IntentFilter highFilter = intentFilter("test");
+    highFilter.setPriority(3);
+    contextWrapper.registerReceiver(broadcastReceiver("High"), highFilter, null, handler);
+
+    IntentFilter middleFilter = intentFilter("test");
+    middleFilter.setPriority(2);
+    final RuntimeException failure = new RuntimeException("middle failed");
+    contextWrapper.registerReceiver(new BroadcastReceiver() {
+      @Override public void onReceive(Context context, Intent intent) {
+        transcript.add("Middle notified of " + intent.getAction());
+        throw failure;
+      }
+    }, middleFilter, null, handler);
+
+    IntentFilter lowFilter = intentFilter("test");
+    lowFilter.setPriority(1);
+    contextWrapper.registerReceiver(broadcastReceiver("Low"), lowFilter, null, handler);
+
+    contextWrapper.sendOrderedBroadcast(new Intent("test"), null);
+    try {
+      shadowOf(handlerThread.getLooper()).idle();
+      fail("expected the receiver's exception");
+    } catch (RuntimeException e) {
+      assertThat(e).isSameAs(failure);
+    }
+    transcript.assertEventsSoFar("High notified of test", "Middle notified of test", "Low notified of test");
+  }
+
+  @Test
+  public void getRegisteredReceivers_shouldBeALiveViewOfTheRegisteredReceivers() throws Exception {
+    List<ShadowApplication.Wrapper> registeredReceivers = ShadowApplication.getInstance().getRegisteredReceivers();
+    int registeredBefore = registeredReceivers.size();
+
+    contextWrapper.registerReceiver(broadcastReceiver("Larry"), intentFilter("foo"));
+    assertThat(registeredReceivers).hasSize(registeredBefore + 1);
+
+    registeredReceivers.remove(registeredReceivers.size() - 1);
+    contextWrapper.sendBroadcast(new Intent("foo"));
+    transcript.assertNoEventsSoFar();
+    assertThat(ShadowApplication.getInstance().hasReceiverForIntent(new Intent("foo"))).isFalse();
+  }
+
   @Test
   public void orderedBroadcasts_shouldAbort() throws Exception {
     String action = "test";
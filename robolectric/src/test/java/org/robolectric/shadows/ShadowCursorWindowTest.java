@@ -3,9 +3,14 @@ package org.robolectric.shadows;
 import android.database.CursorWindow;
 import android.database.DatabaseUtils;
 import android.database.MatrixCursor;
+import android.os.Build;
+import com.almworks.sqlite4java.SQLiteConnection;
+import com.almworks.sqlite4java.SQLiteStatement;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.TestRunners;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.util.SQLiteLibraryLoader;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -38,4 +43,33 @@ public class ShadowCursorWindowTest {
     assertThat(window.getInt(1, 0)).isEqualTo(34);
     assertThat(window.getFloat(1, 2)).isEqualTo(1.2f);
   }
+
+  @Test
+  @Config(sdk = Build.VERSION_CODES.LOLLIPOP)
+  public void shouldFillWindowFromStatementUntilItIsFull() throws Exception {
+    SQLiteLibraryLoader.load();
+    SQLiteConnection connection = new SQLiteConnection().open();
+    try {
+      connection.exec("CREATE TABLE numbers (id INTEGER, name TEXT)");
+      for (int i = 0; i < 100; i++) {
+        connection.exec("INSERT INTO numbers VALUES (" + i + ", 'number " + i + "')");
+      }
+      SQLiteStatement stmt = connection.prepare("SELECT id, name FROM numbers ORDER BY id");
+      long windowPtr = ShadowCursorWindow.nativeCreate("name", 1000);
+
+      long result = ShadowCursorWindow.setData(windowPtr, stmt, 10, 60, true);
+      int startPos = (int) (result >>> 32);
+      int numRows = ShadowCursorWindow.nativeGetNumRows(windowPtr);
+
+      assertThat((int) result).isEqualTo(100);
+      assertThat(numRows).isLessThan(50);
+      assertThat(startPos).isGreaterThan(10).isLessThanOrEqualTo(60);
+      assertThat(startPos + numRows).isGreaterThan(60);
+      assertThat(ShadowCursorWindow.nativeGetLong(windowPtr, 60 - startPos, 0)).isEqualTo(60);
+      assertThat(ShadowCursorWindow.nativeGetString(windowPtr, 60 - startPos, 1)).isEqualTo("number 60");
+      ShadowCursorWindow.nativeDispose(windowPtr);
+    } finally {
+      connection.dispose();
+    }
+  }
 }
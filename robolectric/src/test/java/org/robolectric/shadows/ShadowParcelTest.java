@@ -11,7 +11,6 @@ import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
-import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.TestRunners;
@@ -516,13 +515,29 @@ public class ShadowParcelTest {
     assertThat(parcel2.readByte()).isEqualTo((byte) 0xAF);
   }
 
-  @Test @Ignore("Needs implementation in ShadowParcel.ByteBuffer")
+  @Test
+  public void testMarshall_layoutMatchesNativeParcel() {
+    parcel.writeInt(1);
+    parcel.writeString("ab");
+    parcel.writeString(null);
+    parcel.writeByteArray(new byte[] { 5, 6, 7 });
+    parcel.writeLong(0x0102030405060708L);
+
+    assertThat(parcel.marshall()).isEqualTo(new byte[] {
+        1, 0, 0, 0,
+        2, 0, 0, 0, 'a', 0, 'b', 0, 0, 0, 0, 0,
+        -1, -1, -1, -1,
+        3, 0, 0, 0, 5, 6, 7, 0,
+        8, 7, 6, 5, 4, 3, 2, 1 });
+  }
+
+  @Test
   public void testSetDataSize() {
     parcel.setDataSize(8);
     assertThat(parcel.dataSize()).isEqualTo(8);
   }
 
-  @Test @Ignore("Needs implementation in ShadowParcel.ByteBuffer")
+  @Test
   public void testSetDataCapacity() {
     parcel.setDataCapacity(8);
     assertThat(parcel.dataCapacity()).isEqualTo(8);
@@ -2,6 +2,7 @@ package org.robolectric.shadows;
 
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
 import android.os.Build;
 
@@ -22,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.robolectric.shadows.ShadowSQLiteConnection.convertSQLWithLocalizedUnicodeCollator;
@@ -110,6 +112,147 @@ public class ShadowSQLiteConnectionTest {
     assertThat(conn.isOpen()).as("open").isFalse();
   }
     
+  @Test
+  public void inThreadMode_runsStatementsOnTheOpeningThread() throws Exception {
+    System.setProperty("robolectric.sqlite.inThread", "true");
+    try {
+      long inThreadPtr = ShadowSQLiteConnection.nativeOpen(databasePath.getPath(), 0, "in-thread connection", false, false);
+      long statementPtr = ShadowSQLiteConnection.nativePrepareStatement(inThreadPtr, "SELECT COUNT(*) FROM `routine`");
+      assertThat(ShadowSQLiteConnection.nativeExecuteForLong(inThreadPtr, statementPtr)).isEqualTo(0L);
+
+      final Map<Long, Thread> connectionOwners = ReflectionHelpers.getField(CONNECTIONS, "connectionOwners");
+      assertThat(connectionOwners.get(inThreadPtr)).isSameAs(Thread.currentThread());
+    } finally {
+      System.clearProperty("robolectric.sqlite.inThread");
+    }
+  }
+
+  @Test
+  public void inThreadMode_rejectsConnectionsUsedFromOtherThreads() throws Exception {
+    System.setProperty("robolectric.sqlite.inThread", "true");
+    final long inThreadPtr;
+    try {
+      inThreadPtr = ShadowSQLiteConnection.nativeOpen(databasePath.getPath(), 0, "in-thread connection", false, false);
+    } finally {
+      System.clearProperty("robolectric.sqlite.inThread");
+    }
+
+    final List<Exception> errors = new ArrayList<>();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          ShadowSQLiteConnection.nativePrepareStatement(inThreadPtr, "SELECT COUNT(*) FROM `routine`");
+        } catch (Exception e) {
+          errors.add(e);
+        }
+      }
+    };
+    thread.start();
+    thread.join();
+
+    assertThat(errors).hasSize(1);
+    assertThat(errors.get(0)).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void finalizedStatements_areReusedWithTheirBindingsCleared() {
+    long hits = ShadowSQLiteConnection.getStatementCacheHitCount();
+    long misses = ShadowSQLiteConnection.getStatementCacheMissCount();
+
+    long statementPtr = ShadowSQLiteConnection.nativePrepareStatement(ptr, "SELECT ?");
+    ShadowSQLiteConnection.nativeBindString(ptr, statementPtr, 1, "bound");
+    assertThat(ShadowSQLiteConnection.nativeExecuteForString(ptr, statementPtr)).isEqualTo("bound");
+    ShadowSQLiteConnection.nativeFinalizeStatement(ptr, statementPtr);
+
+    long reusedPtr = ShadowSQLiteConnection.nativePrepareStatement(ptr, "SELECT ?");
+    assertThat(reusedPtr).isNotEqualTo(statementPtr);
+    assertThat(ShadowSQLiteConnection.nativeExecuteForString(ptr, reusedPtr)).isNull();
+    ShadowSQLiteConnection.nativeFinalizeStatement(ptr, reusedPtr);
+
+    assertThat(ShadowSQLiteConnection.getStatementCacheMissCount() - misses).isEqualTo(1);
+    assertThat(ShadowSQLiteConnection.getStatementCacheHitCount() - hits).isEqualTo(1);
+  }
+
+  @Test
+  public void templates_restoreDatabasesWithoutRecreatingTheirSchema() throws Exception {
+    final String name = "template-" + System.nanoTime() + ".db";
+    final List<String> created = new ArrayList<>();
+    class Helper extends SQLiteOpenHelper {
+      Helper() {
+        super(RuntimeEnvironment.application, name, null, 3);
+      }
+
+      @Override
+      public void onCreate(SQLiteDatabase db) {
+        created.add(name);
+        db.execSQL("CREATE TABLE `item` (`id` INTEGER PRIMARY KEY, `name` VARCHAR)");
+        db.execSQL("INSERT INTO `item` (`name`) VALUES ('seed')");
+      }
+
+      @Override
+      public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+      }
+    }
+
+    System.setProperty("robolectric.sqlite.templates", "true");
+    try {
+      Helper first = new Helper();
+      first.getWritableDatabase();
+      first.close();
+      assertThat(RuntimeEnvironment.application.deleteDatabase(name)).isTrue();
+
+      SQLiteDatabase restored = new Helper().getWritableDatabase();
+      assertThat(created).hasSize(1);
+      assertThat(restored.getVersion()).isEqualTo(3);
+      assertThat(simpleQueryForList(restored, "SELECT `name` FROM `item`")).containsExactly("seed");
+      restored.close();
+    } finally {
+      System.clearProperty("robolectric.sqlite.templates");
+    }
+  }
+
+  @Test
+  public void templates_shouldNotBeSharedBetweenHelpersOfDifferentClasses() throws Exception {
+    final String name = "template-" + System.nanoTime() + ".db";
+    System.setProperty("robolectric.sqlite.templates", "true");
+    try {
+      SQLiteOpenHelper first = new SchemaHelper(name, 1);
+      first.getWritableDatabase();
+      first.close();
+      assertThat(RuntimeEnvironment.application.deleteDatabase(name)).isTrue();
+
+      SQLiteDatabase other = new OtherSchemaHelper(name).getWritableDatabase();
+      assertThat(simpleQueryForList(other, "SELECT `name` FROM sqlite_master WHERE `name` IN ('v1', 'other')"))
+          .containsExactly("other");
+      other.close();
+    } finally {
+      System.clearProperty("robolectric.sqlite.templates");
+    }
+  }
+
+  @Test
+  public void templates_shouldNotBeRestoredForOtherSchemaVersions() throws Exception {
+    final String name = "template-" + System.nanoTime() + ".db";
+    System.setProperty("robolectric.sqlite.templates", "true");
+    try {
+      SQLiteOpenHelper first = new SchemaHelper(name, 1);
+      first.getWritableDatabase();
+      first.close();
+      assertThat(RuntimeEnvironment.application.deleteDatabase(name)).isTrue();
+
+      SchemaHelper second = new SchemaHelper(name, 2);
+      SQLiteDatabase database = second.getWritableDatabase();
+      assertThat(second.upgraded).isFalse();
+      assertThat(database.getVersion()).isEqualTo(2);
+      assertThat(simpleQueryForList(database, "SELECT `name` FROM sqlite_master WHERE `name` IN ('v1', 'v2')"))
+          .containsExactly("v2");
+      database.close();
+    } finally {
+      System.clearProperty("robolectric.sqlite.templates");
+    }
+  }
+
   @Test
   public void reset_closesConnection() {
     ShadowSQLiteConnection.reset();
@@ -135,4 +278,103 @@ public class ShadowSQLiteConnectionTest {
 
     assertThat(statementsMap).as("statements after").isEmpty();
   }
+
+  @Test
+  public void reset_closesInThreadConnectionsOfFinishedThreads() throws Exception {
+    final Map<Long, SQLiteConnection> connectionsMap = ReflectionHelpers.getField(CONNECTIONS, "connectionsMap");
+    final List<SQLiteConnection> opened = new ArrayList<>();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        long inThreadPtr = ShadowSQLiteConnection.nativeOpen(databasePath.getPath(), 0, "in-thread connection", false, false);
+        opened.add(connectionsMap.get(inThreadPtr));
+      }
+    };
+    System.setProperty("robolectric.sqlite.inThread", "true");
+    try {
+      thread.start();
+      thread.join();
+    } finally {
+      System.clearProperty("robolectric.sqlite.inThread");
+    }
+
+    ShadowSQLiteConnection.reset();
+
+    assertThat(connectionsMap).isEmpty();
+    assertThat(opened.get(0).isOpen()).as("open").isFalse();
+  }
+
+  @Test
+  public void reset_closesInThreadConnectionsOfOtherThreadsWhenTheyOpenAnother() throws Exception {
+    final Map<Long, SQLiteConnection> connectionsMap = ReflectionHelpers.getField(CONNECTIONS, "connectionsMap");
+    final List<SQLiteConnection> opened = new ArrayList<>();
+    final CountDownLatch openedFirst = new CountDownLatch(1);
+    final CountDownLatch wasReset = new CountDownLatch(1);
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          long firstPtr = ShadowSQLiteConnection.nativeOpen(databasePath.getPath(), 0, "first connection", false, false);
+          opened.add(connectionsMap.get(firstPtr));
+          openedFirst.countDown();
+          wasReset.await();
+          long secondPtr = ShadowSQLiteConnection.nativeOpen(databasePath.getPath(), 0, "second connection", false, false);
+          ShadowSQLiteConnection.nativeClose(secondPtr);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    System.setProperty("robolectric.sqlite.inThread", "true");
+    try {
+      thread.start();
+      openedFirst.await();
+
+      ShadowSQLiteConnection.reset();
+      assertThat(connectionsMap).isEmpty();
+      assertThat(opened.get(0).isOpen()).as("open while its thread is busy").isTrue();
+
+      wasReset.countDown();
+      thread.join();
+    } finally {
+      System.clearProperty("robolectric.sqlite.inThread");
+    }
+
+    assertThat(opened.get(0).isOpen()).as("open").isFalse();
+  }
+
+  private static class SchemaHelper extends SQLiteOpenHelper {
+    private final int version;
+    boolean upgraded;
+
+    SchemaHelper(String name, int version) {
+      super(RuntimeEnvironment.application, name, null, version);
+      this.version = version;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+      db.execSQL("CREATE TABLE `v" + version + "` (`id` INTEGER PRIMARY KEY)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+      upgraded = true;
+    }
+  }
+
+  private static class OtherSchemaHelper extends SQLiteOpenHelper {
+    OtherSchemaHelper(String name) {
+      super(RuntimeEnvironment.application, name, null, 1);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+      db.execSQL("CREATE TABLE `other` (`id` INTEGER PRIMARY KEY)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    }
+  }
 }
@@ -12,12 +12,15 @@ import org.junit.runner.RunWith;
 import org.robolectric.R;
 import org.robolectric.Shadows;
 import org.robolectric.TestRunners;
+import org.robolectric.res.Attribute;
 import org.robolectric.res.ResName;
 import org.robolectric.res.ResourceLoader;
 import org.robolectric.res.Style;
 import org.robolectric.util.ActivityController;
 import org.robolectric.util.TestUtil;
 
+import java.util.Arrays;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.robolectric.Robolectric.buildActivity;
 
@@ -69,6 +72,22 @@ public class ShadowThemeTest {
     assertThat(enabled).isTrue();
   }
 
+  @Test public void shouldNotCarryAttributeSetValuesOverToLaterStyledAttributes() throws Exception {
+    TestActivity activity = buildActivity(TestActivityWithAnotherTheme.class).create().get();
+    ResourceLoader resourceLoader = Shadows.shadowOf(activity.getResources()).getResourceLoader();
+    RoboAttributeSet disabled = new RoboAttributeSet(Arrays.asList(
+        new Attribute(TestUtil.TEST_PACKAGE + ":attr/aspectRatioEnabled", "false", TestUtil.TEST_PACKAGE)), resourceLoader);
+
+    TypedArray fromStyle = activity.obtainStyledAttributes(null, R.styleable.CustomView, 0, R.style.MyCustomView);
+    TypedArray fromAttributeSet = activity.obtainStyledAttributes(disabled, R.styleable.CustomView, 0, R.style.MyCustomView);
+    TypedArray fromStyleAgain = activity.obtainStyledAttributes(null, R.styleable.CustomView, 0, R.style.MyCustomView);
+
+    assertThat(fromStyle.getBoolean(R.styleable.CustomView_aspectRatioEnabled, false)).isTrue();
+    assertThat(fromAttributeSet.getBoolean(R.styleable.CustomView_aspectRatioEnabled, true)).isFalse();
+    assertThat(fromStyleAgain.getBoolean(R.styleable.CustomView_aspectRatioEnabled, false)).isTrue();
+    assertThat(fromStyleAgain.getIndexCount()).isEqualTo(fromStyle.getIndexCount());
+  }
+
   @Test public void shouldApplyStylesFromResourceReference() throws Exception {
     TestActivity activity = buildActivity(TestActivityWithAnotherTheme.class).create().get();
     TypedArray a = activity.obtainStyledAttributes(null, R.styleable.CustomView, 0, R.attr.animalStyle);
@@ -100,6 +119,19 @@ public class ShadowThemeTest {
     assertThat(value1.coerceToString()).isEqualTo(value2.coerceToString());
   }
 
+  @Test public void shouldSeeStylesAppliedAfterTheThemeWasUsed() throws Exception {
+    TestActivity activity = buildActivity(TestActivityWithAnotherTheme.class).create().get();
+    TypedValue value = new TypedValue();
+    assertThat(activity.getTheme().resolveAttribute(R.attr.someLayoutOne, value, true)).isFalse();
+
+    activity.getTheme().applyStyle(R.style.Theme_ThirdTheme, false);
+
+    assertThat(activity.getTheme().resolveAttribute(R.attr.someLayoutOne, value, true)).isTrue();
+    assertThat(value.resourceId).isEqualTo(R.layout.activity_main);
+    TypedArray a = activity.obtainStyledAttributes(null, R.styleable.CustomView, 0, R.attr.animalStyle);
+    assertThat(a.getResourceId(R.styleable.CustomView_animalStyle, 0)).isEqualTo(R.style.Gastropod);
+  }
+
   @Test public void shouldInheritThemeValuesFromImplicitParents() throws Exception {
     TestActivity activity = buildActivity(TestActivityWithAnotherTheme.class).create().get();
     ResourceLoader resourceLoader = Shadows.shadowOf(activity.getResources()).getResourceLoader();
@@ -155,6 +155,43 @@ public class SchedulerTest {
     assertThat(runnable.wasRun).isFalse();
   }
 
+  @Test
+  public void remove_shouldNotAffectRunnablesPostedAfterwards() throws Exception {
+    AddToTranscript runnable = new AddToTranscript("one");
+    scheduler.post(runnable);
+    scheduler.remove(runnable);
+    scheduler.post(runnable);
+    assertThat(scheduler.size()).isEqualTo(1);
+    scheduler.advanceToLastPostedRunnable();
+    transcript.assertEventsSoFar("one");
+  }
+
+  @Test
+  public void postDelayed_runsRunnablesForTheSameTimeInTheOrderTheyWerePosted() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      scheduler.postDelayed(new AddToTranscript("delayed" + i), 1000);
+      scheduler.postDelayed(new AddToTranscript("now" + i), 0);
+    }
+    scheduler.advanceToNextPostedRunnable();
+    transcript.assertEventsSoFar("now0", "now1", "now2", "now3", "now4", "now5", "now6", "now7", "now8", "now9",
+        "now10", "now11", "now12", "now13", "now14", "now15", "now16", "now17", "now18", "now19");
+    scheduler.advanceToLastPostedRunnable();
+    transcript.assertEventsSoFar("delayed0", "delayed1", "delayed2", "delayed3", "delayed4", "delayed5", "delayed6",
+        "delayed7", "delayed8", "delayed9", "delayed10", "delayed11", "delayed12", "delayed13", "delayed14",
+        "delayed15", "delayed16", "delayed17", "delayed18", "delayed19");
+  }
+
+  @Test
+  public void postDelayed_ordersDelaysLongerThanAnIntCanHold() throws Exception {
+    scheduler.postDelayed(new AddToTranscript("later"), 1L << 32);
+    scheduler.postDelayed(new AddToTranscript("sooner"), 1);
+    scheduler.runOneTask();
+    transcript.assertEventsSoFar("sooner");
+    scheduler.runOneTask();
+    transcript.assertEventsSoFar("later");
+    assertThat(scheduler.getCurrentTime()).isEqualTo(startTime + (1L << 32));
+  }
+
   @Test
   public void reset_shouldUnPause() throws Exception {
     scheduler.pause();